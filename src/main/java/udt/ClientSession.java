@@ -105,6 +105,10 @@ public class ClientSession extends UDTSession {
 						//TODO validate parameters sent by peer
 						long peerSocketID=hs.getSocketID();
 						destination.setSocketID(peerSocketID);
+						//the server responds with the negotiated packet size
+						if(hs.getPacketSize()>0 && hs.getPacketSize()<getDatagramSize()){
+							setDatagramSize((int)hs.getPacketSize());
+						}
 						setState(ready);
 						socket=new UDTSocket(endPoint,this);		
 					}catch(Exception ex){
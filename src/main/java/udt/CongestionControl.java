@@ -1,7 +1,5 @@
 package udt;
 
-import java.util.List;
-
 /**
  * congestion control interface
  */
@@ -69,9 +67,10 @@ public interface CongestionControl {
 
 	/**
 	 * Callback function to be called when a loss report is received.
-	 * @param lossInfo - list of sequence number of packets
+	 * @param lossRanges - the lost sequence numbers as (first, last) pairs, 
+	 *                     see {@link udt.packets.NegativeAcknowledgement#getLossRanges()}
 	 */
-	public abstract void onLoss(List<Integer> lossInfo);
+	public abstract void onLoss(long[] lossRanges);
 
 	/**
 	 * Callback function to be called when a timeout event occurs
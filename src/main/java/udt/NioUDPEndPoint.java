@@ -0,0 +1,224 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ *
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ *
+ * DISCLAIMER
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import udt.packets.Destination;
+import udt.packets.PacketFactory;
+import udt.util.ByteBufferPool;
+
+/**
+ * an {@link UDPEndPoint} backed by a {@link DatagramChannel}.<br/>
+ * 
+ * Datagrams are read into pooled direct {@link ByteBuffer}s and the UDT packets 
+ * are decoded straight from these buffers, avoiding the intermediate copies into
+ * a heap array made by {@link java.net.DatagramSocket#receive(java.net.DatagramPacket)}.
+ * 
+ * @see UDPEndPoint#NIO_ENDPOINT
+ */
+public class NioUDPEndPoint extends UDPEndPoint {
+
+	private static final Logger logger=Logger.getLogger(NioUDPEndPoint.class.getName());
+
+	private final DatagramChannel channel;
+
+	//receive buffers
+	private final ByteBufferPool bufferPool;
+
+	/**
+	 * bind to the given address and port
+	 * @param localAddress - the local address, if <code>null</code> the wildcard address is used
+	 * @param localPort - the port to bind to. If the port is zero, the system will pick an ephemeral port.
+	 * @throws SocketException
+	 * @throws UnknownHostException
+	 */
+	public NioUDPEndPoint(InetAddress localAddress, int localPort)throws SocketException, UnknownHostException{
+		this(localAddress, localPort, false);
+	}
+
+	/**
+	 * bind to the given address and port, optionally setting the SO_REUSEPORT option
+	 * so that several endpoints can be bound to the same port. The kernel will then 
+	 * distribute incoming flows across these endpoints.<br/>
+	 * SO_REUSEPORT requires Java 9 or later and operating system support (e.g. Linux 3.9+)
+	 * 
+	 * @param localAddress - the local address, if <code>null</code> the wildcard address is used
+	 * @param localPort - the port to bind to. If the port is zero, the system will pick an ephemeral port.
+	 * @param reusePort - whether to set SO_REUSEPORT before binding
+	 * @throws SocketException - if binding fails, or SO_REUSEPORT is requested but not supported
+	 * @throws UnknownHostException
+	 */
+	public NioUDPEndPoint(InetAddress localAddress, int localPort, boolean reusePort)throws SocketException, UnknownHostException{
+		super(openChannel(localAddress, localPort, reusePort).socket());
+		channel=getSocket().getChannel();
+		bufferPool=new ByteBufferPool(DATAGRAM_SIZE, 16, true);
+		configureSocket();
+	}
+
+	/**
+	 * bind to an ephemeral port on the given address
+	 * @param localAddress
+	 * @throws SocketException
+	 * @throws UnknownHostException
+	 */
+	public NioUDPEndPoint(InetAddress localAddress)throws SocketException, UnknownHostException{
+		this(localAddress, 0);
+	}
+
+	private static DatagramChannel openChannel(InetAddress localAddress, int localPort, boolean reusePort)throws SocketException{
+		try{
+			DatagramChannel channel=DatagramChannel.open();
+			channel.configureBlocking(true);
+			if(reusePort){
+				try{
+					setReusePort(channel);
+				}catch(SocketException se){
+					channel.close();
+					throw se;
+				}
+			}
+			channel.socket().bind(new InetSocketAddress(localAddress, localPort));
+			return channel;
+		}catch(SocketException se){
+			throw se;
+		}catch(IOException ex){
+			SocketException se=new SocketException(ex.getMessage());
+			se.initCause(ex);
+			throw se;
+		}
+	}
+
+	//SO_REUSEPORT is only available via DatagramChannel.setOption() (Java 9+), so use reflection
+	private static void setReusePort(DatagramChannel channel)throws SocketException{
+		try{
+			Class<?> socketOption=Class.forName("java.net.SocketOption");
+			Object option=Class.forName("java.net.StandardSocketOptions").getField("SO_REUSEPORT").get(null);
+			Method setOption=DatagramChannel.class.getMethod("setOption", socketOption, Object.class);
+			setOption.invoke(channel, option, Boolean.TRUE);
+		}catch(InvocationTargetException ite){
+			SocketException se=new SocketException("Can't set SO_REUSEPORT: "+ite.getCause());
+			se.initCause(ite.getCause());
+			throw se;
+		}catch(Exception ex){
+			SocketException se=new SocketException("SO_REUSEPORT is not supported by this Java runtime");
+			se.initCause(ex);
+			throw se;
+		}
+	}
+
+	public DatagramChannel getChannel(){
+		return channel;
+	}
+
+	@Override
+	protected void doReceive()throws IOException{
+		while(!isStopped()){
+			ByteBuffer bb=bufferPool.acquire();
+			try{
+				//will block until a packet is received or the channel is closed
+				InetSocketAddress from=(InetSocketAddress)channel.receive(bb);
+				if(from==null)continue;
+				bb.flip();
+				UDTPacket packet=PacketFactory.createPacket(bb,getPayloadPool());
+				dispatch(packet, new Destination(from.getAddress(), from.getPort()));
+			}catch(ClosedChannelException cce){
+				if(!isStopped())logger.log(Level.INFO, "Channel closed: "+cce.getMessage());
+				break;
+			}catch(Exception ex){
+				logger.log(Level.WARNING, "Got: "+ex.getMessage(),ex);
+			}finally{
+				bufferPool.release(bb);
+			}
+		}
+	}
+
+	@Override
+	protected void doSend(UDTPacket packet)throws IOException{
+		UDTSession session=packet.getSession();
+		session.getSendLock().lock();
+		try{
+			ByteBuffer bb=session.getSendBuffer();
+			try{
+				packet.encodeInto(bb);
+				bb.flip();
+			}catch(BufferOverflowException boe){
+				//unusually large control packet, e.g. a NAK with a long loss list
+				bb=ByteBuffer.wrap(packet.getEncoded());
+			}
+			channel.send(bb, session.getSocketAddress());
+		}finally{
+			session.getSendLock().unlock();
+		}
+	}
+
+	/**
+	 * sends each datagram with a single {@link DatagramChannel#send(ByteBuffer, SocketAddress)},
+	 * directly from the (direct) buffer region 
+	 */
+	@Override
+	protected void doSend(UDTSession session, ByteBuffer datagrams, int[]lengths, int count)throws IOException{
+		SocketAddress target=session.getSocketAddress();
+		ByteBuffer bb=datagrams.duplicate();
+		int pos=bb.position();
+		for(int i=0;i<count;i++){
+			bb.limit(pos+lengths[i]);
+			bb.position(pos);
+			channel.send(bb, target);
+			pos+=lengths[i];
+		}
+	}
+
+	@Override
+	public ByteBuffer allocateSendBuffer(int capacity){
+		return ByteBuffer.allocateDirect(capacity);
+	}
+
+	public String toString(){
+		return  "NioUDPEndpoint port="+getLocalPort();
+	}
+
+}
@@ -57,9 +57,13 @@ public class ServerSession extends UDTSession {
 	private UDTPacket lastPacket;
 
 	public ServerSession(DatagramPacket dp, UDPEndPoint endPoint)throws SocketException,UnknownHostException{
-		super("ServerSession localPort="+endPoint.getLocalPort()+" peer="+dp.getAddress()+":"+dp.getPort(),new Destination(dp.getAddress(),dp.getPort()));
+		this(new Destination(dp.getAddress(),dp.getPort()),endPoint);
+	}
+
+	public ServerSession(Destination peer, UDPEndPoint endPoint)throws SocketException,UnknownHostException{
+		super("ServerSession localPort="+endPoint.getLocalPort()+" peer="+peer.getAddress()+":"+peer.getPort(),new Destination(peer.getAddress(),peer.getPort()));
 		this.endPoint=endPoint;
-		logger.info("Created "+toString()+" talking to "+dp.getAddress()+":"+dp.getPort());
+		logger.info("Created "+toString()+" talking to "+peer.getAddress()+":"+peer.getPort());
 	}
 
 	int n_handshake=0;
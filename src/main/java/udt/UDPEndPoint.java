@@ -39,17 +39,25 @@ import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import udt.packets.ConnectionHandshake;
 import udt.packets.Destination;
 import udt.packets.PacketFactory;
+import udt.util.PayloadPool;
+import udt.util.EventLoop;
+import udt.util.TimerWheel;
 import udt.util.UDTThreadFactory;
 
 /**
@@ -72,7 +80,7 @@ public class UDPEndPoint {
 
 	//if the endpoint is configured for a server socket,
 	//this queue is used to handoff new UDTSessions to the application
-	private final SynchronousQueue<UDTSession> sessionHandoff=new SynchronousQueue<UDTSession>();
+	private BlockingQueue<UDTSession> sessionHandoff=new SynchronousQueue<UDTSession>();
 
 	private boolean serverSocketMode=false;
 
@@ -81,6 +89,80 @@ public class UDPEndPoint {
 
 	public static final int DATAGRAM_SIZE=1400;
 
+	/**
+	 * key for a system property selecting the {@link NioUDPEndPoint} as the
+	 * endpoint implementation used by {@link UDTClient} and {@link UDTServerSocket}
+	 */
+	public static final String NIO_ENDPOINT="udt.endpoint.nio";
+
+	/**
+	 * key for a system property giving the number of dispatch threads used by an endpoint,
+	 * see {@link #setDispatchThreads(int)}
+	 */
+	public static final String DISPATCH_THREADS="udt.endpoint.dispatchThreads";
+
+	/**
+	 * capacity of each dispatch queue
+	 */
+	public static final int DISPATCH_QUEUE_SIZE=4096;
+
+	//number of dispatch threads, if zero packets are dispatched by the receive thread
+	private int dispatchThreads=Integer.getInteger(DISPATCH_THREADS, 0);
+
+	//per-thread dispatch queues, null if packets are dispatched inline
+	private DispatchShard[] shards;
+
+	//packets dropped because a dispatch queue was full
+	private final AtomicLong droppedPackets=new AtomicLong();
+
+	/**
+	 * key for a system property giving the number of timer threads used by an endpoint
+	 * for the ACK, NAK and EXP timers of its sessions (default: 1)
+	 */
+	public static final String TIMER_THREADS="udt.endpoint.timerThreads";
+
+	//timer wheels shared by all sessions of this endpoint, created on first use
+	private TimerWheel[] timers;
+
+	/**
+	 * key for a system property enabling the event loop runtime: if set to true, the receiver 
+	 * and sender algorithms of the sessions are run by a fixed set of event loop threads
+	 * instead of by two threads per session (default: false)
+	 */
+	public static final String EVENT_LOOP="udt.endpoint.eventLoop";
+
+	/**
+	 * key for a system property giving the number of event loop threads 
+	 * (default: the number of available processors)
+	 */
+	public static final String EVENT_LOOP_THREADS="udt.endpoint.eventLoopThreads";
+
+	//number of event loop threads, if zero each session uses its own threads
+	private int eventLoopThreads=Boolean.getBoolean(EVENT_LOOP) ? 
+			Math.max(1, Integer.getInteger(EVENT_LOOP_THREADS, Runtime.getRuntime().availableProcessors())) : 0;
+
+	//event loops shared by all sessions of this endpoint, created on first use
+	private EventLoop[] eventLoops;
+
+	//payload buffers for received data packets, retaining at most one (default size) flow window
+	private final PayloadPool payloadPool=new PayloadPool(DATAGRAM_SIZE, UDTSession.DEFAULT_FLOW_WINDOW_SIZE);
+
+	/**
+	 * create an endpoint bound to the given address and port. If the system property
+	 * {@link #NIO_ENDPOINT} is set to <code>true</code>, a {@link NioUDPEndPoint} is created
+	 * 
+	 * @param localAddress
+	 * @param localPort - the port to bind to. If the port is zero, the system will pick an ephemeral port.
+	 * @throws SocketException
+	 * @throws UnknownHostException
+	 */
+	public static UDPEndPoint create(InetAddress localAddress, int localPort)throws SocketException, UnknownHostException{
+		if(Boolean.getBoolean(NIO_ENDPOINT)){
+			return new NioUDPEndPoint(localAddress, localPort);
+		}
+		return new UDPEndPoint(localAddress, localPort);
+	}
+
 	/**
 	 * create an endpoint on the given socket
 	 *
@@ -157,6 +239,9 @@ public class UDPEndPoint {
 	 */
 	public void start(boolean serverSocketModeEnabled){
 		serverSocketMode=serverSocketModeEnabled;
+		if(dispatchThreads>0){
+			startDispatchThreads();
+		}
 		//start receive thread
 		Runnable receive=new Runnable(){
 			public void run(){
@@ -167,7 +252,7 @@ public class UDPEndPoint {
 				}
 			}
 		};
-		Thread t=UDTThreadFactory.get().newThread(receive);
+		Thread t=UDTThreadFactory.get().newPlatformThread(receive);
 		t.setName("UDPEndpoint-"+t.getName());
 		t.setDaemon(true);
 		t.start();
@@ -178,9 +263,112 @@ public class UDPEndPoint {
 		start(false);
 	}
 
+	/**
+	 * sets the number of threads that deliver received packets to their sessions.<br/>
+	 * If zero (the default), the receive thread delivers the packets itself, so a single slow
+	 * session stalls all other sessions on this endpoint. Otherwise, the receive thread only 
+	 * decodes packets and handles connection handshakes, and hands all other packets to one of 
+	 * <code>n</code> dispatch threads selected by the destination socket ID. Packets for 
+	 * the same session are thus always delivered in order by the same thread.<br/>
+	 * Must be called before {@link #start(boolean)}.
+	 * 
+	 * @param n - the number of dispatch threads
+	 */
+	public void setDispatchThreads(int n){
+		if(shards!=null)throw new IllegalStateException("Endpoint already started");
+		if(n<0)throw new IllegalArgumentException("Number of dispatch threads must not be negative");
+		this.dispatchThreads=n;
+	}
+
+	public int getDispatchThreads(){
+		return dispatchThreads;
+	}
+
+	/**
+	 * set the number of event loop threads running the receiver and sender algorithms 
+	 * of the sessions of this endpoint. If zero, each session uses a receiver and a sender thread.
+	 * Otherwise, each session is owned by one of <code>n</code> event loops selected by its socket ID.<br/>
+	 * Must be called before any session is created.
+	 * 
+	 * @param n - the number of event loop threads
+	 */
+	public synchronized void setEventLoopThreads(int n){
+		if(eventLoops!=null)throw new IllegalStateException("Event loops already created");
+		if(n<0)throw new IllegalArgumentException("Number of event loop threads must not be negative");
+		this.eventLoopThreads=n;
+	}
+
+	public synchronized int getEventLoopThreads(){
+		return eventLoopThreads;
+	}
+
+	/**
+	 * @return the number of packets that were dropped because the dispatch
+	 * queue of their session was full
+	 */
+	public long getNumberOfDroppedPackets(){
+		return droppedPackets.get();
+	}
+
+	private void startDispatchThreads(){
+		DispatchShard[] s=new DispatchShard[dispatchThreads];
+		for(int i=0;i<s.length;i++){
+			s[i]=new DispatchShard();
+			Thread t=UDTThreadFactory.get().newPlatformThread(s[i]);
+			t.setName("UDPEndpoint-Dispatch-"+i+"-"+t.getName());
+			t.setDaemon(true);
+			t.start();
+		}
+		shards=s;
+	}
+
 	public void stop(){
 		stopped=true;
 		dgSocket.close();
+		synchronized(this){
+			if(timers!=null){
+				for(TimerWheel t: timers)t.stop();
+			}
+			if(eventLoops!=null){
+				for(EventLoop l: eventLoops)l.stop();
+			}
+		}
+	}
+
+	/**
+	 * get the timer wheel for the session with the given socket ID. The sessions of an
+	 * endpoint are spread over {@link #TIMER_THREADS} timer wheels, each driven by a single thread.
+	 * 
+	 * @param socketID
+	 */
+	public synchronized TimerWheel getTimerWheel(long socketID){
+		if(timers==null){
+			TimerWheel[]t=new TimerWheel[Math.max(1, Integer.getInteger(TIMER_THREADS, 1))];
+			for(int i=0;i<t.length;i++){
+				t[i]=new TimerWheel("UDPEndpoint-Timer-"+i);
+			}
+			timers=t;
+		}
+		return timers[(int)((socketID & Long.MAX_VALUE) % timers.length)];
+	}
+
+	/**
+	 * get the event loop that runs the session with the given socket ID, if the
+	 * event loop runtime is enabled (see {@link #EVENT_LOOP})
+	 * 
+	 * @param socketID
+	 * @return the event loop, or <code>null</code> if each session uses its own threads
+	 */
+	public synchronized EventLoop getEventLoop(long socketID){
+		if(eventLoopThreads==0)return null;
+		if(eventLoops==null){
+			EventLoop[]l=new EventLoop[eventLoopThreads];
+			for(int i=0;i<l.length;i++){
+				l[i]=new EventLoop("UDPEndpoint-EventLoop-"+i);
+			}
+			eventLoops=l;
+		}
+		return eventLoops[(int)((socketID & Long.MAX_VALUE) % eventLoops.length)];
 	}
 
 	/**
@@ -200,6 +388,13 @@ public class UDPEndPoint {
 		return dgSocket;
 	}
 
+	/**
+	 * the pool used for the payload of received data packets
+	 */
+	public PayloadPool getPayloadPool(){
+		return payloadPool;
+	}
+
 	UDTPacket getLastPacket(){
 		return lastPacket;
 	}
@@ -217,6 +412,20 @@ public class UDPEndPoint {
 		return sessions.values();
 	}
 
+	/**
+	 * replace the queue used to hand off new sessions to the application, allowing 
+	 * several endpoints to feed a single {@link UDTServerSocket}. 
+	 * Must be called before {@link #start(boolean)}.
+	 * @param handoff
+	 */
+	void setSessionHandoff(BlockingQueue<UDTSession> handoff){
+		this.sessionHandoff=handoff;
+	}
+
+	BlockingQueue<UDTSession> getSessionHandoff(){
+		return sessionHandoff;
+	}
+
 	/**
 	 * wait the given time for a new connection
 	 * @param timeout - the time to wait
@@ -257,50 +466,8 @@ public class UDPEndPoint {
 
 					Destination peer=new Destination(dp.getAddress(), dp.getPort());
 					int l=dp.getLength();
-					UDTPacket packet=PacketFactory.createPacket(dp.getData(),l);
-					lastPacket=packet;
-
-					//handle connection handshake 
-					if(packet.isConnectionHandshake()){
-						synchronized(lock){
-							Long id=Long.valueOf(packet.getDestinationID());
-							UDTSession session=sessions.get(id);
-							if(session==null){
-								session=new ServerSession(dp,this);
-								addSession(session.getSocketID(),session);
-								//TODO need to check peer to avoid duplicate server session
-								if(serverSocketMode){
-									logger.fine("Pooling new request.");
-									sessionHandoff.put(session);
-									logger.fine("Request taken for processing.");
-								}
-							}
-							peer.setSocketID(((ConnectionHandshake)packet).getSocketID());
-							session.received(packet,peer);
-						}
-					}
-					else{
-						//dispatch to existing session
-						long dest=packet.getDestinationID();
-						UDTSession session;
-						if(dest==lastDestID){
-							session=lastSession;
-						}
-						else{
-							session=sessions.get(dest);
-							lastSession=session;
-							lastDestID=dest;
-						}
-						if(session==null){
-							n++;
-							if(n%100==1){
-								logger.warning("Unknown session <"+dest+"> requested from <"+peer+"> packet type "+packet.getClass().getName());
-							}
-						}
-						else{
-							session.received(packet,peer);
-						}
-					}
+					UDTPacket packet=PacketFactory.createPacket(dp.getData(),l,payloadPool);
+					dispatch(packet, peer);
 				}catch(SocketException ex){
 					logger.log(Level.INFO, "SocketException: "+ex.getMessage());
 				}catch(SocketTimeoutException ste){
@@ -313,11 +480,169 @@ public class UDPEndPoint {
 		}
 	}
 
+	/**
+	 * dispatches a received UDT packet to the {@link UDTSession} it is addressed to,
+	 * creating a new {@link ServerSession} for a connection handshake if required
+	 * 
+	 * @param packet - the received packet
+	 * @param peer - the sender of the packet
+	 * @throws Exception
+	 */
+	protected void dispatch(UDTPacket packet, Destination peer)throws Exception{
+		lastPacket=packet;
+
+		//handle connection handshake 
+		if(packet.isConnectionHandshake()){
+			synchronized(lock){
+				Long id=Long.valueOf(packet.getDestinationID());
+				UDTSession session=sessions.get(id);
+				if(session==null){
+					session=new ServerSession(peer,this);
+					addSession(session.getSocketID(),session);
+					//TODO need to check peer to avoid duplicate server session
+					if(serverSocketMode){
+						logger.fine("Pooling new request.");
+						sessionHandoff.put(session);
+						logger.fine("Request taken for processing.");
+					}
+				}
+				peer.setSocketID(((ConnectionHandshake)packet).getSocketID());
+				session.received(packet,peer);
+			}
+		}
+		else{
+			//dispatch to existing session
+			long dest=packet.getDestinationID();
+			UDTSession session;
+			if(dest==lastDestID){
+				session=lastSession;
+			}
+			else{
+				session=sessions.get(dest);
+				lastSession=session;
+				lastDestID=dest;
+			}
+			if(session==null){
+				n++;
+				if(n%100==1){
+					logger.warning("Unknown session <"+dest+"> requested from <"+peer+"> packet type "+packet.getClass().getName());
+				}
+			}
+			else if(shards!=null){
+				DispatchShard shard=shards[(int)((dest & Long.MAX_VALUE) % shards.length)];
+				if(!shard.queue.offer(new Dispatch(session, packet, peer))){
+					//the session will recover the packet like any other lost packet
+					if(droppedPackets.incrementAndGet()%100==1){
+						logger.warning("Dispatch queue full, dropping packet for session <"+dest+">");
+					}
+				}
+			}
+			else{
+				session.received(packet,peer);
+			}
+		}
+	}
+
+	//a received packet waiting to be delivered to its session
+	private static class Dispatch{
+		final UDTSession session;
+		final UDTPacket packet;
+		final Destination peer;
+
+		Dispatch(UDTSession session, UDTPacket packet, Destination peer){
+			this.session=session;
+			this.packet=packet;
+			this.peer=peer;
+		}
+	}
+
+	//delivers queued packets to their sessions
+	private class DispatchShard implements Runnable{
+
+		final BlockingQueue<Dispatch> queue=new ArrayBlockingQueue<Dispatch>(DISPATCH_QUEUE_SIZE);
+
+		public void run(){
+			while(!stopped){
+				try{
+					Dispatch d=queue.poll(100, TimeUnit.MILLISECONDS);
+					if(d!=null){
+						d.session.received(d.packet, d.peer);
+					}
+				}catch(InterruptedException ie){
+					return;
+				}catch(Exception ex){
+					logger.log(Level.WARNING, "Got: "+ex.getMessage(),ex);
+				}
+			}
+		}
+	}
+
+	protected boolean isStopped(){
+		return stopped;
+	}
+
 	protected void doSend(UDTPacket packet)throws IOException{
-		byte[]data=packet.getEncoded();
-		DatagramPacket dgp = packet.getSession().getDatagram();
-		dgp.setData(data);
-		dgSocket.send(dgp);
+		UDTSession session=packet.getSession();
+		DatagramPacket dgp = session.getDatagram();
+		session.getSendLock().lock();
+		try{
+			byte[]buf=session.getSendBuffer().array();
+			try{
+				dgp.setData(buf, 0, packet.encodeInto(buf, 0));
+			}catch(BufferOverflowException boe){
+				//unusually large control packet, e.g. a NAK with a long loss list
+				dgp.setData(packet.getEncoded());
+			}
+			dgSocket.send(dgp);
+		}finally{
+			session.getSendLock().unlock();
+		}
+	}
+
+	/**
+	 * sends a batch of datagrams to the peer of the given session. The datagrams 
+	 * have been encoded back to back into the buffer, starting at its position.<br/>
+	 * 
+	 * This allows the sender to encode a number of packets into a single region
+	 * and hand them to the endpoint in one call.
+	 * 
+	 * @param session - the session
+	 * @param datagrams - buffer containing the encoded datagrams, 
+	 *                    preferably obtained from {@link #allocateSendBuffer(int)}
+	 * @param lengths - the length of each datagram
+	 * @param count - the number of datagrams to send
+	 * @throws IOException
+	 */
+	protected void doSend(UDTSession session, ByteBuffer datagrams, int[]lengths, int count)throws IOException{
+		byte[]buf;
+		int offset;
+		if(datagrams.hasArray()){
+			buf=datagrams.array();
+			offset=datagrams.arrayOffset()+datagrams.position();
+		}else{
+			buf=new byte[datagrams.remaining()];
+			datagrams.duplicate().get(buf);
+			offset=0;
+		}
+		DatagramPacket dgp = session.getDatagram();
+		session.getSendLock().lock();
+		try{
+			for(int i=0;i<count;i++){
+				dgp.setData(buf, offset, lengths[i]);
+				dgSocket.send(dgp);
+				offset+=lengths[i];
+			}
+		}finally{
+			session.getSendLock().unlock();
+		}
+	}
+
+	/**
+	 * allocate a buffer suitable for {@link #doSend(UDTSession, ByteBuffer, int[], int)}
+	 * @param capacity
+	 */
+	public ByteBuffer allocateSendBuffer(int capacity){
+		return ByteBuffer.allocate(capacity);
 	}
 
 	public String toString(){
@@ -0,0 +1,172 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+
+/**
+ * a channel view of a {@link UDTSocket}, for reading received data directly into 
+ * and sending data directly from (possibly direct) {@link ByteBuffer}s, without
+ * an intermediate heap array.<br/>
+ * 
+ * This allows for example to receive a file with {@link java.nio.channels.FileChannel#transferFrom}.
+ * Reads follow the blocking mode of the socket's {@link UDTInputStream}. 
+ * As with the streams, a channel should only be read by a single thread.
+ */
+public class UDTChannel implements ByteChannel, ScatteringByteChannel, GatheringByteChannel {
+
+	private final UDTSocket socket;
+
+	private volatile boolean open=true;
+
+	//size of the file regions mapped by transferFrom()
+	private static final long MAPPING_SIZE=64*1024*1024;
+
+	public UDTChannel(UDTSocket socket){
+		this.socket=socket;
+	}
+
+	/**
+	 * reads the data that is available in order into the given buffer
+	 * @return the number of bytes read, possibly zero, or -1 at the end of the stream
+	 */
+	public int read(ByteBuffer dst)throws IOException{
+		checkOpen();
+		return socket.getInputStream().read(dst);
+	}
+
+	public long read(ByteBuffer[] dsts)throws IOException{
+		return read(dsts, 0, dsts.length);
+	}
+
+	/**
+	 * reads the data that is available in order into the given buffers, filling each 
+	 * buffer before moving on to the next. Only the first read may wait for data.
+	 */
+	public long read(ByteBuffer[] dsts, int offset, int length)throws IOException{
+		checkOpen();
+		UDTInputStream in=socket.getInputStream();
+		long total=0;
+		for(int i=offset;i<offset+length;i++){
+			ByteBuffer dst=dsts[i];
+			if(!dst.hasRemaining())continue;
+			int n=in.read(dst, total==0);
+			if(n<0)return total==0 ? -1 : total;
+			total+=n;
+			//no more data available right now
+			if(dst.hasRemaining())break;
+		}
+		return total;
+	}
+
+	/**
+	 * sends all remaining bytes of the given buffer, waiting as 
+	 * necessary for space in the send queue
+	 * @return the number of bytes written
+	 */
+	public int write(ByteBuffer src)throws IOException{
+		checkOpen();
+		int n=src.remaining();
+		socket.doWrite(src);
+		return n;
+	}
+
+	public long write(ByteBuffer[] srcs)throws IOException{
+		return write(srcs, 0, srcs.length);
+	}
+
+	public long write(ByteBuffer[] srcs, int offset, int length)throws IOException{
+		checkOpen();
+		long total=0;
+		for(int i=offset;i<offset+length;i++){
+			total+=write(srcs[i]);
+		}
+		return total;
+	}
+
+	/**
+	 * sends part of the given file without copying it through the Java heap: the file is 
+	 * memory mapped (in segments), and the data packets reference the mapping directly. 
+	 * Retransmissions re-read the data from the mapping, so the sender keeps no copy of 
+	 * the unacknowledged data. The file must not be modified until the data has been 
+	 * acknowledged.
+	 * 
+	 * @param src - the file
+	 * @param position - the position in the file
+	 * @param count - the maximum number of bytes to send
+	 * @return the number of bytes sent
+	 */
+	public long transferFrom(FileChannel src, long position, long count)throws IOException{
+		checkOpen();
+		long size=Math.min(count, src.size()-position);
+		//map whole packets, so that only the last packet is shorter than the chunk size
+		int chunkSize=socket.getSession().getChunkSize();
+		long mappingSize=MAPPING_SIZE-MAPPING_SIZE%chunkSize;
+		long sent=0;
+		while(sent<size){
+			long len=Math.min(mappingSize, size-sent);
+			socket.doWriteByReference(src.map(MapMode.READ_ONLY, position+sent, len));
+			sent+=len;
+		}
+		return sent;
+	}
+
+	public boolean isOpen(){
+		return open;
+	}
+
+	/**
+	 * closes this channel and the socket
+	 */
+	public void close()throws IOException{
+		if(!open)return;
+		open=false;
+		socket.close();
+	}
+
+	public UDTSocket getSocket(){
+		return socket;
+	}
+
+	private void checkOpen()throws IOException{
+		if(!open)throw new ClosedChannelException();
+	}
+}
@@ -53,13 +53,13 @@ public class UDTClient {
 
 	public UDTClient(InetAddress address, int localport)throws SocketException, UnknownHostException{
 		//create endpoint
-		clientEndpoint=new UDPEndPoint(address,localport);
+		clientEndpoint=UDPEndPoint.create(address,localport);
 		logger.info("Created client endpoint on port "+localport);
 	}
 
 	public UDTClient(InetAddress address)throws SocketException, UnknownHostException{
 		//create endpoint
-		clientEndpoint=new UDPEndPoint(address);
+		clientEndpoint=UDPEndPoint.create(address,0);
 		logger.info("Created client endpoint on port "+clientEndpoint.getLocalPort());
 	}
 
@@ -114,6 +114,28 @@ public class UDTClient {
 		return clientSession.getSocket().getInputStream().read(data);
 	}
 
+	/**
+	 * sends the given data as a single message
+	 * @param data - the message
+	 * @param ttl - time-to-live in milliseconds, or a value &lt;=0 if the message must always be delivered
+	 * @param inOrder - whether the message must be delivered in order
+	 * @throws IOException
+	 * @see UDTSocket#sendMessage(byte[], int, boolean)
+	 */
+	public void sendMessage(byte[]data, int ttl, boolean inOrder)throws IOException{
+		clientSession.getSocket().sendMessage(data, ttl, inOrder);
+	}
+
+	/**
+	 * receives the next message
+	 * @return the message, or <code>null</code> if the connection has been closed
+	 * @throws IOException
+	 * @see UDTSocket#receiveMessage()
+	 */
+	public byte[] receiveMessage()throws IOException{
+		return clientSession.getSocket().receiveMessage();
+	}
+
 	/**
 	 * flush outstanding data, with the specified maximum waiting time
 	 * @param timeOut - timeout in millis (if smaller than 0, no timeout is used) 
@@ -151,6 +173,10 @@ public class UDTClient {
 		return clientSession.getSocket().getOutputStream();
 	}
 
+	public UDTChannel getChannel()throws IOException{
+		return clientSession.getSocket().getChannel();
+	}
+
 	public UDPEndPoint getEndpoint()throws IOException{
 		return clientEndpoint;
 	}
@@ -1,6 +1,5 @@
 package udt;
 
-import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -194,11 +193,11 @@ public class UDTCongestionControl implements CongestionControl {
 	}
 
 	/* (non-Javadoc)
-	 * @see udt.CongestionControl#onNAK(java.util.List)
+	 * @see udt.CongestionControl#onLoss(long[])
 	 */
-	public void onLoss(List<Integer>lossInfo){
+	public void onLoss(long[]lossRanges){
 		loss=true;
-		long firstBiggestlossSeqNo=lossInfo.get(0);
+		long firstBiggestlossSeqNo=lossRanges[0];
 		nACKCount++;
 		/*1) If it is in slow start phase, set inter-packet interval to 
       	   1/recvrate. Slow start ends. Stop. */
@@ -32,12 +32,20 @@
 
 package udt;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import udt.packets.MessageDropRequest;
+import udt.util.MappedFileWriter;
+import udt.util.MessageNumber;
+import udt.util.PayloadPool;
 import udt.util.ReceiveBuffer;
+import udt.util.SequenceNumber;
 
 /**
  * The UDTInputStream receives data blocks from the {@link UDTSocket}
@@ -53,6 +61,9 @@ public class UDTInputStream extends InputStream {
 
 	private final ReceiveBuffer receiveBuffer;
 
+	//pool the data chunks are returned to after they have been read
+	private final PayloadPool payloadPool;
+
 	//set to 'false' by the receiver when it gets a shutdown signal from the peer
 	//see the noMoreData() method
 	private final AtomicBoolean expectMoreData=new AtomicBoolean(true);
@@ -61,6 +72,9 @@ public class UDTInputStream extends InputStream {
 
 	private volatile boolean blocking=true;
 
+	//if set, data packets belonging to a file are written directly to that file
+	private volatile MappedFileWriter fileWriter;
+
 	/**
 	 * create a new {@link UDTInputStream} connected to the given socket
 	 * @param socket - the {@link UDTSocket}
@@ -71,6 +85,7 @@ public class UDTInputStream extends InputStream {
 		int capacity=socket!=null? 2 * socket.getSession().getFlowWindowSize() : 128 ;
 		long initialSequenceNum=socket!=null?socket.getSession().getInitialSequenceNumber():1;
 		receiveBuffer=new ReceiveBuffer(capacity,initialSequenceNum);
+		payloadPool=socket!=null && socket.getEndpoint()!=null? socket.getEndpoint().getPayloadPool() : null;
 	}
 
 	private final byte[]single=new byte[1];
@@ -95,30 +110,57 @@ public class UDTInputStream extends InputStream {
 
 	@Override
 	public int read(byte[]target)throws IOException{
+		return read(target, 0, target.length);
+	}
+
+	@Override
+	public int read(byte[]target, int off, int len)throws IOException{
+		return read(ByteBuffer.wrap(target, off, len));
+	}
+
+	/**
+	 * reads as much data as is available in order, up to the remaining space of the 
+	 * target buffer. All complete chunks that fit are copied in a single pass over 
+	 * the receive buffer. If no data is available, this method blocks (in blocking mode)
+	 * or waits for at most 10 milliseconds.
+	 * 
+	 * @param target
+	 * @return the number of bytes read, 0 if no data is available yet, 
+	 *         or -1 if the end of the stream has been reached
+	 * @throws IOException
+	 */
+	public int read(ByteBuffer target)throws IOException{
+		return read(target, true);
+	}
+
+	/**
+	 * @param target
+	 * @param wait - if <code>false</code>, only reads data that is available immediately
+	 */
+	int read(ByteBuffer target, boolean wait)throws IOException{
+		if(!target.hasRemaining())return 0;
 		try{
 			int read=0;
-			updateCurrentChunk(false);
-			while(currentChunk!=null){
-				byte[]data=currentChunk.data;
-				int length=Math.min(target.length-read,data.length-offset);
-				System.arraycopy(data, offset, target, read, length);
-				read+=length;
-				offset+=length;
-				//check if chunk has been fully read
-				if(offset>=data.length){
-					currentChunk=null;
-					offset=0;
+			while(true){
+				//the rest of a partially read chunk
+				if(currentChunk!=null){
+					read+=copyCurrentChunk(target);
+					if(!target.hasRemaining())return read;
 				}
-
-				//if no more space left in target, exit now
-				if(read==target.length){
-					return read;
+				read+=receiveBuffer.drainTo(target);
+				if(!target.hasRemaining())return read;
+				if(read>0){
+					//the next chunk may fit partially, but don't wait for it
+					currentChunk=receiveBuffer.poll();
+					if(currentChunk==null)return read;
+				}
+				else{
+					if(wait)updateCurrentChunk(blocking);
+					else currentChunk=receiveBuffer.poll();
+					if(currentChunk==null)break;
 				}
-
-				updateCurrentChunk(blocking && read==0);
 			}
 
-			if(read>0)return read;
 			if(closed)return -1;
 			if(expectMoreData.get() || !receiveBuffer.isEmpty())return 0;
 			//no more data
@@ -131,6 +173,20 @@ public class UDTInputStream extends InputStream {
 		}
 	}
 
+	//copy as much as possible of the current chunk, returns the number of bytes copied
+	private int copyCurrentChunk(ByteBuffer target){
+		int length=Math.min(target.remaining(),currentChunk.length-offset);
+		target.put(currentChunk.data, offset, length);
+		offset+=length;
+		//check if chunk has been fully read
+		if(offset>=currentChunk.length){
+			currentChunk.release();
+			currentChunk=null;
+			offset=0;
+		}
+		return length;
+	}
+
 	/**
 	 * Reads the next valid chunk of application data from the queue<br/>
 	 * 
@@ -167,7 +223,175 @@ public class UDTInputStream extends InputStream {
 	 * 
 	 */
 	protected boolean haveNewData(long sequenceNumber,byte[]data)throws IOException{
-		return receiveBuffer.offer(new AppData(sequenceNumber,data));
+		return haveNewData(sequenceNumber, data, data.length);
+	}
+
+	/**
+	 * new application data, contained in the first <code>length</code> bytes of the 
+	 * given array. This input stream takes ownership of the array, and will return it 
+	 * to the endpoint's payload pool once it has been read or discarded.
+	 * @param sequenceNumber
+	 * @param data
+	 * @param length
+	 * @return <code>false</code> if the data could not be stored because the receive buffer is full
+	 */
+	protected boolean haveNewData(long sequenceNumber,byte[]data,int length)throws IOException{
+		return haveNewData(sequenceNumber, 0, data, length);
+	}
+
+	/**
+	 * new application data belonging to a message
+	 * @param sequenceNumber
+	 * @param messageNumber - the message number field of the data packet
+	 * @param data
+	 * @param length
+	 * @return <code>false</code> if the data could not be stored because the receive buffer is full
+	 */
+	protected boolean haveNewData(long sequenceNumber,long messageNumber,byte[]data,int length)throws IOException{
+		MappedFileWriter writer=fileWriter;
+		if(writer!=null && writer.write(sequenceNumber, data, length)){
+			if(payloadPool!=null)payloadPool.release(data);
+			return true;
+		}
+		AppData chunk=new AppData(sequenceNumber,messageNumber,data,length,payloadPool,false);
+		boolean ok=receiveBuffer.offer(chunk);
+		if(!ok)chunk.release();
+		else if(writer==null){
+			//the reader may have started receiving a file meanwhile, 
+			//and missed this chunk when it moved the stored chunks to the file
+			writer=fileWriter;
+			if(writer!=null && writer.contains(sequenceNumber)){
+				moveToFile(writer, sequenceNumber);
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * marks a packet of a message that the sender dropped (see {@link MessageDropRequest}), 
+	 * so that the reader skips the message
+	 * @param sequenceNumber
+	 * @param messageNumber
+	 * @return <code>false</code> if the mark could not be stored because the receive buffer is full
+	 */
+	protected boolean haveDroppedData(long sequenceNumber,long messageNumber){
+		return receiveBuffer.offer(new AppData(sequenceNumber,messageNumber,NO_DATA,0,null,true));
+	}
+
+	private static final byte[]NO_DATA=new byte[0];
+
+	/**
+	 * reads the next complete message, as sent by {@link UDTSocket#sendMessage(byte[], int, boolean)}. 
+	 * Messages that have been dropped by the sender, because their time-to-live expired, are skipped.<br/>
+	 * 
+	 * Messages are returned in the order they were sent. This method blocks until a complete 
+	 * message is available, regardless of the blocking mode, since a partially received 
+	 * message cannot be returned.
+	 * 
+	 * @return the message, or <code>null</code> if the stream has been closed or 
+	 *         the end of the stream has been reached
+	 * @throws IOException
+	 */
+	public byte[] readMessage()throws IOException{
+		if(currentChunk!=null && offset>0){
+			throw new IllegalStateException("Stream is not at a packet boundary");
+		}
+		ByteArrayOutputStream message=null;
+		long number=-1;
+		while(true){
+			//once no more data is expected, only the stored chunks are left
+			updateCurrentChunk(expectMoreData.get());
+			AppData chunk=currentChunk;
+			if(chunk==null){
+				if(closed || !expectMoreData.get())return null;
+				continue;
+			}
+			currentChunk=null;
+			try{
+				long field=chunk.messageNumber;
+				if(chunk.dropped){
+					message=null;
+					continue;
+				}
+				if(MessageNumber.isFirst(field)){
+					message=new ByteArrayOutputStream(chunk.length);
+					number=MessageNumber.getNumber(field);
+				}
+				else if(message==null || MessageNumber.getNumber(field)!=number){
+					//rest of a dropped message
+					message=null;
+					continue;
+				}
+				message.write(chunk.data, 0, chunk.length);
+				if(MessageNumber.isLast(field)){
+					return message.toByteArray();
+				}
+			}finally{
+				chunk.release();
+			}
+		}
+	}
+
+	/**
+	 * receives the next <code>size</code> bytes of the stream directly into the given 
+	 * file, starting at the given position. Each data packet is written to its place in 
+	 * the file (which is memory mapped) as soon as it arrives, so packets received out of 
+	 * order do not wait for missing ones, and the size of the receive buffer does not 
+	 * limit how far ahead data can be accepted.<br/>
+	 * 
+	 * The sender must send the file data in full packets of the chunk size (except for the 
+	 * last one), starting at a packet boundary, as {@link udt.util.SendFile} does. 
+	 * This method blocks until the file is complete.
+	 * 
+	 * @param file - the target file, opened for writing
+	 * @param position - the position in the file
+	 * @param size - the number of bytes to receive
+	 * @throws IOException - if the connection is closed before the file is complete, 
+	 *         or the sender does not send whole packets
+	 */
+	public void receiveFile(FileChannel file, long position, long size)throws IOException{
+		receiveFile(file, position, size, socket.getSession().getChunkSize());
+	}
+
+	void receiveFile(FileChannel file, long position, long size, int chunkSize)throws IOException{
+		if(currentChunk!=null){
+			throw new IllegalStateException("Stream is not at a packet boundary");
+		}
+		MappedFileWriter writer=new MappedFileWriter(file, position, size, chunkSize, 
+				receiveBuffer.getNextSequenceNumber());
+		fileWriter=writer;
+		try{
+			//move the chunks that have already been stored
+			long seq=writer.getFirstSequenceNumber();
+			int n=Math.min(receiveBuffer.getSize(), writer.getNumberOfPackets());
+			for(int i=0;i<n;i++){
+				moveToFile(writer, seq);
+				seq=SequenceNumber.increment(seq);
+			}
+			while(!writer.awaitCompletion(1000, TimeUnit.MILLISECONDS)){
+				if(closed || !expectMoreData.get()){
+					//the last packets may still be processed
+					if(writer.awaitCompletion(100, TimeUnit.MILLISECONDS))break;
+					throw new IOException("Connection closed after receiving "+
+							writer.getNumberOfReceivedPackets()+" of "+writer.getNumberOfPackets()+" packets");
+				}
+			}
+		}catch(InterruptedException ie){
+			IOException ex=new IOException();
+			ex.initCause(ie);
+			throw ex;
+		}finally{
+			receiveBuffer.skipTo(writer.getEndSequenceNumber());
+			fileWriter=null;
+		}
+	}
+
+	private void moveToFile(MappedFileWriter writer, long sequenceNumber){
+		AppData chunk=receiveBuffer.remove(sequenceNumber);
+		if(chunk!=null){
+			writer.write(sequenceNumber, chunk.data, chunk.length);
+			chunk.release();
+		}
 	}
 
 	@Override
@@ -208,9 +432,36 @@ public class UDTInputStream extends InputStream {
 	public static class AppData implements Comparable<AppData>{
 		final long sequenceNumber;
 		final byte[] data;
+		final int length;
+		//message number field of the data packet
+		final long messageNumber;
+		//whether this marks a packet dropped by the sender
+		final boolean dropped;
+		//pool the data array is returned to, may be null
+		private final PayloadPool pool;
+
 		public AppData(long sequenceNumber, byte[]data){
+			this(sequenceNumber, data, data.length, null);
+		}
+
+		public AppData(long sequenceNumber, byte[]data, int length, PayloadPool pool){
+			this(sequenceNumber, 0, data, length, pool, false);
+		}
+
+		public AppData(long sequenceNumber, long messageNumber, byte[]data, int length, PayloadPool pool, boolean dropped){
 			this.sequenceNumber=sequenceNumber;
+			this.messageNumber=messageNumber;
 			this.data=data;
+			this.length=length;
+			this.pool=pool;
+			this.dropped=dropped;
+		}
+
+		/**
+		 * return the data array to its pool. The data must not be accessed afterwards
+		 */
+		public void release(){
+			if(pool!=null)pool.release(data);
 		}
 
 		public int compareTo(AppData o) {
@@ -218,12 +469,20 @@ public class UDTInputStream extends InputStream {
 		}
 
 		public String toString(){
-			return sequenceNumber+"["+data.length+"]";
+			return sequenceNumber+"["+length+"]";
 		}
 
 		public long getSequenceNumber(){
 			return sequenceNumber;
 		}
+
+		public byte[] getData(){
+			return data;
+		}
+
+		public int getLength(){
+			return length;
+		}
 		
 		@Override
 		public int hashCode() {
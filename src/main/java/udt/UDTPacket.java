@@ -32,6 +32,8 @@
 
 package udt;
 
+import java.nio.ByteBuffer;
+
 public interface UDTPacket extends Comparable<UDTPacket>{
 
 
@@ -52,6 +54,25 @@ public interface UDTPacket extends Comparable<UDTPacket>{
 	public int getControlPacketType();
 
 	public byte[] getEncoded();
+
+	/**
+	 * writes the complete encoded packet into the given buffer, starting at its 
+	 * current position, without allocating a temporary array
+	 * 
+	 * @param target
+	 * @throws java.nio.BufferOverflowException if the packet does not fit
+	 */
+	public void encodeInto(ByteBuffer target);
+
+	/**
+	 * writes the complete encoded packet into the given array
+	 * 
+	 * @param target
+	 * @param offset - start position in the target array
+	 * @return the number of bytes written
+	 * @throws java.nio.BufferOverflowException if the packet does not fit
+	 */
+	public int encodeInto(byte[] target, int offset);
 	
 	/**
 	 * return <code>true</code> if this packet should be routed to
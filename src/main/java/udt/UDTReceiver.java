@@ -32,10 +32,8 @@
 
 package udt;
 import java.io.IOException;
-import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +42,7 @@ import udt.packets.Acknowledgment2;
 import udt.packets.ControlPacket;
 import udt.packets.DataPacket;
 import udt.packets.KeepAlive;
+import udt.packets.MessageDropRequest;
 import udt.packets.NegativeAcknowledgement;
 import udt.packets.Shutdown;
 import udt.packets.ControlPacket.ControlPacketType;
@@ -52,9 +51,11 @@ import udt.receiver.AckHistoryWindow;
 import udt.receiver.PacketHistoryWindow;
 import udt.receiver.PacketPairWindow;
 import udt.receiver.ReceiverLossList;
-import udt.receiver.ReceiverLossListEntry;
+import udt.util.EventLoop;
 import udt.util.MeanValue;
+import udt.util.MpscQueue;
 import udt.util.SequenceNumber;
+import udt.util.TimerWheel;
 import udt.util.UDTStatistics;
 import udt.util.UDTThreadFactory;
 import udt.util.Util;
@@ -116,18 +117,26 @@ public class UDTReceiver {
 	//round trip time variance
 	long roundTripTimeVar=roundTripTime/2;
 
-	//to check the ACK, NAK, or EXP timer
-	private long nextACK;
+	//the ACK, NAK and EXP timers are run by a timer wheel shared with the other sessions
+	//of the endpoint. They only flag the event as due and wake up the receiver thread,
+	//which processes the event
+	private final TimerWheel timers;
+
 	//microseconds to next ACK event
-	private long ackTimerInterval=Util.getSYNTime();
+	private volatile long ackTimerInterval=Util.getSYNTime();
+	private volatile boolean ackDue=false;
 
-	private long nextNAK;
 	//microseconds to next NAK event
-	private long nakTimerInterval=Util.getSYNTime();
+	private volatile long nakTimerInterval=Util.getSYNTime();
+	private volatile boolean nakDue=false;
 
-	private long nextEXP;
+	private volatile long nextEXP;
 	//microseconds to next EXP event
 	private long expTimerInterval=100*Util.getSYNTime();
+	private volatile boolean expDue=false;
+
+	//true while the receiver thread is parked (or about to park) waiting for packets or timers
+	private volatile boolean waiting=false;
 
 	//instant when the session was created (for expiry checking)
 	private final long sessionUpSince;
@@ -137,11 +146,17 @@ public class UDTReceiver {
 	//buffer size for storing data
 	private final long bufferSize;
 
-	//stores received packets to be sent
-	private final BlockingQueue<UDTPacket>handoffQueue;
+	//hands the received packets from the endpoint to the receiver algorithm
+	private final MpscQueue<UDTPacket>handoffQueue;
 
 	private Thread receiverThread;
 
+	//if not null, the receiver algorithm is run by this event loop instead of the receiver thread
+	private final EventLoop eventLoop;
+
+	//maximum number of packets processed in one run on the event loop
+	private static final int MAX_PACKETS_PER_RUN=64;
+
 	private volatile boolean stopped=false;
 
 	//(optional) ack interval (see CongestionControl interface)
@@ -167,12 +182,16 @@ public class UDTReceiver {
 		if(!session.isReady())throw new IllegalStateException("UDTSession is not ready.");
 		ackHistoryWindow = new AckHistoryWindow(16);
 		packetHistoryWindow = new PacketHistoryWindow(16);
-		receiverLossList = new ReceiverLossList();
+		//the sender has at most a flow window of unacknowledged packets in flight,
+		//so larger gaps are caused by corrupt or hostile sequence numbers
+		receiverLossList = new ReceiverLossList(1024, 4*session.getFlowWindowSize());
 		packetPairWindow = new PacketPairWindow(16);
 		largestReceivedSeqNumber=session.getInitialSequenceNumber()-1;
 		bufferSize=session.getReceiveBufferSize();
-		handoffQueue=new ArrayBlockingQueue<UDTPacket>(4*session.getFlowWindowSize());
+		handoffQueue=new MpscQueue<UDTPacket>(4*session.getFlowWindowSize());
 		storeStatistics=Boolean.getBoolean("udt.receiver.storeStatistics");
+		timers=endpoint.getTimerWheel(session.getSocketID());
+		eventLoop=endpoint.getEventLoop(session.getSocketID());
 		initMetrics();
 		start();
 	}
@@ -194,14 +213,16 @@ public class UDTReceiver {
 	}
 
 
-	//starts the sender algorithm
+	//starts the receiver algorithm
 	private void start(){
+		if(eventLoop!=null){
+			ackInterval=session.getCongestionControl().getAckInterval();
+			startTimers();
+			return;
+		}
 		Runnable r=new Runnable(){
 			public void run(){
 				try{
-					nextACK=Util.getCurrentTime()+ackTimerInterval;
-					nextNAK=(long)(Util.getCurrentTime()+1.5*nakTimerInterval);
-					nextEXP=Util.getCurrentTime()+2*expTimerInterval;
 					ackInterval=session.getCongestionControl().getAckInterval();
 					while(!stopped){
 						receiverAlgorithm();
@@ -217,6 +238,59 @@ public class UDTReceiver {
 		String s=(session instanceof ServerSession)? "ServerSession": "ClientSession";
 		receiverThread.setName("UDTReceiver-"+s+"-"+receiverThread.getName());
 		receiverThread.start();
+		startTimers();
+	}
+
+	private void startTimers(){
+		nextEXP=Util.getCurrentTime()+2*expTimerInterval;
+		timers.schedule(ackTimer, ackTimerInterval, TimeUnit.MICROSECONDS);
+		timers.schedule(nakTimer, (long)(1.5*nakTimerInterval), TimeUnit.MICROSECONDS);
+		timers.schedule(expTimer, 2*expTimerInterval, TimeUnit.MICROSECONDS);
+	}
+
+	private final Runnable ackTimer=new Runnable(){
+		public void run(){
+			if(stopped || timers.isStopped())return;
+			ackDue=true;
+			wakeUp();
+			timers.schedule(this, ackTimerInterval, TimeUnit.MICROSECONDS);
+		}
+	};
+
+	private final Runnable nakTimer=new Runnable(){
+		public void run(){
+			if(stopped || timers.isStopped())return;
+			nakDue=true;
+			wakeUp();
+			timers.schedule(this, nakTimerInterval, TimeUnit.MICROSECONDS);
+		}
+	};
+
+	//the EXP timer is reset frequently, so instead of re-scheduling it on every reset, 
+	//it checks the current expiry time when it fires
+	private final Runnable expTimer=new Runnable(){
+		public void run(){
+			if(stopped || timers.isStopped())return;
+			long currentTime=Util.getCurrentTime();
+			long wait=nextEXP-currentTime;
+			if(wait<=0){
+				nextEXP=currentTime+expTimerInterval;
+				expDue=true;
+				wakeUp();
+				wait=expTimerInterval;
+			}
+			timers.schedule(this, wait, TimeUnit.MICROSECONDS);
+		}
+	};
+
+	//wake up the receiver thread if it is waiting
+	private void wakeUp(){
+		if(eventLoop!=null){
+			eventLoop.execute(receiverTask);
+		}
+		else if(waiting){
+			LockSupport.unpark(receiverThread);
+		}
 	}
 
 	/*
@@ -224,58 +298,96 @@ public class UDTReceiver {
 	 */
 	protected void receive(UDTPacket p)throws IOException{
 		if(storeStatistics)dgReceiveInterval.end();
-		handoffQueue.offer(p);
+		if(!handoffQueue.offer(p)){
+			//the receiver can't keep up
+			statistics.incNumberOfDroppedPackets();
+		}
+		wakeUp();
 		if(storeStatistics)dgReceiveInterval.begin();
 	}
 
+	//event loop mode: processes the due timers and the queued packets without blocking
+	private final EventLoop.Task receiverTask=new EventLoop.Task(){
+		public void run(){
+			if(stopped)return;
+			try{
+				processTimers();
+				for(int i=0;i<MAX_PACKETS_PER_RUN;i++){
+					UDTPacket packet=handoffQueue.poll();
+					if(packet==null)return;
+					processPacket(packet);
+					if(stopped)return;
+				}
+				//more packets are queued, let the other sessions of the loop run first
+				eventLoop.execute(this);
+			}catch(IOException ex){
+				logger.log(Level.SEVERE,"",ex);
+			}
+		}
+	};
+
 	/**
 	 * receiver algorithm 
 	 * see specification P11.
 	 */
 	public void receiverAlgorithm()throws InterruptedException,IOException{
+		UDTPacket packet=handoffQueue.poll();
+		if(packet==null){
+			//wait until a packet arrives or a timer is due
+			waiting=true;
+			packet=handoffQueue.poll();
+			if(packet==null && !ackDue && !nakDue && !expDue && !stopped){
+				LockSupport.park(this);
+				if(Thread.interrupted())throw new InterruptedException();
+			}
+			waiting=false;
+		}
+		processTimers();
+		if(packet!=null){
+			processPacket(packet);
+		}
+	}
+
+	//process the timer events that are due
+	private void processTimers()throws IOException{
 		//check ACK timer
-		long currentTime=Util.getCurrentTime();
-		if(nextACK<currentTime){
-			nextACK=currentTime+ackTimerInterval;
+		if(ackDue){
+			ackDue=false;
 			processACKEvent(true);
 		}
 		//check NAK timer
-		if(nextNAK<currentTime){
-			nextNAK=currentTime+nakTimerInterval;
+		if(nakDue){
+			nakDue=false;
 			processNAKEvent();
 		}
-
 		//check EXP timer
-		if(nextEXP<currentTime){
-			nextEXP=currentTime+expTimerInterval;
+		if(expDue){
+			expDue=false;
 			processEXPEvent();
 		}
-		//perform time-bounded UDP receive
-		UDTPacket packet=handoffQueue.poll(Util.getSYNTime(), TimeUnit.MICROSECONDS);
-		if(packet!=null){
-			//reset exp count to 1
-			expCount=1;
-			//If there is no unacknowledged data packet, or if this is an 
-			//ACK or NAK control packet, reset the EXP timer.
-			boolean needEXPReset=false;
-			if(packet.isControlPacket()){
-				ControlPacket cp=(ControlPacket)packet;
-				int cpType=cp.getControlPacketType();
-				if(cpType==ControlPacketType.ACK.ordinal() || cpType==ControlPacketType.NAK.ordinal()){
-					needEXPReset=true;
-				}
-			}
-			if(needEXPReset){
-				nextEXP=Util.getCurrentTime()+expTimerInterval;
+	}
+
+	private void processPacket(UDTPacket packet)throws IOException{
+		//reset exp count to 1
+		expCount=1;
+		//If there is no unacknowledged data packet, or if this is an 
+		//ACK or NAK control packet, reset the EXP timer.
+		boolean needEXPReset=false;
+		if(packet.isControlPacket()){
+			ControlPacket cp=(ControlPacket)packet;
+			int cpType=cp.getControlPacketType();
+			if(cpType==ControlPacketType.ACK.ordinal() || cpType==ControlPacketType.NAK.ordinal()){
+				needEXPReset=true;
 			}
-			if(storeStatistics)processTime.begin();
-			
-			processUDTPacket(packet);
-			
-			if(storeStatistics)processTime.end();
 		}
+		if(needEXPReset){
+			nextEXP=Util.getCurrentTime()+expTimerInterval;
+		}
+		if(storeStatistics)processTime.begin();
+		
+		processUDTPacket(packet);
 		
-		Thread.yield();
+		if(storeStatistics)processTime.end();
 	}
 
 	/**
@@ -284,11 +396,11 @@ public class UDTReceiver {
 	protected void processACKEvent(boolean isTriggeredByTimer)throws IOException{
 		//(1).Find the sequence number *prior to which* all the packets have been received
 		final long ackNumber;
-		ReceiverLossListEntry entry=receiverLossList.getFirstEntry();
-		if (entry==null) {
+		long firstLost=receiverLossList.getFirstSequenceNumber();
+		if (firstLost<0) {
 			ackNumber = largestReceivedSeqNumber + 1;
 		} else {
-			ackNumber = entry.getSequenceNumber();
+			ackNumber = firstLost;
 		}
 		//(2).a) if ackNumber equals to the largest sequence number ever acknowledged by ACK2
 		if (ackNumber == largestAcknowledgedAckNumber){
@@ -326,8 +438,8 @@ public class UDTReceiver {
 	 */
 	protected void processNAKEvent()throws IOException{
 		//find out all sequence numbers whose last feedback time larger than is k*RTT
-		List<Long>seqNumbers=receiverLossList.getFilteredSequenceNumbers(roundTripTime,true);
-		sendNAK(seqNumbers);
+		long[]lossRanges=receiverLossList.getFilteredLossRanges(roundTripTime,true);
+		sendNAK(lossRanges);
 	}
 
 	/**
@@ -373,6 +485,10 @@ public class UDTReceiver {
 			onAck2PacketReceived(ack2);
 		}
 
+		else if (p instanceof MessageDropRequest){
+			onMessageDropRequest((MessageDropRequest)p);
+		}
+
 		else if (p instanceof Shutdown){
 			onShutdown();
 		}
@@ -396,7 +512,15 @@ public class UDTReceiver {
 //				return;
 //			}
 //		//}
-		boolean OK=session.getSocket().getInputStream().haveNewData(currentSequenceNumber,dp.getData());
+		//drop a packet too far ahead to track the packets missing before it, 
+		//e.g. one with a corrupt sequence number
+		if(SequenceNumber.compare(currentSequenceNumber,largestReceivedSeqNumber+1)>0 
+				&& !receiverLossList.canInsert(SequenceNumber.increment(largestReceivedSeqNumber), 
+						SequenceNumber.decrement(currentSequenceNumber))){
+			logger.warning("Dropping data packet "+currentSequenceNumber+" outside the receive window");
+			return;
+		}
+		boolean OK=session.getSocket().getInputStream().haveNewData(currentSequenceNumber,dp.getMessageNumber(),dp.getData(),dp.getLength());
 		if(!OK){
 			//need to drop packet...
 			return;
@@ -447,6 +571,47 @@ public class UDTReceiver {
 		}
 	}
 
+	/**
+	 * the sender dropped an expired message: mark its missing packets as dropped, so that the 
+	 * reader skips the message, and stop asking for them
+	 * @param drop
+	 * @throws IOException
+	 */
+	protected void onMessageDropRequest(MessageDropRequest drop)throws IOException{
+		long first=drop.getMsgFirstSeqNo();
+		long last=drop.getMsgLastSeqNo();
+		UDTInputStream in=session.getSocket().getInputStream();
+		if(SequenceNumber.compare(last, first)<0 || SequenceNumber.length(first, last)>in.getReceiveBufferSize()){
+			logger.warning("Ignoring invalid message drop request for "+first+"-"+last);
+			return;
+		}
+		long seq=first;
+		while(true){
+			boolean beyond=SequenceNumber.compare(seq, largestReceivedSeqNumber)>0;
+			if(beyond && !receiverLossList.canInsert(SequenceNumber.increment(largestReceivedSeqNumber), seq)){
+				logger.warning("Ignoring message drop request for "+first+"-"+last+" outside the receive window");
+				break;
+			}
+			if(beyond || receiverLossList.contains(seq)){
+				if(!in.haveDroppedData(seq, drop.getMessageNumber())){
+					//receive buffer is full, the sender will send the request again
+					break;
+				}
+				receiverLossList.remove(seq);
+				if(beyond){
+					//the packets before the dropped message are still expected
+					if(SequenceNumber.compare(seq, SequenceNumber.increment(largestReceivedSeqNumber))>0){
+						receiverLossList.insert(SequenceNumber.increment(largestReceivedSeqNumber), 
+								SequenceNumber.decrement(seq));
+					}
+					largestReceivedSeqNumber=seq;
+				}
+			}
+			if(seq==last)break;
+			seq=SequenceNumber.increment(seq);
+		}
+	}
+
 	/**
 	 * write a NAK triggered by a received sequence number that is larger than
 	 * the largestReceivedSeqNumber + 1
@@ -460,19 +625,24 @@ public class UDTReceiver {
 		nAckPacket.setDestinationID(session.getDestination().getSocketID());
 		//put all the sequence numbers between (but excluding) these two values into the
 		//receiver loss list
-		for(long i=largestReceivedSeqNumber+1;i<currentSequenceNumber;i++){
-			ReceiverLossListEntry detectedLossSeqNumber= new ReceiverLossListEntry(i);
-			receiverLossList.insert(detectedLossSeqNumber);
-		}
+		receiverLossList.insert(SequenceNumber.increment(largestReceivedSeqNumber), 
+				SequenceNumber.decrement(currentSequenceNumber));
 		endpoint.doSend(nAckPacket);
 		//logger.info("NAK for "+currentSequenceNumber);
 		statistics.incNumberOfNAKSent();
 	}
 
-	protected void sendNAK(List<Long>sequenceNumbers)throws IOException{
-		if(sequenceNumbers.size()==0)return;
+	/**
+	 * send a NAK for the given loss ranges
+	 * @param lossRanges - (first,last) pairs of lost sequence numbers
+	 * @throws IOException
+	 */
+	protected void sendNAK(long[]lossRanges)throws IOException{
+		if(lossRanges.length==0)return;
 		NegativeAcknowledgement nAckPacket= new NegativeAcknowledgement();
-		nAckPacket.addLossInfo(sequenceNumbers);
+		for(int i=0;i<lossRanges.length;i+=2){
+			nAckPacket.addLossInfo(lossRanges[i], lossRanges[i+1]);
+		}
 		nAckPacket.setSession(session);
 		nAckPacket.setDestinationID(session.getDestination().getSocketID());
 		endpoint.doSend(nAckPacket);
@@ -582,6 +752,7 @@ public class UDTReceiver {
 
 	public void stop()throws IOException{
 		stopped=true;
+		wakeUp();
 		session.getSocket().close();
 		//stop our sender as well
 		session.getSocket().getSender().stop();
@@ -33,12 +33,11 @@
 package udt;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
@@ -48,11 +47,19 @@ import udt.packets.Acknowledgement;
 import udt.packets.Acknowledgment2;
 import udt.packets.DataPacket;
 import udt.packets.KeepAlive;
+import udt.packets.MessageDropRequest;
 import udt.packets.NegativeAcknowledgement;
 import udt.sender.FlowWindow;
+import udt.sender.HybridPacer;
+import udt.sender.Pacer;
+import udt.sender.SendBuffer;
 import udt.sender.SenderLossList;
+import udt.sender.SpinPacer;
+import udt.sender.TokenBucketPacer;
+import udt.util.EventLoop;
 import udt.util.MeanThroughput;
 import udt.util.MeanValue;
+import udt.util.MessageNumber;
 import udt.util.SequenceNumber;
 import udt.util.UDTStatistics;
 import udt.util.UDTThreadFactory;
@@ -79,18 +86,25 @@ public class UDTSender {
 	private final SenderLossList senderLossList;
 
 	//sendBuffer stores the sent data packets and their sequence numbers
-	private final Map<Long,byte[]>sendBuffer;
+	private final SendBuffer sendBuffer;
+
+	//serialises the threads producing data packets, since the flow window supports a single producer.
+	//Not a monitor, since producers block while the window is full (see UDTThreadFactory)
+	private final ReentrantLock producerLock=new ReentrantLock();
 
 	private final FlowWindow flowWindow;
 
 	//thread reading packets from send queue and sending them
 	private Thread senderThread;
 
-	//protects against races when reading/writing to the sendBuffer
-	private final Object sendLock=new Object();
+	//if not null, the sender algorithm is run by this event loop instead of the sender thread
+	private final EventLoop eventLoop;
+
+	//maximum number of iterations of the sender algorithm in one run on the event loop
+	private static final int MAX_ITERATIONS_PER_RUN=64;
 
-	//number of unacknowledged data packets
-	private final AtomicInteger unacknowledged=new AtomicInteger(0);
+	//event loop mode: time (microseconds) until which the sender is throttled by the send interval
+	private long pacedUntil;
 
 	//for generating data packet sequence numbers
 	private volatile long currentSequenceNumber=0;
@@ -117,6 +131,43 @@ public class UDTSender {
 	private final boolean storeStatistics;
 	
 	private final int chunksize;
+
+	/**
+	 * key for a system property giving the maximum number of data packets 
+	 * the sender encodes and hands to the endpoint in one go (default: 1, no batching)
+	 */
+	public static final String BATCH_SIZE="udt.sender.batchSize";
+
+	private final int batchSize;
+
+	//region holding the encoded datagrams of the current batch
+	private final ByteBuffer batchBuffer;
+
+	//lengths of the datagrams in the batchBuffer
+	private final int[] batchLengths;
+
+	//batch mode: time (microseconds) when the next data packet is due
+	private long nextSendTime;
+
+	/**
+	 * key for a system property selecting the default {@link Pacer}: 
+	 * "hybrid" (default), "spin" or "tokenbucket"
+	 */
+	public static final String PACER="udt.sender.pacer";
+
+	/**
+	 * key for a system property giving the burst size of the "tokenbucket" pacer
+	 */
+	public static final String PACER_BURST_SIZE="udt.sender.pacer.burstSize";
+
+	private volatile Pacer pacer;
+
+	//for measuring the CPU time used by the sender thread
+	private static final ThreadMXBean threadBean=ManagementFactory.getThreadMXBean();
+	private final boolean measureCpuTime;
+	private long cpuTimeAtStart=-1;
+	private long sentBytes;
+	private int packetsSinceCpuUpdate;
 	
 	public UDTSender(UDTSession session,UDPEndPoint endpoint){
 		if(!session.isReady())throw new IllegalStateException("UDTSession is not ready.");
@@ -124,14 +175,27 @@ public class UDTSender {
 		this.session=session;
 		statistics=session.getStatistics();
 		senderLossList=new SenderLossList();
-		sendBuffer=new ConcurrentHashMap<Long, byte[]>(session.getFlowWindowSize(),0.75f,2); 
-		chunksize=session.getDatagramSize()-24;//need space for the header;
+		chunksize=session.getChunkSize();
+		sendBuffer=new SendBuffer(session.getFlowWindowSize(),chunksize,session.getInitialSequenceNumber());
+		retransmitData=new byte[chunksize];
 		flowWindow=new FlowWindow(session.getFlowWindowSize(),chunksize);
 		lastAckSequenceNumber=session.getInitialSequenceNumber();
 		currentSequenceNumber=session.getInitialSequenceNumber()-1;
 		storeStatistics=Boolean.getBoolean("udt.sender.storeStatistics");
+		batchSize=Math.max(1, Integer.getInteger(BATCH_SIZE, 1));
+		if(batchSize>1){
+			batchBuffer=endpoint.allocateSendBuffer(batchSize*(chunksize+16));
+			batchLengths=new int[batchSize];
+		}else{
+			batchBuffer=null;
+			batchLengths=null;
+		}
+		pacer=createPacer();
+		eventLoop=endpoint.getEventLoop(session.getSocketID());
+		//the CPU time of an event loop thread is shared by many sessions
+		measureCpuTime=eventLoop==null && threadBean.isCurrentThreadCpuTimeSupported();
 		initMetrics();
-		doStart();
+		if(eventLoop==null)doStart();
 	}
 
 	private MeanValue dgSendTime;
@@ -152,8 +216,49 @@ public class UDTSender {
 	 */
 	public void start(){
 		logger.info("Starting sender for "+session);
-		startLatch.countDown();
 		started=true;
+		if(eventLoop!=null){
+			paused=false;
+			eventLoop.execute(senderTask);
+		}
+		else{
+			startLatch.countDown();
+		}
+	}
+
+	//wake up the sender on the event loop, e.g. because new data or an ACK has arrived
+	private void wakeUp(){
+		if(eventLoop!=null && started)eventLoop.execute(senderTask);
+	}
+
+	/**
+	 * create the pacer as configured by the {@link #PACER} system property
+	 */
+	static Pacer createPacer(){
+		String type=System.getProperty(PACER, "hybrid");
+		if("spin".equals(type)){
+			return new SpinPacer();
+		}
+		else if("tokenbucket".equals(type)){
+			return new TokenBucketPacer(Integer.getInteger(PACER_BURST_SIZE, TokenBucketPacer.DEFAULT_BURST_SIZE));
+		}
+		else if(!"hybrid".equals(type)){
+			logger.warning("Unknown pacer <"+type+">, using default.");
+		}
+		return new HybridPacer();
+	}
+
+	/**
+	 * set the pacer used by this sender
+	 * @param pacer
+	 */
+	public void setPacer(Pacer pacer){
+		if(pacer==null)throw new IllegalArgumentException();
+		this.pacer=pacer;
+	}
+
+	public Pacer getPacer(){
+		return pacer;
 	}
 
 	//starts the sender algorithm
@@ -188,37 +293,91 @@ public class UDTSender {
 	 * sends the given data packet, storing the relevant information
 	 */
 	private void send(DataPacket p)throws IOException{
-		synchronized(sendLock){
-			if(storeStatistics){
-				dgSendInterval.end();
-				dgSendTime.begin();
-			}
-			endpoint.doSend(p);
-			if(storeStatistics){
-				dgSendTime.end();
-				dgSendInterval.begin();
-				throughput.end();
-				throughput.begin();
-			}
-			//store data for potential retransmit
-			int l=p.getLength();
-			byte[]data=new byte[l];
-			System.arraycopy(p.getData(), 0, data, 0, l);
-			sendBuffer.put(p.getPacketSequenceNumber(), data);
-			unacknowledged.incrementAndGet();
+		if(storeStatistics){
+			dgSendInterval.end();
+			dgSendTime.begin();
+		}
+		endpoint.doSend(p);
+		if(storeStatistics){
+			dgSendTime.end();
+			dgSendInterval.begin();
+			throughput.end();
+			throughput.begin();
 		}
+		store(p);
 		statistics.incNumberOfSentDataPackets();
+		sentBytes+=p.getLength();
 	}
 
-	protected void sendUdtPacket(ByteBuffer bb, int timeout, TimeUnit units)throws IOException, InterruptedException{
+	/**
+	 * sends up to <code>max</code> data packets from the flow window as a single batch:
+	 * the packets are encoded back to back into the batch buffer, which is then
+	 * passed to the endpoint in one call
+	 * 
+	 * @return the number of data packets sent
+	 */
+	private int sendBatch(int max)throws IOException{
+		int n=0;
+		batchBuffer.clear();
+		while(n<max){
+			DataPacket p=flowWindow.consumeData();
+			if(p==null)break;
+			int start=batchBuffer.position();
+			p.encodeInto(batchBuffer);
+			batchLengths[n]=batchBuffer.position()-start;
+			store(p);
+			sentBytes+=p.getLength();
+			largestSentSequenceNumber=p.getPacketSequenceNumber();
+			n++;
+		}
+		if(n==0)return 0;
+		batchBuffer.flip();
+		if(storeStatistics){
+			dgSendInterval.end();
+			dgSendTime.begin();
+		}
+		endpoint.doSend(session, batchBuffer, batchLengths, n);
+		if(storeStatistics){
+			dgSendTime.end();
+			dgSendInterval.begin();
+			throughput.end();
+			throughput.begin();
+		}
+		for(int i=0;i<n;i++){
+			statistics.incNumberOfSentDataPackets();
+		}
+		return n;
+	}
+
+	//store data for potential retransmit
+	private void store(DataPacket p){
+		ByteBuffer region=p.getRegion();
+		boolean stored=region!=null ? sendBuffer.store(p.getPacketSequenceNumber(), region) 
+				: sendBuffer.store(p.getPacketSequenceNumber(), p.getData(), 0, p.getLength(), 
+						p.getMessageNumber(), p.getExpiryTime());
+		if(!stored){
+			//cannot happen as long as the flow window is respected
+			logger.warning("Send buffer full, can't store packet "+p.getPacketSequenceNumber());
+		}
+	}
+
+	/**
+	 * writes a data packet from the given buffer, waiting at most for the specified time
+	 * if this is not possible due to a full send queue
+	 * 
+	 * The caller must hold the {@link #getProducerLock() producer lock}.
+	 * 
+	 * @param bb
+	 * @param timeout
+	 * @param units
+	 * @return <code>false</code> if the send queue is still full after the timeout
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected boolean sendUdtPacket(ByteBuffer bb, int timeout, TimeUnit units)throws IOException, InterruptedException{
 		if(!started)start();
-		DataPacket packet=null;
-		do{
-			packet=flowWindow.getForProducer();
-			if(packet==null){
-				Thread.sleep(10);
-			}
-		}while(packet==null);//TODO check timeout...
+		DataPacket packet=flowWindow.getForProducer(timeout, units);
+		if(packet==null)return false;
 		try{
 			packet.setPacketSequenceNumber(getNextSequenceNumber());
 			packet.setSession(session);
@@ -226,41 +385,138 @@ public class UDTSender {
 			int len=Math.min(bb.remaining(),chunksize);
 			byte[] data=packet.getData();
 			bb.get(data,0,len);
+			packet.setRegion(null);
 			packet.setLength(len);
+			packet.setMessageNumber(0);
+			packet.setExpiryTime(0);
 		}finally{
 			flowWindow.produce();
 		}
+		wakeUp();
+		return true;
+	}
 
+	/**
+	 * writes a data packet whose payload references the next bytes of the given buffer 
+	 * (typically a memory mapped file) instead of copying them, waiting at most for the 
+	 * specified time if this is not possible due to a full send queue. 
+	 * The content of the buffer must not change until it has been acknowledged.
+	 * 
+	 * The caller must hold the {@link #getProducerLock() producer lock}.
+	 * 
+	 * @param bb
+	 * @param timeout
+	 * @param units
+	 * @return <code>false</code> if the send queue is still full after the timeout
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected boolean sendUdtPacketByReference(ByteBuffer bb, int timeout, TimeUnit units)throws IOException, InterruptedException{
+		if(!started)start();
+		DataPacket packet=flowWindow.getForProducer(timeout, units);
+		if(packet==null)return false;
+		try{
+			packet.setPacketSequenceNumber(getNextSequenceNumber());
+			packet.setSession(session);
+			packet.setDestinationID(session.getDestination().getSocketID());
+			int len=Math.min(bb.remaining(),chunksize);
+			ByteBuffer region=bb.slice();
+			region.limit(len);
+			bb.position(bb.position()+len);
+			packet.setRegion(region);
+			packet.setMessageNumber(0);
+			packet.setExpiryTime(0);
+		}finally{
+			flowWindow.produce();
+		}
+		wakeUp();
+		return true;
 	}
 	
 	/**
 	 * writes a data packet, waiting at most for the specified time
 	 * if this is not possible due to a full send queue
 	 * 
+	 * The caller must hold the {@link #getProducerLock() producer lock}.
+	 * 
 	 * @param timeout
 	 * @param units
-	 * @return
+	 * @return <code>false</code> if the send queue is still full after the timeout
 	 * @throws IOException
 	 * @throws InterruptedException
 	 */
-	protected void sendUdtPacket(byte[]data, int timeout, TimeUnit units)throws IOException, InterruptedException{
+	protected boolean sendUdtPacket(byte[]data, int timeout, TimeUnit units)throws IOException, InterruptedException{
 		if(!started)start();
-		DataPacket packet=null;
-		do{
-			packet=flowWindow.getForProducer();
-			if(packet==null){
-				Thread.sleep(10);
-				//	System.out.println("queue full: "+flowWindow);
-			}
-		}while(packet==null);
+		DataPacket packet=flowWindow.getForProducer(timeout, units);
+		if(packet==null)return false;
 		try{
 			packet.setPacketSequenceNumber(getNextSequenceNumber());
 			packet.setSession(session);
 			packet.setDestinationID(session.getDestination().getSocketID());
 			packet.setData(data);
+			packet.setMessageNumber(0);
+			packet.setExpiryTime(0);
 		}finally{
 			flowWindow.produce();
 		}
+		wakeUp();
+		return true;
+	}
+
+	//number of the last message sent (guarded by the producer lock)
+	private long messageNumber=0;
+
+	/**
+	 * sends the given data as a single message, split into as many data packets as required. 
+	 * The packets carry the message boundaries in their message number field, so that the 
+	 * receiver can re-assemble the message.<br/>
+	 * 
+	 * If the message has not been delivered when its time-to-live expires, lost packets are 
+	 * not retransmitted any more. Instead, the receiver is sent a {@link MessageDropRequest} 
+	 * and skips the message.<br/>
+	 * 
+	 * The packets of a message are produced while holding the {@link #getProducerLock() producer lock}, 
+	 * so they are not interleaved with data written by other threads.
+	 * 
+	 * @param data - the message
+	 * @param ttl - time-to-live in milliseconds, or a value &lt;=0 if the message must always be delivered
+	 * @param inOrder - whether the message must be delivered in order
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	protected void sendMessage(byte[]data, int ttl, boolean inOrder)throws IOException, InterruptedException{
+		if(data.length==0)throw new IllegalArgumentException("Empty message");
+		producerLock.lockInterruptibly();
+		try{
+			if(!started)start();
+			messageNumber=MessageNumber.increment(messageNumber);
+			long expiryTime=ttl>0 ? Util.getCurrentTime()+1000L*ttl : 0;
+			int offset=0;
+			while(offset<data.length){
+				DataPacket packet=flowWindow.getForProducer(10, TimeUnit.MILLISECONDS);
+				if(packet==null){
+					if(stopped)throw new IOException("Sender has been stopped");
+					continue;
+				}
+				int len=Math.min(data.length-offset,chunksize);
+				try{
+					packet.setPacketSequenceNumber(getNextSequenceNumber());
+					packet.setSession(session);
+					packet.setDestinationID(session.getDestination().getSocketID());
+					System.arraycopy(data, offset, packet.getData(), 0, len);
+					packet.setRegion(null);
+					packet.setLength(len);
+					packet.setMessageNumber(MessageNumber.encode(messageNumber, offset==0, offset+len==data.length, inOrder));
+					packet.setExpiryTime(expiryTime);
+				}finally{
+					flowWindow.produce();
+				}
+				offset+=len;
+				wakeUp();
+			}
+		}finally{
+			producerLock.unlock();
+		}
 	}
 
 	//receive a packet from server from the peer
@@ -301,21 +557,14 @@ public class UDTSender {
 		cc.onACK(ackNumber);
 		statistics.setCongestionWindowSize((long)cc.getCongestionWindowSize());
 		//need to remove all sequence numbers up the ack number from the sendBuffer
-		boolean removed=false;
-		for(long s=lastAckSequenceNumber;s<ackNumber;s++){
-			synchronized (sendLock) {
-				removed=sendBuffer.remove(s)!=null;
-				senderLossList.remove(s);
-			}
-			if(removed){
-				unacknowledged.decrementAndGet();
-			}
-		}
+		sendBuffer.ack(ackNumber);
+		senderLossList.removeUpTo(ackNumber);
 		lastAckSequenceNumber=Math.max(lastAckSequenceNumber, ackNumber);		
 		//send ACK2 packet to the receiver
 		sendAck2(ackNumber);
 		statistics.incNumberOfACKReceived();
 		if(storeStatistics)statistics.storeParameters();
+		wakeUp();
 	}
 
 	/**
@@ -323,15 +572,27 @@ public class UDTSender {
 	 * @param nak
 	 */
 	protected void onNAKPacketReceived(NegativeAcknowledgement nak){
-		for(Integer i: nak.getDecodedLossInfo()){
-			senderLossList.insert(Long.valueOf(i));
+		long[]lossRanges=nak.getLossRanges();
+		if(lossRanges.length==0)return;
+		for(int i=0;i<lossRanges.length;i+=2){
+			long first=lossRanges[i];
+			long last=lossRanges[i+1];
+			if(last>=first){
+				senderLossList.insert(first, last);
+			}
+			else{
+				//sequence numbers wrap around
+				senderLossList.insert(first, SequenceNumber.MAX_SEQUENCE_NUMBER);
+				senderLossList.insert(0, last);
+			}
 		}
-		session.getCongestionControl().onLoss(nak.getDecodedLossInfo());
+		session.getCongestionControl().onLoss(lossRanges);
 		session.getSocket().getReceiver().resetEXPTimer();
 		statistics.incNumberOfNAKReceived();
+		wakeUp();
 
 		if(logger.isLoggable(Level.FINER)){
-			logger.finer("NAK for "+nak.getDecodedLossInfo().size()+" packets lost, " 
+			logger.finer("NAK for "+nak.getNumberOfLostPackets()+" packets lost, " 
 					+"set send period to "+session.getCongestionControl().getSendInterval());
 		}
 		return;
@@ -359,20 +620,60 @@ public class UDTSender {
 	long iterationStart;
 	public void senderAlgorithm()throws InterruptedException, IOException{
 		while(!paused){
-			iterationStart=Util.getCurrentTime();
-			//if the sender's loss list is not empty 
-			Long entry=senderLossList.getFirstEntry();
-			if(entry!=null){
-				handleRetransmit(entry);
+			long due=senderIteration(true);
+			//wait
+			if(Util.getCurrentTime()<due){
+				statistics.incNumberOfCCSlowDownEvents();
+				pacer.pace(due, session.getCongestionControl().getSendInterval());
+				if(stopped)return;
 			}
-			else
-			{
-				//if the number of unacknowledged data packets does not exceed the congestion 
-				//and the flow window sizes, pack a new packet
-				int unAcknowledged=unacknowledged.get();
-
-				if(unAcknowledged<session.getCongestionControl().getCongestionWindowSize()
-						&& unAcknowledged<session.getFlowWindowSize()){
+		}
+	}
+
+	//set by senderIteration() if there was nothing to send
+	private boolean idle;
+
+	//set by senderIteration() if the windows are full and the sender did not wait for an ACK
+	private boolean windowFull;
+
+	/**
+	 * one iteration of the sender algorithm: retransmits a lost packet, or sends new data
+	 * as far as the congestion and flow windows permit
+	 * 
+	 * @param mayBlock - whether to wait for an ACK if the windows are full. If <code>false</code>,
+	 *        the {@link #windowFull} flag is set instead
+	 * @return the time (microseconds) when the next iteration is due, zero if there is no need to wait
+	 */
+	private long senderIteration(boolean mayBlock)throws InterruptedException, IOException{
+		iterationStart=Util.getCurrentTime();
+		idle=false;
+		windowFull=false;
+		//number of data packets sent in this iteration (batch mode)
+		int sent=1;
+		//if the sender's loss list is not empty 
+		long entry=senderLossList.pollFirst();
+		if(entry>=0){
+			handleRetransmit(entry);
+		}
+		else
+		{
+			//if the number of unacknowledged data packets does not exceed the congestion 
+			//and the flow window sizes, pack a new packet
+			int unAcknowledged=sendBuffer.size();
+			double cwnd=session.getCongestionControl().getCongestionWindowSize();
+
+			if(unAcknowledged<cwnd && unAcknowledged<session.getFlowWindowSize()){
+				if(batchSize>1){
+					//send the packets that are due, as far as both windows permit
+					int max=Math.min(getNumberOfDuePackets(), session.getFlowWindowSize()-unAcknowledged);
+					max=(int)Math.max(1, Math.min(max, Math.ceil(cwnd-unAcknowledged)));
+					sent=sendBatch(max);
+					if(sent==0){
+						statistics.incNumberOfMissingDataEvents();
+						idle=true;
+					}
+				}
+				else{
 					//check for application data
 					DataPacket dp=flowWindow.consumeData();
 					if(dp!=null){
@@ -381,49 +682,142 @@ public class UDTSender {
 					}
 					else{
 						statistics.incNumberOfMissingDataEvents();
+						idle=true;
 					}
-				}else{
-					//congestion window full, wait for an ack
-					if(unAcknowledged>=session.getCongestionControl().getCongestionWindowSize()){
-						statistics.incNumberOfCCWindowExceededEvents();
-					}
-					waitForAck();
 				}
+			}else{
+				//congestion window full, wait for an ack
+				if(unAcknowledged>=session.getCongestionControl().getCongestionWindowSize()){
+					statistics.incNumberOfCCWindowExceededEvents();
+				}
+				if(mayBlock)waitForAck();
+				else windowFull=true;
 			}
+		}
 
-			//wait
-			if(largestSentSequenceNumber % 16 !=0){
-				long snd=(long)session.getCongestionControl().getSendInterval();
-				long passed=Util.getCurrentTime()-iterationStart;
-				int x=0;
-				while(snd-passed>0){
-					//can't wait with microsecond precision :(
-					if(x==0){
+		if(measureCpuTime){
+			packetsSinceCpuUpdate+=sent;
+			if(packetsSinceCpuUpdate>=256){
+				updateCpuTime();
+			}
+		}
+
+		if(batchSize>1){
+			return sent>0 ? getNextBatchTime(sent) : 0;
+		}
+		else if(largestSentSequenceNumber % 16 !=0){
+			return iterationStart+(long)session.getCongestionControl().getSendInterval();
+		}
+		return 0;
+	}
+
+	//event loop mode: runs the sender algorithm until it has to wait
+	private final EventLoop.Task senderTask=new EventLoop.Task(){
+		public void run(){
+			if(stopped || paused)return;
+			//woken up early, the scheduled run will continue
+			if(Util.getCurrentTime()<pacedUntil)return;
+			try{
+				for(int i=0;i<MAX_ITERATIONS_PER_RUN;i++){
+					long due=senderIteration(false);
+					if(windowFull){
+						//continue when an ACK arrives, but at the latest as the sender thread would
+						pacedUntil=0;
+						eventLoop.schedule(this, Util.getCurrentTime()+200);
+						return;
+					}
+					if(idle){
+						//continue when new data is written or a NAK arrives
+						pacedUntil=0;
+						eventLoop.cancel(this);
+						return;
+					}
+					if(Util.getCurrentTime()<due){
 						statistics.incNumberOfCCSlowDownEvents();
-						x++;
+						pacedUntil=due;
+						eventLoop.schedule(this, due);
+						return;
 					}
-					passed=Util.getCurrentTime()-iterationStart;
 					if(stopped)return;
 				}
+				//let the other sessions of the loop run first
+				eventLoop.execute(this);
+			}catch(Exception ex){
+				logger.log(Level.SEVERE,"",ex);
 			}
 		}
+	};
+
+	//report the CPU time used by the sender thread to the statistics
+	private void updateCpuTime(){
+		packetsSinceCpuUpdate=0;
+		long cpu=threadBean.getCurrentThreadCpuTime();
+		if(cpu<0)return;
+		if(cpuTimeAtStart<0){
+			cpuTimeAtStart=cpu;
+			sentBytes=0;
+			return;
+		}
+		statistics.setSenderCpuTime(cpu-cpuTimeAtStart, sentBytes);
+	}
+
+	/**
+	 * batch mode: the number of packets that are due for sending at the current time.
+	 * Normally this is one, but if the sender has fallen behind its schedule (because the send
+	 * interval is shorter than the time needed for a single send), the packets that are 
+	 * overdue are sent together, up to the batch size. Sending a fixed-size burst instead 
+	 * would distort the packet arrival speed measured by the receiver.
+	 */
+	private int getNumberOfDuePackets(){
+		double snd=session.getCongestionControl().getSendInterval();
+		long late=Util.getCurrentTime()-nextSendTime;
+		if(late<=0 || snd<=0)return 1;
+		return (int)Math.min(batchSize, 1+late/snd);
+	}
+
+	/**
+	 * batch mode: move the time at which the next packet is due forward by the 
+	 * send interval of the packets just sent
+	 * @param sent - the number of packets just sent
+	 * @return the time (microseconds) when the next packet is due, zero if it can be sent immediately
+	 */
+	private long getNextBatchTime(int sent){
+		//as in the non-batched case, packets 16n and 16n+1 are sent back to back 
+		//(packet pair for link capacity estimation by the receiver)
+		if(largestSentSequenceNumber % 16 == 0)return 0;
+		double snd=session.getCongestionControl().getSendInterval();
+		//do not build up credit for more than one batch while the sender is idle 
+		long earliest=iterationStart-(long)(batchSize*snd);
+		if(nextSendTime<earliest)nextSendTime=earliest;
+		nextSendTime+=(long)Math.ceil(sent*snd);
+		return nextSendTime;
 	}
 
 	private final DataPacket retransmit=new DataPacket();
+
+	private final byte[] retransmitData;
 	
 	/**
 	 * re-transmit an entry from the sender loss list
 	 * @param entry
 	 */
-	protected void handleRetransmit(Long seqNumber){
+	protected void handleRetransmit(long seqNumber){
 		try {
+			//don't retransmit packets of an expired message
+			long[]expired=sendBuffer.getExpiredMessage(seqNumber, Util.getCurrentTime());
+			if(expired!=null){
+				sendMessageDropRequest(seqNumber, expired[0], expired[1]);
+				return;
+			}
 			//retransmit the packet and remove it from  the list
-			byte[]data=sendBuffer.get(seqNumber);
-			if(data!=null){
+			int length=sendBuffer.read(seqNumber, retransmitData);
+			if(length>=0){
 				retransmit.setPacketSequenceNumber(seqNumber);
+				retransmit.setMessageNumber(sendBuffer.getMessageNumber(seqNumber));
 				retransmit.setSession(session);
 				retransmit.setDestinationID(session.getDestination().getSocketID());
-				retransmit.setData(data);
+				retransmit.setData(retransmitData);
+				retransmit.setLength(length);
 				endpoint.doSend(retransmit);
 				statistics.incNumberOfRetransmittedDataPackets();
 			}
@@ -432,15 +826,49 @@ public class UDTSender {
 		}
 	}
 
+	/**
+	 * tell the receiver to skip the packets of an expired message, and remove them from the loss list
+	 * @param seqNumber - the sequence number of the lost packet
+	 * @param first - the first sequence number of the message
+	 * @param last - the last sequence number of the message
+	 */
+	protected void sendMessageDropRequest(long seqNumber, long first, long last)throws IOException{
+		MessageDropRequest drop=new MessageDropRequest();
+		drop.setMessageNumber(sendBuffer.getMessageNumber(seqNumber));
+		drop.setMsgFirstSeqNo(first);
+		drop.setMsgLastSeqNo(last);
+		drop.setSession(session);
+		drop.setDestinationID(session.getDestination().getSocketID());
+		endpoint.doSend(drop);
+		senderLossList.remove(first, last);
+		statistics.incNumberOfMessageDropRequests();
+	}
+
 	/**
 	 * for processing EXP event (see spec. p 13)
 	 */
 	protected void putUnacknowledgedPacketsIntoLossList(){
-		synchronized (sendLock) {
-			for(Long l: sendBuffer.keySet()){
-				senderLossList.insert(l);
-			}
+		long first=sendBuffer.getFirstSequenceNumber();
+		int n=sendBuffer.size();
+		if(first<0 || n==0)return;
+		long last=first+n-1;
+		if(last<=SequenceNumber.MAX_SEQUENCE_NUMBER){
+			senderLossList.insert(first, last);
+		}
+		else{
+			//sequence numbers wrap around
+			senderLossList.insert(first, SequenceNumber.MAX_SEQUENCE_NUMBER);
+			senderLossList.insert(0, last-SequenceNumber.MAX_SEQUENCE_NUMBER-1);
 		}
+		wakeUp();
+	}
+
+	/**
+	 * the lock that must be held while producing data packets, since the flow window 
+	 * supports only a single producer at a time
+	 */
+	public ReentrantLock getProducerLock(){
+		return producerLock;
 	}
 
 	/**
@@ -526,8 +954,14 @@ public class UDTSender {
 		stopped=true;
 	}
 
+	public boolean isStopped(){
+		return stopped;
+	}
+
 	public void pause(){
 		startLatch=new CountDownLatch(1);
 		paused=true;
+		//the next write will restart the sender
+		started=false;
 	}
 }
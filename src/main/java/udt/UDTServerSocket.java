@@ -35,6 +35,7 @@ import java.net.InetAddress;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 
@@ -44,9 +45,15 @@ public class UDTServerSocket {
 	
 	private final UDPEndPoint endpoint;
 	
+	//all endpoints bound to the server port, the first one is the main endpoint
+	private final UDPEndPoint[] endpoints;
+	
 	private boolean started=false;
 	
 	private volatile boolean shutdown=false;
+
+	//serializes accept() calls without pinning the carrier of a waiting virtual thread
+	private final ReentrantLock acceptLock=new ReentrantLock();
 	
 	/**
 	 * create a UDT ServerSocket
@@ -54,10 +61,46 @@ public class UDTServerSocket {
 	 * @param port - the local port. If 0, an ephemeral port will be chosen
 	 */
 	public UDTServerSocket(InetAddress localAddress, int port)throws SocketException,UnknownHostException{
-		endpoint=new UDPEndPoint(localAddress,port);
+		endpoint=UDPEndPoint.create(localAddress,port);
+		endpoints=new UDPEndPoint[]{endpoint};
 		logger.info("Created server endpoint on port "+endpoint.getLocalPort());
 	}
 
+	/**
+	 * create a UDT ServerSocket listening on <code>numSockets</code> UDP sockets bound to the 
+	 * same port using the SO_REUSEPORT option. Each socket has its own receive thread and 
+	 * sessions, the operating system spreads the incoming flows across the sockets.
+	 * New connections from all sockets are returned by {@link #accept()}.
+	 * 
+	 * @param localAddress
+	 * @param port - the local port. If 0, an ephemeral port will be chosen
+	 * @param numSockets - the number of sockets to open
+	 * @throws SocketException - if SO_REUSEPORT is not supported
+	 */
+	public UDTServerSocket(InetAddress localAddress, int port, int numSockets)throws SocketException,UnknownHostException{
+		if(numSockets<1)throw new IllegalArgumentException("Need at least one socket");
+		endpoints=new UDPEndPoint[numSockets];
+		if(numSockets==1){
+			endpoints[0]=UDPEndPoint.create(localAddress,port);
+		}else{
+			endpoints[0]=new NioUDPEndPoint(localAddress,port,true);
+			port=endpoints[0].getLocalPort();
+			try{
+				for(int i=1;i<numSockets;i++){
+					endpoints[i]=new NioUDPEndPoint(localAddress,port,true);
+					endpoints[i].setSessionHandoff(endpoints[0].getSessionHandoff());
+				}
+			}catch(SocketException se){
+				for(UDPEndPoint e: endpoints){
+					if(e!=null)e.stop();
+				}
+				throw se;
+			}
+		}
+		endpoint=endpoints[0];
+		logger.info("Created "+numSockets+" server endpoint(s) on port "+endpoint.getLocalPort());
+	}
+
 	//starts a server on localhost
 	public UDTServerSocket(int port)throws SocketException,UnknownHostException{
 		this(InetAddress.getLocalHost(),port);
@@ -68,30 +111,46 @@ public class UDTServerSocket {
 	 * for the new connection
 	 * @return
 	 */
-	public synchronized UDTSocket accept()throws InterruptedException{
-		if(!started){
-			endpoint.start(true);
-			started=true;
-		}
-		while(!shutdown){
-			UDTSession session=endpoint.accept(10000, TimeUnit.MILLISECONDS);
-			if(session!=null){
-				//wait for handshake to complete
-				while(!session.isReady() || session.getSocket()==null){
-					Thread.sleep(100);
+	public UDTSocket accept()throws InterruptedException{
+		acceptLock.lockInterruptibly();
+		try{
+			if(!started){
+				for(UDPEndPoint e: endpoints){
+					e.start(true);
+				}
+				started=true;
+			}
+			while(!shutdown){
+				UDTSession session=endpoint.accept(10000, TimeUnit.MILLISECONDS);
+				if(session!=null){
+					//wait for handshake to complete
+					while(!session.isReady() || session.getSocket()==null){
+						Thread.sleep(100);
+					}
+					return session.getSocket();
 				}
-				return session.getSocket();
 			}
+			throw new InterruptedException();
+		}finally{
+			acceptLock.unlock();
 		}
-		throw new InterruptedException();
 	} 
 	
 	public void shutDown(){
 		shutdown=true;
-		endpoint.stop();
+		for(UDPEndPoint e: endpoints){
+			e.stop();
+		}
 	}
 	
 	public UDPEndPoint getEndpoint(){
 		return endpoint;
 	}
+
+	/**
+	 * @return all endpoints of this server socket
+	 */
+	public UDPEndPoint[] getEndpoints(){
+		return endpoints.clone();
+	}
 }
@@ -33,8 +33,11 @@
 package udt;
 
 import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -70,11 +73,23 @@ public abstract class UDTSession {
 	//cache dgPacket (peer stays the same always)
 	private DatagramPacket dgPacket;
 
+	//cache peer address for sending via a DatagramChannel
+	private final InetSocketAddress socketAddress;
+
+	//reusable buffer for encoding outgoing packets, guarded by the send lock
+	private ByteBuffer sendBuffer;
+
+	//guards dgPacket and sendBuffer. This is a lock rather than a monitor, 
+	//so that a virtual thread waiting for it does not pin its carrier thread
+	private final ReentrantLock sendLock=new ReentrantLock();
+
 	/**
 	 * flow window size, i.e. how many data packets are
 	 * in-flight at a single time
 	 */
-	protected int flowWindowSize=1024*10;
+	protected int flowWindowSize=DEFAULT_FLOW_WINDOW_SIZE;
+
+	public static final int DEFAULT_FLOW_WINDOW_SIZE=1024*10;
 
 	/**
 	 * remote UDT entity (address and socket ID)
@@ -112,6 +127,7 @@ public abstract class UDTSession {
 		mySocketID=nextSocketID.incrementAndGet();
 		this.destination=destination;
 		this.dgPacket=new DatagramPacket(new byte[0],0,destination.getAddress(),destination.getPort());
+		this.socketAddress=new InetSocketAddress(destination.getAddress(),destination.getPort());
 		String clazzP=System.getProperty(CC_CLASS,UDTCongestionControl.class.getName());
 		Object ccObject=null;
 		try{
@@ -181,6 +197,13 @@ public abstract class UDTSession {
 	public void setDatagramSize(int datagramSize) {
 		this.datagramSize = datagramSize;
 	}
+
+	/**
+	 * the maximum amount of application data carried by a data packet
+	 */
+	public int getChunkSize(){
+		return datagramSize-24;//need space for the header
+	}
 	
 	public int getReceiveBufferSize() {
 		return receiveBufferSize;
@@ -221,6 +244,30 @@ public abstract class UDTSession {
 	public DatagramPacket getDatagram(){
 		return dgPacket;
 	}
+
+	/**
+	 * the lock to hold while using the cached {@link #getDatagram()} or the send buffer
+	 */
+	public ReentrantLock getSendLock(){
+		return sendLock;
+	}
+
+	public InetSocketAddress getSocketAddress(){
+		return socketAddress;
+	}
+
+	/**
+	 * get the (cleared) buffer for encoding an outgoing packet. It is large enough
+	 * for any data packet of this session. <br/>
+	 * The caller must hold the {@link #getSendLock()} while using the buffer.
+	 */
+	ByteBuffer getSendBuffer(){
+		if(sendBuffer==null || sendBuffer.capacity()<datagramSize){
+			sendBuffer=ByteBuffer.allocate(Math.max(datagramSize, DEFAULT_DATAGRAM_SIZE));
+		}
+		sendBuffer.clear();
+		return sendBuffer;
+	}
 	
 	public String toString(){
 		StringBuilder sb=new StringBuilder();
@@ -36,6 +36,7 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 /**
  * UDTSocket is analogous to a normal java.net.Socket, it provides input and 
  * output streams for the application
@@ -58,6 +59,7 @@ public class UDTSocket {
 
 	private UDTInputStream inputStream;
 	private UDTOutputStream outputStream;
+	private UDTChannel channel;
 	/**
 	 * @param host
 	 * @param port
@@ -121,6 +123,17 @@ public class UDTSocket {
 		return outputStream;
 	}
 
+	/**
+	 * get a channel for reading from and writing to this socket
+	 * using {@link ByteBuffer}s
+	 */
+	public synchronized UDTChannel getChannel(){
+		if(channel==null){
+			channel=new UDTChannel(this);
+		}
+		return channel;
+	}
+
 	public final UDTSession getSession(){
 		return session;
 	}
@@ -143,7 +156,7 @@ public class UDTSocket {
 	 */
 	protected void doWrite(byte[]data, int offset, int length)throws IOException{
 		try{
-			doWrite(data, offset, length, 10, TimeUnit.MILLISECONDS);
+			doWrite(data, offset, length, Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
 		}catch(InterruptedException ie){
 			IOException io=new IOException();
 			io.initCause(ie);
@@ -162,15 +175,118 @@ public class UDTSocket {
 	 * @throws InterruptedException
 	 */
 	protected void doWrite(byte[]data, int offset, int length, int timeout, TimeUnit units)throws IOException,InterruptedException{
-		ByteBuffer bb=ByteBuffer.wrap(data,offset,length);
-		while(bb.remaining()>0){
-			try{
-				sender.sendUdtPacket(bb, timeout, units);
-			}catch(Exception ex){
-				ex.printStackTrace();
+		doWrite(ByteBuffer.wrap(data,offset,length), timeout, units);
+	}
+
+	/**
+	 * write the remaining data of the given buffer
+	 * @param bb
+	 * @throws IOException
+	 */
+	protected void doWrite(ByteBuffer bb)throws IOException{
+		try{
+			doWrite(bb, Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}catch(InterruptedException ie){
+			IOException io=new IOException();
+			io.initCause(ie);
+			throw io;
+		}
+	}
+
+	/**
+	 * write the remaining data of the given buffer, waiting at most for the specified 
+	 * time if the queue is full. Several threads may write concurrently, the data of 
+	 * each call is sent contiguously.
+	 * @param bb
+	 * @param timeout
+	 * @param units
+	 * @throws IOException - if data cannot be sent
+	 * @throws InterruptedException
+	 */
+	protected void doWrite(ByteBuffer bb, int timeout, TimeUnit units)throws IOException,InterruptedException{
+		boolean haveData=bb.remaining()>0;
+		produce(bb, false, timeout, units);
+		if(haveData)active=true;
+	}
+
+	/**
+	 * write the remaining data of the given buffer without copying it: the data packets 
+	 * reference the buffer until they have been acknowledged, so its content must 
+	 * not change until then (see {@link #flush()}). This is intended for sending 
+	 * memory mapped files.
+	 * @param bb
+	 * @throws IOException
+	 */
+	protected void doWriteByReference(ByteBuffer bb)throws IOException{
+		boolean haveData=bb.remaining()>0;
+		try{
+			produce(bb, true, Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}catch(InterruptedException ie){
+			IOException io=new IOException();
+			io.initCause(ie);
+			throw io;
+		}
+		if(haveData)active=true;
+	}
+
+	//maximum time to wait for the flow window before checking whether the sender has been stopped
+	private static final long WAIT_SLICE_NANOS=TimeUnit.MILLISECONDS.toNanos(100);
+
+	//writes the data packets while holding the sender's producer lock, so that the data of 
+	//one call is sent contiguously. The waits for a full flow window are split into short slices
+	//so that a stopped sender does not keep the lock until the timeout
+	private void produce(ByteBuffer bb, boolean byReference, int timeout, TimeUnit units)throws IOException,InterruptedException{
+		long deadline=System.nanoTime()+units.toNanos(timeout);
+		ReentrantLock lock=sender.getProducerLock();
+		lock.lockInterruptibly();
+		try{
+			while(bb.remaining()>0){
+				int wait=(int)Math.max(0, Math.min(WAIT_SLICE_NANOS, deadline-System.nanoTime()));
+				boolean sent=byReference ? sender.sendUdtPacketByReference(bb, wait, TimeUnit.NANOSECONDS)
+						: sender.sendUdtPacket(bb, wait, TimeUnit.NANOSECONDS);
+				if(!sent){
+					if(sender.isStopped())throw new IOException("Sender has been stopped");
+					if(deadline-System.nanoTime()<=0)throw new IOException("Timeout: send queue is full");
+				}
 			}
+		}finally{
+			lock.unlock();
 		}
-		if(length>0)active=true;
+	}
+
+	/**
+	 * send the given data as a single message, which the peer receives 
+	 * as a whole using {@link #receiveMessage()}. Messages that have not been delivered 
+	 * within their time-to-live are dropped.<br/>
+	 * 
+	 * Messages are always delivered in the order they were sent, the <code>inOrder</code> 
+	 * flag is only passed on to the peer.
+	 * 
+	 * @param data - the message
+	 * @param ttl - time-to-live in milliseconds, or a value &lt;=0 if the message must always be delivered
+	 * @param inOrder - whether the message must be delivered in order
+	 * @throws IOException
+	 */
+	public void sendMessage(byte[]data, int ttl, boolean inOrder)throws IOException{
+		try{
+			sender.sendMessage(data, ttl, inOrder);
+		}catch(InterruptedException ie){
+			IOException io=new IOException();
+			io.initCause(ie);
+			throw io;
+		}
+		active=true;
+	}
+
+	/**
+	 * receive the next message sent by the peer using {@link #sendMessage(byte[], int, boolean)}, 
+	 * skipping messages that have been dropped
+	 * 
+	 * @return the message, or <code>null</code> if the connection has been closed
+	 * @throws IOException
+	 */
+	public byte[] receiveMessage()throws IOException{
+		return getInputStream().readMessage();
 	}
 
 	/**
@@ -1,7 +1,5 @@
 package udt.cc;
 
-import java.util.List;
-
 import udt.UDTCongestionControl;
 import udt.UDTSession;
 
@@ -28,7 +26,7 @@ public class SimpleTCP extends UDTCongestionControl {
 	}
 
 	@Override
-	public void onLoss(List<Integer> lossInfo) {
+	public void onLoss(long[] lossRanges) {
 		congestionWindowSize *= 0.5;
 	}
 	
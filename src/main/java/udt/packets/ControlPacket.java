@@ -32,6 +32,9 @@
 
 package udt.packets;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import udt.UDTPacket;
 import udt.UDTSession;
 
@@ -128,6 +131,38 @@ public abstract class ControlPacket implements UDTPacket{
 		
 	};
 
+	//first header word: control bit and packet type
+	private int getTypeWord(){
+		return 0x80000000 | (controlPacketType & 0xFF)<<16;
+	}
+
+	public void encodeInto(ByteBuffer target){
+		byte[] controlInfo=encodeControlInformation();
+		int length=16+(controlInfo!=null?controlInfo.length:0);
+		if(target.remaining()<length)throw new BufferOverflowException();
+		target.putInt(getTypeWord());
+		target.putInt((int)getAdditionalInfo());
+		target.putInt((int)timeStamp);
+		target.putInt((int)destinationID);
+		if(controlInfo!=null){
+			target.put(controlInfo);
+		}
+	}
+
+	public int encodeInto(byte[] target, int offset){
+		byte[] controlInfo=encodeControlInformation();
+		int length=16+(controlInfo!=null?controlInfo.length:0);
+		if(target.length-offset<length)throw new BufferOverflowException();
+		PacketUtil.encode(getTypeWord(), target, offset);
+		PacketUtil.encode(getAdditionalInfo(), target, offset+4);
+		PacketUtil.encode(timeStamp, target, offset+8);
+		PacketUtil.encode(destinationID, target, offset+12);
+		if(controlInfo!=null){
+			System.arraycopy(controlInfo, 0, target, offset+16, controlInfo.length);
+		}
+		return length;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -32,8 +32,12 @@
 
 package udt.packets;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import udt.UDTPacket;
 import udt.UDTSession;
+import udt.util.PayloadPool;
 
 public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 
@@ -46,6 +50,13 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 	private UDTSession session;
 
 	private int dataLength;
+
+	//payload of a packet sent directly from a (mapped) buffer, used instead of the data array
+	private ByteBuffer region;
+
+	//local time (microseconds) after which the packet's message need not be delivered any more,
+	//or zero if it never expires. Not transmitted.
+	private long expiryTime;
 	
 	public DataPacket(){
 	}
@@ -60,19 +71,70 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 	}
 
 	public DataPacket(byte[] encodedData, int length){
-		decode(encodedData,length);
+		this(encodedData,length,null);
+	}
+	
+	/**
+	 * create a DataPacket from the given raw data, taking the payload 
+	 * array from the given pool. Note that the payload array may then be larger 
+	 * than the payload, see {@link #getLength()}
+	 * 
+	 * @param encodedData - network data
+	 * @param length
+	 * @param payloadPool - pool for the payload array, may be <code>null</code>
+	 */
+	public DataPacket(byte[] encodedData, int length, PayloadPool payloadPool){
+		decode(encodedData,length,payloadPool);
 	}
 	
-	void decode(byte[]encodedData,int length){
+	void decode(byte[]encodedData,int length,PayloadPool payloadPool){
 		packetSequenceNumber=PacketUtil.decode(encodedData, 0);
 		messageNumber=PacketUtil.decode(encodedData, 4);
 		timeStamp=PacketUtil.decode(encodedData, 8);
 		destinationID=PacketUtil.decode(encodedData, 12);
 		dataLength=length-16;
-		data=new byte[dataLength];
+		data=allocate(dataLength, payloadPool);
 		System.arraycopy(encodedData, 16, data, 0, dataLength);
 	}
 
+	private static byte[] allocate(int length, PayloadPool payloadPool){
+		if(payloadPool!=null && length<=payloadPool.getBufferSize()){
+			return payloadPool.acquire();
+		}
+		return new byte[length];
+	}
+
+
+	/**
+	 * create a DataPacket from the content of the given buffer between 
+	 * its current position and its limit
+	 * 
+	 * @param encodedData - network data
+	 */
+	public DataPacket(ByteBuffer encodedData){
+		this(encodedData,null);
+	}
+
+	/**
+	 * create a DataPacket from the content of the given buffer between 
+	 * its current position and its limit, taking the payload array from the given pool
+	 * 
+	 * @param encodedData - network data
+	 * @param payloadPool - pool for the payload array, may be <code>null</code>
+	 */
+	public DataPacket(ByteBuffer encodedData, PayloadPool payloadPool){
+		decode(encodedData,payloadPool);
+	}
+	
+	void decode(ByteBuffer encodedData,PayloadPool payloadPool){
+		packetSequenceNumber=encodedData.getInt();
+		messageNumber=encodedData.getInt();
+		timeStamp=encodedData.getInt();
+		destinationID=encodedData.getInt();
+		dataLength=encodedData.remaining();
+		data=allocate(dataLength, payloadPool);
+		encodedData.get(data,0,dataLength);
+	}
 
 	public byte[] getData() {
 		return this.data;
@@ -89,6 +151,26 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 	public void setData(byte[] data) {
 		this.data = data;
 		dataLength=data.length;
+		region=null;
+	}
+
+	/**
+	 * use the content of the given buffer between its position and its limit as payload, 
+	 * without copying it. The content must not change while the packet is in use.
+	 * 
+	 * @param region - the payload, or <code>null</code> to use the data array
+	 */
+	public void setRegion(ByteBuffer region){
+		this.region=region;
+		if(region!=null)dataLength=region.remaining();
+	}
+
+	/**
+	 * the payload set by {@link #setRegion(ByteBuffer)}, or <code>null</code> if the payload 
+	 * is held by the data array
+	 */
+	public ByteBuffer getRegion(){
+		return region;
 	}
 
 	public long getPacketSequenceNumber() {
@@ -108,6 +190,14 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 		this.messageNumber = messageNumber;
 	}
 
+	public long getExpiryTime() {
+		return expiryTime;
+	}
+
+	public void setExpiryTime(long expiryTime) {
+		this.expiryTime = expiryTime;
+	}
+
 	public long getDestinationID() {
 		return this.destinationID;
 	}
@@ -130,14 +220,53 @@ public class DataPacket implements UDTPacket, Comparable<UDTPacket>{
 	public byte[] getEncoded(){
 		//header.length is 16
 		byte[] result=new byte[16+dataLength];
-		System.arraycopy(PacketUtil.encode(packetSequenceNumber), 0, result, 0, 4);
-		System.arraycopy(PacketUtil.encode(messageNumber), 0, result, 4, 4);
-		System.arraycopy(PacketUtil.encode(timeStamp), 0, result, 8, 4);
-		System.arraycopy(PacketUtil.encode(destinationID), 0, result, 12, 4);
-		System.arraycopy(data, 0, result, 16, dataLength);
+		encodeInto(result, 0);
 		return result;
 	}
 
+	/**
+	 * writes the complete header+data packet into the given array
+	 * 
+	 * @param target - the array, which must have room for 16+{@link #getLength()} bytes
+	 * @param offset
+	 * @return the number of bytes written
+	 */
+	public int encodeInto(byte[] target, int offset){
+		int length=16+dataLength;
+		if(target.length-offset<length)throw new BufferOverflowException();
+		PacketUtil.encode(packetSequenceNumber, target, offset);
+		PacketUtil.encode(messageNumber, target, offset+4);
+		PacketUtil.encode(timeStamp, target, offset+8);
+		PacketUtil.encode(destinationID, target, offset+12);
+		if(region!=null){
+			region.duplicate().get(target, offset+16, dataLength);
+		}
+		else{
+			System.arraycopy(data, 0, target, offset+16, dataLength);
+		}
+		return length;
+	}
+
+	/**
+	 * writes the complete header+data packet into the given buffer, 
+	 * starting at its current position
+	 * 
+	 * @param target - the buffer, which must have at least 16+{@link #getLength()} bytes remaining
+	 */
+	public void encodeInto(ByteBuffer target){
+		if(target.remaining()<16+dataLength)throw new BufferOverflowException();
+		target.putInt((int)packetSequenceNumber);
+		target.putInt((int)messageNumber);
+		target.putInt((int)timeStamp);
+		target.putInt((int)destinationID);
+		if(region!=null){
+			target.put(region.duplicate());
+		}
+		else{
+			target.put(data, 0, dataLength);
+		}
+	}
+
 	public boolean isControlPacket(){
 		return false;
 	}
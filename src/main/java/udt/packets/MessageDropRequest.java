@@ -34,6 +34,10 @@ package udt.packets;
 import java.io.ByteArrayOutputStream;
 
 
+/**
+ * sent by the sender of a message whose time-to-live has expired before it could be 
+ * delivered, to tell the receiver to skip the given packets
+ */
 public class MessageDropRequest extends ControlPacket{
 	//Bits 35-64: Message number
 	
@@ -55,6 +59,15 @@ public class MessageDropRequest extends ControlPacket{
 		msgLastSeqNo =PacketUtil.decode(data, 4);
 	}
 
+	@Override
+	protected long getAdditionalInfo(){
+		return messageNumber;
+	}
+
+	public boolean forSender(){
+		return false;
+	}
+
 	public long getMsgFirstSeqNo() {
 		return msgFirstSeqNo;
 	}
@@ -35,6 +35,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -44,8 +45,8 @@ import java.util.List;
  */
 public class NegativeAcknowledgement extends ControlPacket{
 
-	//after decoding this contains the lost sequence numbers
-	List<Integer>lostSequenceNumbers;
+	//after decoding this contains the lost sequence numbers as (first,last) pairs
+	long[]lossRanges;
 
 	//this contains the loss information intervals as described on p.15 of the spec
 	ByteArrayOutputStream lossInfo=new ByteArrayOutputStream();
@@ -56,39 +57,32 @@ public class NegativeAcknowledgement extends ControlPacket{
 
 	public NegativeAcknowledgement(byte[]controlInformation){
 		this();
-		lostSequenceNumbers=decode(controlInformation);
+		lossRanges=decode(controlInformation);
 	}
 	
 	/**
-	 * decode the loss info
+	 * decode the loss info into (first,last) pairs, without expanding the intervals
 	 * @param lossInfo
 	 */
-	private List<Integer> decode(byte[]lossInfo){
-		List<Integer>lostSequenceNumbers=new ArrayList<Integer>();
+	private long[] decode(byte[]lossInfo){
+		//each 4 byte word yields at most one pair
+		long[]ranges=new long[2*(lossInfo.length/4)];
+		int n=0;
 		ByteBuffer bb=ByteBuffer.wrap(lossInfo);
-		byte[]buffer=new byte[4];
-		while(bb.remaining()>0){
-			//read 4 bytes
-			buffer[0]=bb.get();
-			buffer[1]=bb.get();
-			buffer[2]=bb.get();
-			buffer[3]=bb.get();
-			boolean isNotSingle=(buffer[0]&128)!=0;
+		while(bb.remaining()>=4){
+			int word=bb.getInt();
+			boolean isNotSingle=(word & 0x80000000)!=0;
 			//set highest bit back to 0
-			buffer[0]=(byte)(buffer[0]&0x7f);
-			int lost=ByteBuffer.wrap(buffer).getInt();
-			if(isNotSingle){
+			long lost=word & 0x7FFFFFFF;
+			long end=lost;
+			if(isNotSingle && bb.remaining()>=4){
 				//get the end of the interval
-				int end=bb.getInt();
-				//and add all lost numbers to the result list
-				for(int i=lost;i<=end;i++){
-					lostSequenceNumbers.add(i);
-				}
-			}else{
-				lostSequenceNumbers.add(lost);
+				end=bb.getInt() & 0x7FFFFFFF;
 			}
+			ranges[n++]=lost;
+			ranges[n++]=end;
 		}
-		return lostSequenceNumbers;
+		return n==ranges.length ? ranges : Arrays.copyOf(ranges, n);
 	}
 
 	/**
@@ -151,10 +145,42 @@ public class NegativeAcknowledgement extends ControlPacket{
 	}
 
 	/**
-	 * Return the lost packet numbers
+	 * Return the loss information as pairs of (first,last) sequence numbers: the lost 
+	 * packets of the i-th interval are <code>ranges[2*i]</code> to <code>ranges[2*i+1]</code>
+	 * (inclusive). Single losses have first==last.
+	 */
+	public long[] getLossRanges() {
+		if(lossRanges==null){
+			return decode(lossInfo.toByteArray());
+		}
+		return lossRanges;
+	}
+
+	/**
+	 * the total number of lost packets reported in this NAK
+	 */
+	public long getNumberOfLostPackets(){
+		long[]ranges=getLossRanges();
+		long n=0;
+		for(int i=0;i<ranges.length;i+=2){
+			n+=ranges[i+1]-ranges[i]+1;
+		}
+		return n;
+	}
+
+	/**
+	 * Return the lost packet numbers. This expands the loss intervals, 
+	 * use {@link #getLossRanges()} where possible.
 	 * @return
 	 */
 	public List<Integer> getDecodedLossInfo() {
+		long[]ranges=getLossRanges();
+		List<Integer>lostSequenceNumbers=new ArrayList<Integer>();
+		for(int i=0;i<ranges.length;i+=2){
+			for(long s=ranges[i];s<=ranges[i+1];s++){
+				lostSequenceNumbers.add((int)s);
+			}
+		}
 		return lostSequenceNumbers;
 	}
 
@@ -178,21 +204,8 @@ public class NegativeAcknowledgement extends ControlPacket{
 			return false;
 		NegativeAcknowledgement other = (NegativeAcknowledgement) obj;
 		
-		List<Integer>thisLost=null;
-		List<Integer>otherLost=null;
-		
 		//compare the loss info
-		if(lostSequenceNumbers!=null){
-			thisLost=lostSequenceNumbers;
-		}else{
-			thisLost=decode(lossInfo.toByteArray());
-		}
-		if(other.lostSequenceNumbers!=null){
-			otherLost=other.lostSequenceNumbers;
-		}else{
-			otherLost=other.decode(other.lossInfo.toByteArray());
-		}
-		if(!thisLost.equals(otherLost)){
+		if(!Arrays.equals(getLossRanges(), other.getLossRanges())){
 			return false;
 		}
 
@@ -31,7 +31,10 @@
  *********************************************************************************/
 
 package udt.packets;
+import java.nio.ByteBuffer;
+
 import udt.UDTPacket;
+import udt.util.PayloadPool;
 import udt.packets.ControlPacket.*;
 
 public class PacketFactory {
@@ -49,9 +52,45 @@ public class PacketFactory {
 	}
 	
 	public static UDTPacket createPacket(byte[]encodedData,int length){
+		return createPacket(encodedData, length, null);
+	}
+	
+	/**
+	 * creates a Control or Data packet, taking the payload array of a data packet
+	 * from the given pool
+	 * @param encodedData
+	 * @param length
+	 * @param payloadPool - pool for data packet payloads, may be <code>null</code>
+	 * @return
+	 */
+	public static UDTPacket createPacket(byte[]encodedData,int length,PayloadPool payloadPool){
 		boolean isControl=(encodedData[0]&128) !=0 ;
 		if(isControl)return createControlPacket(encodedData,length);
-		return new DataPacket(encodedData,length);
+		return new DataPacket(encodedData,length,payloadPool);
+	}
+	
+	/**
+	 * creates a Control or Data packet from the content of the given buffer 
+	 * between its current position and its limit
+	 * @param encodedData
+	 * @return
+	 */
+	public static UDTPacket createPacket(ByteBuffer encodedData){
+		return createPacket(encodedData, null);
+	}
+	
+	/**
+	 * creates a Control or Data packet from the content of the given buffer 
+	 * between its current position and its limit, taking the payload array 
+	 * of a data packet from the given pool
+	 * @param encodedData
+	 * @param payloadPool - pool for data packet payloads, may be <code>null</code>
+	 * @return
+	 */
+	public static UDTPacket createPacket(ByteBuffer encodedData,PayloadPool payloadPool){
+		boolean isControl=(encodedData.get(encodedData.position())&128) !=0 ;
+		if(isControl)return createControlPacket(encodedData);
+		return new DataPacket(encodedData,payloadPool);
 	}
 	
 	/**
@@ -60,16 +99,35 @@ public class PacketFactory {
 	 * @return
 	 */
 	public static ControlPacket createControlPacket(byte[]encodedData,int length){
-	
-		ControlPacket packet=null;
-		
 		int pktType=PacketUtil.decodeType(encodedData, 0);
 		long  additionalInfo = PacketUtil.decode(encodedData, 4); 
 		long  timeStamp = PacketUtil.decode(encodedData,8) ;
 		long  destID = PacketUtil.decode(encodedData,12);
 		byte[] controlInformation = new byte[length-16];
 		System.arraycopy(encodedData,16,controlInformation,0,controlInformation.length);
-			
+		return createControlPacket(pktType, additionalInfo, timeStamp, destID, controlInformation);
+	}
+	
+	/**
+	 * create the right type of control packet based on the content of the given buffer
+	 * @param encodedData
+	 * @return
+	 */
+	public static ControlPacket createControlPacket(ByteBuffer encodedData){
+		int pktType=encodedData.get(encodedData.position()+1)&0xFF;
+		encodedData.getInt();
+		long  additionalInfo = encodedData.getInt(); 
+		long  timeStamp = encodedData.getInt();
+		long  destID = encodedData.getInt();
+		byte[] controlInformation = new byte[encodedData.remaining()];
+		encodedData.get(controlInformation);
+		return createControlPacket(pktType, additionalInfo, timeStamp, destID, controlInformation);
+	}
+	
+	private static ControlPacket createControlPacket(int pktType, long additionalInfo, long timeStamp, long destID, byte[]controlInformation){
+	
+		ControlPacket packet=null;
+		
 		//TYPE 0000:0
 		if(ControlPacketType.CONNECTION_HANDSHAKE.ordinal()==pktType){
 			packet=new ConnectionHandshake(controlInformation);
@@ -97,6 +155,7 @@ public class PacketFactory {
 		//TYPE 0111:7
 		else if(ControlPacketType.MESSAGE_DROP_REQUEST.ordinal()==pktType){
 			packet=new MessageDropRequest(controlInformation);
+			packet.setMessageNumber(additionalInfo);
 		}
 		//TYPE 1111:8
 		else if(ControlPacketType.USER_DEFINED.ordinal()==pktType){
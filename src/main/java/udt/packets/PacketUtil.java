@@ -43,6 +43,16 @@ public class PacketUtil {
 		return new byte[]{m4,m3,m2,m1};
 	}
 	
+	/**
+	 * writes the lower 32 bits of the given value in network byte order into the target array
+	 */
+	public static void encode(long value, byte[]target, int offset){
+		target[offset]=(byte)(value>>24);
+		target[offset+1]=(byte)(value>>16);
+		target[offset+2]=(byte)(value>>8);
+		target[offset+3]=(byte)(value);
+	}
+	
 	public static byte[]encodeSetHighest(boolean highest,long value){
 		byte m4;
 		if(highest){
@@ -34,54 +34,187 @@ package udt.receiver;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.PriorityBlockingQueue;
 
+import udt.util.SequenceNumber;
 import udt.util.Util;
 
 /**
  * the receiver loss list stores information about lost packets,
- * ordered by increasing sequence number.
+ * ordered by increasing sequence number.<br/>
+ * 
+ * The list is a ring indexed by sequence number: a bitmap marks the lost sequence numbers,
+ * and parallel primitive arrays hold the last feedback time and the k value of each
+ * entry (see {@link ReceiverLossListEntry}). Inserting a range of losses fills the arrays 
+ * for that range, removing an entry clears its bit. The ring grows if the span between 
+ * the lowest and the highest lost sequence number exceeds its capacity.
  * 
  * @see ReceiverLossListEntry
  */
 public class ReceiverLossList {
 
-	private final PriorityBlockingQueue<ReceiverLossListEntry>backingList;
+	private static final int INITIAL_CAPACITY=1024;
+
+	//default maximum span between the lowest and the highest sequence number in the list
+	private static final int DEFAULT_MAX_SPAN=1<<20;
+
+	//the maximum span, which bounds the memory used (16 bytes per sequence number)
+	private final int maxSpan;
+
+	private int capacity;
+	private int mask;
+
+	//one bit per slot, set if the sequence number is in the list
+	private long[]present;
+	private long[]feedbackTimes;
+	private long[]kValues;
+
+	//lowest sequence number in the list
+	private long first=-1;
+	//upper bound for the highest sequence number in the list
+	private long last=-1;
+
+	private volatile int size=0;
 	
 	public ReceiverLossList(){
-		backingList = new PriorityBlockingQueue<ReceiverLossListEntry>(32);
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity - the initial span of sequence numbers that can be held 
+	 * without resizing (rounded up to a power of two, at least 64)
+	 */
+	public ReceiverLossList(int initialCapacity){
+		this(initialCapacity, DEFAULT_MAX_SPAN);
+	}
+
+	/**
+	 * @param initialCapacity - the initial span of sequence numbers that can be held 
+	 * without resizing (rounded up to a power of two, at least 64)
+	 * @param maxSpan - the maximum span between the lowest and the highest sequence number in the list
+	 */
+	public ReceiverLossList(int initialCapacity, int maxSpan){
+		this.maxSpan=maxSpan;
+		int c=64;
+		while(c<initialCapacity)c<<=1;
+		allocate(c);
 	}
 	
 	public void insert(ReceiverLossListEntry entry){
-		synchronized (backingList) {
-			if(!backingList.contains(entry)){
-				backingList.add(entry);
-			}
+		insert(entry.getSequenceNumber(), entry.getSequenceNumber());
+	}
+
+	/**
+	 * insert all sequence numbers from firstSeqNo to lastSeqNo (inclusive). Sequence numbers
+	 * that are already contained in the list keep their feedback time and k value.
+	 * 
+	 * @param firstSeqNo
+	 * @param lastSeqNo
+	 */
+	public synchronized void insert(long firstSeqNo, long lastSeqNo){
+		long n=SequenceNumber.seqOffset(firstSeqNo, lastSeqNo)+1;
+		if(n<=0)return;
+		long newFirst=firstSeqNo;
+		long newLast=lastSeqNo;
+		if(size>0){
+			if(SequenceNumber.compare(first, firstSeqNo)<0)newFirst=first;
+			if(SequenceNumber.compare(last, lastSeqNo)>0)newLast=last;
+		}
+		long span=SequenceNumber.seqOffset(newFirst, newLast)+1;
+		if(span>capacity){
+			grow(span);
+		}
+		long now=Util.getCurrentTime();
+		int slot=slot(firstSeqNo);
+		long remaining=n;
+		while(remaining>0){
+			int chunk=(int)Math.min(remaining, capacity-slot);
+			mark(slot, slot+chunk, now);
+			remaining-=chunk;
+			slot=0;
+		}
+		first=newFirst;
+		last=newLast;
+	}
+
+	/**
+	 * checks whether the given range can be inserted without exceeding the maximum span
+	 * 
+	 * @param firstSeqNo
+	 * @param lastSeqNo
+	 */
+	public synchronized boolean canInsert(long firstSeqNo, long lastSeqNo){
+		long newFirst=firstSeqNo;
+		long newLast=lastSeqNo;
+		if(size>0){
+			if(SequenceNumber.compare(first, firstSeqNo)<0)newFirst=first;
+			if(SequenceNumber.compare(last, lastSeqNo)>0)newLast=last;
 		}
+		//a negative offset means that the range is too large to be told apart from a wrap-around
+		long span=SequenceNumber.seqOffset(newFirst, newLast)+1;
+		return span>0 && span<=maxSpan;
 	}
 
-	public void remove(long seqNo){
-		backingList.remove(new ReceiverLossListEntry(seqNo));
+	/**
+	 * the maximum span between the lowest and the highest sequence number in the list
+	 */
+	public int getMaxSpan(){
+		return maxSpan;
+	}
+
+	public synchronized void remove(long seqNo){
+		if(size==0)return;
+		long span=span();
+		long offset=SequenceNumber.seqOffset(first, seqNo);
+		if(offset<0 || offset>=span)return;
+		int slot=slot(seqNo);
+		long bit=1L<<(slot & 63);
+		if((present[slot>>>6] & bit)==0)return;
+		present[slot>>>6]&=~bit;
+		size--;
+		if(size==0){
+			first=-1;
+			last=-1;
+		}
+		else if(offset==0){
+			first=sequenceNumberAt(nextOffset(1, span));
+		}
 	}
 	
 	public boolean contains(ReceiverLossListEntry obj){
-		return backingList.contains(obj);
+		return contains(obj.getSequenceNumber());
+	}
+
+	public synchronized boolean contains(long seqNo){
+		if(size==0)return false;
+		long offset=SequenceNumber.seqOffset(first, seqNo);
+		if(offset<0 || offset>=span())return false;
+		int slot=slot(seqNo);
+		return (present[slot>>>6] & (1L<<(slot & 63)))!=0;
 	}
 	
 	public boolean isEmpty(){
-		return backingList.isEmpty();
+		return size==0;
 	}
 	
 	/**
 	 * read (but NOT remove) the first entry in the loss list
 	 * @return
 	 */
-	public ReceiverLossListEntry getFirstEntry(){
-		return backingList.peek();
+	public synchronized ReceiverLossListEntry getFirstEntry(){
+		if(size==0)return null;
+		int slot=slot(first);
+		return new ReceiverLossListEntry(first, kValues[slot], feedbackTimes[slot]);
+	}
+
+	/**
+	 * the lowest sequence number in the loss list, or <code>-1</code> if the list is empty
+	 */
+	public synchronized long getFirstSequenceNumber(){
+		return first;
 	}
 	
 	public int size(){
-		return backingList.size();
+		return size;
 	}
 	
 	/**
@@ -94,20 +227,154 @@ public class ReceiverLossList {
 	 */
 	public List<Long>getFilteredSequenceNumbers(long RTT, boolean doFeedback){
 		List<Long>result=new ArrayList<Long>();
-		ReceiverLossListEntry[]sorted=backingList.toArray(new ReceiverLossListEntry[0]);
-		Arrays.sort(sorted);
-		for(ReceiverLossListEntry e: sorted){
-			if( (Util.getCurrentTime()-e.getLastFeedbackTime())>e.getK()*RTT){
-				result.add(e.getSequenceNumber());
-				if(doFeedback)e.feedback();
+		long[]ranges=getFilteredLossRanges(RTT, doFeedback);
+		for(int i=0;i<ranges.length;i+=2){
+			for(long s=ranges[i];s<=ranges[i+1];s++){
+				result.add(s);
 			}
 		}
 		return result;
 	}
-	
-	public String toString(){
-		return backingList.toString();
+
+	/**
+	 * return all sequence numbers whose last feedback time is larger than k*RTT,
+	 * as (first,last) pairs of consecutive sequence numbers
+	 * 
+	 * @param RTT - the current round trip time
+	 * @param doFeedback - true if the k parameter should be increased and the time should 
+	 * be reset
+	 * @return
+	 */
+	public synchronized long[]getFilteredLossRanges(long RTT, boolean doFeedback){
+		long[]ranges=new long[8];
+		int n=0;
+		if(size==0)return new long[0];
+		long now=Util.getCurrentTime();
+		long span=span();
+		int firstSlot=slot(first);
+		long rangeStart=-1;
+		long previous=-1;
+		for(long off=nextOffset(0, span); off>=0; off=nextOffset(off+1, span)){
+			int slot=(int)((firstSlot+off)&mask);
+			if(now-feedbackTimes[slot]>kValues[slot]*RTT){
+				long seq=sequenceNumberAt(off);
+				if(doFeedback){
+					kValues[slot]++;
+					feedbackTimes[slot]=now;
+				}
+				if(rangeStart>=0 && seq==previous+1){
+					previous=seq;
+					continue;
+				}
+				if(rangeStart>=0){
+					if(n==ranges.length)ranges=Arrays.copyOf(ranges, 2*n);
+					ranges[n++]=rangeStart;
+					ranges[n++]=previous;
+				}
+				rangeStart=seq;
+				previous=seq;
+			}
+		}
+		if(rangeStart>=0){
+			if(n==ranges.length)ranges=Arrays.copyOf(ranges, 2*n);
+			ranges[n++]=rangeStart;
+			ranges[n++]=previous;
+		}
+		return Arrays.copyOf(ranges, n);
 	}
 	
+	public synchronized String toString(){
+		return "ReceiverLossList size="+size+" first="+first+" last="+last;
+	}
+
+	private void allocate(int newCapacity){
+		capacity=newCapacity;
+		mask=newCapacity-1;
+		present=new long[newCapacity>>>6];
+		feedbackTimes=new long[newCapacity];
+		kValues=new long[newCapacity];
+	}
+
+	//re-allocate the arrays so that the given span fits, and copy the existing entries
+	private void grow(long span){
+		if(span>maxSpan){
+			throw new IllegalArgumentException("Loss list span too large: "+span);
+		}
+		long[]oldPresent=present;
+		long[]oldTimes=feedbackTimes;
+		long[]oldK=kValues;
+		int oldMask=mask;
+		long oldSpan=size>0?span():0;
+		int oldFirstSlot=size>0?slot(first):0;
+		int c=capacity;
+		while(c<span)c<<=1;
+		allocate(c);
+		if(size==0)return;
+		int firstSlot=slot(first);
+		for(long off=0;off<oldSpan;off++){
+			int oldSlot=(int)((oldFirstSlot+off)&oldMask);
+			if((oldPresent[oldSlot>>>6] & (1L<<(oldSlot & 63)))==0)continue;
+			int s=(int)((firstSlot+off)&mask);
+			present[s>>>6]|=1L<<(s & 63);
+			feedbackTimes[s]=oldTimes[oldSlot];
+			kValues[s]=oldK[oldSlot];
+		}
+	}
+
+	//set the bits for the slots from (inclusive) to (exclusive), initialising new entries
+	private void mark(int from, int to, long now){
+		for(int w=from>>>6; w<=(to-1)>>>6; w++){
+			int base=w<<6;
+			int lo=Math.max(from, base)-base;
+			int hi=Math.min(to, base+64)-base;
+			long bits=(hi==64 ? -1L : (1L<<hi)-1) & (-1L<<lo);
+			long newBits=bits & ~present[w];
+			if(newBits==0)continue;
+			if(newBits==bits){
+				Arrays.fill(feedbackTimes, base+lo, base+hi, now);
+				Arrays.fill(kValues, base+lo, base+hi, 2);
+			}
+			else{
+				for(int i=lo;i<hi;i++){
+					if((newBits & (1L<<i))!=0){
+						feedbackTimes[base+i]=now;
+						kValues[base+i]=2;
+					}
+				}
+			}
+			present[w]|=bits;
+			size+=Long.bitCount(newBits);
+		}
+	}
+
+	//offset (relative to first) of the next entry at or after the given offset, or -1
+	private long nextOffset(long fromOffset, long span){
+		int firstSlot=slot(first);
+		long off=fromOffset;
+		while(off<span){
+			int s=(int)((firstSlot+off)&mask);
+			long bits=present[s>>>6]>>>(s & 63);
+			if(bits!=0){
+				long result=off+Long.numberOfTrailingZeros(bits);
+				return result<span ? result : -1;
+			}
+			off+=64-(s & 63);
+		}
+		return -1;
+	}
+
+	private long sequenceNumberAt(long offset){
+		if(offset<0)return -1;
+		long seq=first+offset;
+		return seq>SequenceNumber.MAX_SEQUENCE_NUMBER ? seq-SequenceNumber.MAX_SEQUENCE_NUMBER-1 : seq;
+	}
+
+	private long span(){
+		return SequenceNumber.seqOffset(first, last)+1;
+	}
+
+	private int slot(long seqNo){
+		return (int)(seqNo & mask);
+	}
 	
 }
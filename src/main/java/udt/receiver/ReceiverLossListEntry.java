@@ -55,6 +55,15 @@ public class ReceiverLossListEntry implements Comparable<ReceiverLossListEntry>
 		this.lastFeedbacktime=Util.getCurrentTime();
 	}
 
+	/**
+	 * snapshot of an entry stored in the {@link ReceiverLossList}
+	 */
+	ReceiverLossListEntry(long sequenceNumber, long k, long lastFeedbacktime){
+		this.sequenceNumber = sequenceNumber;
+		this.k = k;
+		this.lastFeedbacktime = lastFeedbacktime;
+	}
+
 
 	/**
 	 * call once when this seqNo is fed back in NAK
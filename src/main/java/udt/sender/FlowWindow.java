@@ -1,6 +1,7 @@
 package udt.sender;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 import udt.packets.DataPacket;
 
@@ -9,9 +10,16 @@ import udt.packets.DataPacket;
  * Holds a fixed number of {@link DataPacket} instances which are sent out.<br/>
  * 
  * it is assumed that a single thread (the producer) stores new data, 
- * and another single thread (the consumer) reads/removes data.<br/>
+ * and another single thread (the consumer) reads/removes data. Concurrent producers
+ * must be serialised by the caller (see {@link udt.UDTSender#getProducerLock()}).<br/>
  * 
+ * No locks are used: the producer only writes the tail index and the consumer only 
+ * writes the head index, both are volatile so that the packet contents are published 
+ * together with the index update. A producer waiting for a free slot is parked and 
+ * woken up by the consumer.<br/>
  * 
+ * A packet returned by {@link #consumeData()} remains valid until the next call 
+ * to {@link #consumeData()}, since the ring contains one slot more than the window size.
  *
  * @author schuller
  */
@@ -21,39 +29,32 @@ public class FlowWindow {
 
 	private final int length;
 
-	private volatile boolean isEmpty=true;
+	//the maximum number of valid entries
+	private final int size;
 
-	private volatile boolean isFull=false;
+	//number of packets consumed so far (written by the consumer only)
+	private volatile long head=0;
 
-	//valid entries that can be read
-	private volatile int validEntries=0;
+	//number of packets produced so far (written by the producer only)
+	private volatile long tail=0;
 
-	private volatile boolean isCheckout=false;
+	//producer waiting for a free slot
+	private volatile Thread waitingProducer;
 
-	//index where the next data packet will be written to
-	private volatile int writePos=0;
-
-	//one before the index where the next data packet will be read from
-	private volatile int readPos=-1;
-
-	private volatile int consumed=0;
-
-	private volatile int produced=0;
-
-	private final ReentrantLock lock;
+	private boolean isCheckout=false;
 
 	/**
 	 * @param size - flow window size
 	 * @param chunksize - data chunk size
 	 */
 	public FlowWindow(int size, int chunksize){
+		this.size=size;
 		this.length=size+1;
 		packets=new DataPacket[length];
 		for(int i=0;i<packets.length;i++){
 			packets[i]=new DataPacket();
 			packets[i].setData(new byte[chunksize]);
 		}
-		lock=new ReentrantLock(true);
 	}
 
 	/**
@@ -62,16 +63,41 @@ public class FlowWindow {
 	 * @return <code>null</code> if flow window is full
 	 */
 	public DataPacket getForProducer(){
-		lock.lock();
+		if(isCheckout)throw new IllegalStateException();
+		long t=tail;
+		if(t-head>=size){
+			return null;
+		}
+		isCheckout=true;
+		return packets[(int)(t%length)];
+	}
+
+	/**
+	 * get a data packet for updating with new data, waiting at most for the given time
+	 * if the flow window is full
+	 * 
+	 * @param timeout
+	 * @param units
+	 * @return <code>null</code> if the flow window is still full after the timeout
+	 * @throws InterruptedException
+	 */
+	public DataPacket getForProducer(long timeout, TimeUnit units)throws InterruptedException{
+		DataPacket p=getForProducer();
+		if(p!=null)return p;
+		long deadline=System.nanoTime()+units.toNanos(timeout);
+		waitingProducer=Thread.currentThread();
 		try{
-			if(isFull){
-				return null;
+			while(true){
+				//re-check after registering, so a concurrent consume cannot be missed
+				p=getForProducer();
+				if(p!=null)return p;
+				long remaining=deadline-System.nanoTime();
+				if(remaining<=0)return null;
+				LockSupport.parkNanos(this, remaining);
+				if(Thread.interrupted())throw new InterruptedException();
 			}
-			if(isCheckout)throw new IllegalStateException();
-			isCheckout=true;
-			return packets[writePos];
 		}finally{
-			lock.unlock();
+			waitingProducer=null;
 		}
 	}
 
@@ -80,43 +106,28 @@ public class FlowWindow {
 	 * has been filled with data and is ready for sending out
 	 */
 	public void produce(){
-		lock.lock();
-		try{
-			if(!isCheckout)throw new IllegalStateException();
-			isCheckout=false;
-			writePos++;
-			if(writePos==length)writePos=0;
-			validEntries++;
-			isFull=validEntries==length-1;
-			isEmpty=false;
-			produced++;
-		}finally{
-			lock.unlock();
-		}
+		if(!isCheckout)throw new IllegalStateException();
+		isCheckout=false;
+		tail=tail+1;
 	}
 
 
 	public DataPacket consumeData(){
-		lock.lock();
-		try{
-			if(isEmpty){
-				return null;
-			}
-			readPos++;
-			DataPacket p=packets[readPos];
-			if(readPos==length-1)readPos=-1;
-			validEntries--;
-			isEmpty=validEntries==0;
-			isFull=false;
-			consumed++;
-			return p;
-		}finally{
-			lock.unlock();
+		long h=head;
+		if(h==tail){
+			return null;
+		}
+		DataPacket p=packets[(int)(h%length)];
+		head=h+1;
+		Thread waiting=waitingProducer;
+		if(waiting!=null){
+			LockSupport.unpark(waiting);
 		}
+		return p;
 	}
 
 	boolean isEmpty(){
-		return isEmpty;
+		return head==tail;
 	}
 
 	/**
@@ -124,26 +135,28 @@ public class FlowWindow {
 	 * @return
 	 */
 	public boolean isFull(){
-		return isFull;
+		return tail-head>=size;
 	}
 
 	int readPos(){
-		return readPos;
+		return (int)((head+length-1)%length);
 	}
 
 	int writePos(){
-		return writePos;
+		return (int)(tail%length);
 	}
 	
 	int consumed(){
-		return consumed;
+		return (int)head;
 	}
 	public String toString(){
 		StringBuilder sb=new StringBuilder();
+		long h=head;
+		long t=tail;
 		sb.append("FlowWindow size=").append(length);
-		sb.append(" full=").append(isFull).append(" empty=").append(isEmpty);
-		sb.append(" readPos=").append(readPos).append(" writePos=").append(writePos);
-		sb.append(" consumed=").append(consumed).append(" produced=").append(produced);
+		sb.append(" full=").append(t-h>=size).append(" empty=").append(h==t);
+		sb.append(" readPos=").append(readPos()).append(" writePos=").append(writePos());
+		sb.append(" consumed=").append(h).append(" produced=").append(t);
 		return sb.toString();
 	}
 }
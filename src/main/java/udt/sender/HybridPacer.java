@@ -0,0 +1,76 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt.sender;
+
+import java.util.concurrent.locks.LockSupport;
+
+import udt.util.Util;
+
+/**
+ * parks the sender thread for longer gaps, and busy-waits only for the last 
+ * microseconds, which the OS scheduler cannot resolve
+ */
+public class HybridPacer implements Pacer {
+
+	/**
+	 * default spin threshold (microseconds)
+	 */
+	public static final int DEFAULT_SPIN_THRESHOLD=100;
+
+	private final long spinThreshold;
+
+	public HybridPacer(){
+		this(DEFAULT_SPIN_THRESHOLD);
+	}
+
+	/**
+	 * @param spinThreshold - gaps shorter than this (in microseconds) are busy-waited
+	 */
+	public HybridPacer(long spinThreshold){
+		this.spinThreshold=spinThreshold;
+	}
+
+	public void pace(long time, double interval){
+		long remaining=time-Util.getCurrentTime();
+		if(remaining>spinThreshold){
+			LockSupport.parkNanos(this, (remaining-spinThreshold)*1000);
+		}
+		while(Util.getCurrentTime()<time){
+			//spin for the rest
+		}
+	}
+
+	public String toString(){
+		return "HybridPacer spinThreshold="+spinThreshold;
+	}
+}
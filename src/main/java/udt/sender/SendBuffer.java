@@ -0,0 +1,335 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ *
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ *
+ * DISCLAIMER
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt.sender;
+
+import java.nio.ByteBuffer;
+
+import udt.util.MessageNumber;
+import udt.util.SequenceNumber;
+
+/**
+ * stores the data of sent, but not yet acknowledged data packets for retransmission.<br/>
+ * 
+ * This is a fixed-capacity ring indexed by sequence number. The payloads are copied into
+ * a slab of pre-sized chunks (allocated in segments on first use), so storing a packet 
+ * involves neither allocation nor locking. A cumulative acknowledgement simply advances
+ * the head of the ring.<br/>
+ * 
+ * Alternatively, a packet can be stored as a reference to a region of a (memory mapped)
+ * buffer. Then nothing is copied, and retransmissions re-read the data from the region.<br/>
+ * 
+ * Packets sent in message mode also keep their message number field and expiry time, 
+ * so that the sender can drop a message whose time-to-live has expired instead of 
+ * retransmitting it.<br/>
+ * 
+ * Packets must be stored by a single thread (the sender thread) in sequence number order. 
+ * The same thread may read packets for retransmission, while acknowledgements can be 
+ * processed by another thread.
+ */
+public class SendBuffer {
+
+	//number of chunks per slab segment (as power of 2)
+	private static final int SEGMENT_BITS=8;
+
+	private static final int SEGMENT_MASK=(1<<SEGMENT_BITS)-1;
+
+	private final int capacity;
+
+	private final int chunkSize;
+
+	//the payloads
+	private final byte[][]segments;
+
+	//payload length and sequence number of each slot
+	private final int[]lengths;
+	private final long[]sequenceNumbers;
+
+	//message number field and expiry time (zero if none) of each slot
+	private final long[]messageNumbers;
+	private final long[]expiryTimes;
+
+	//payload regions of the slots stored by reference
+	private final ByteBuffer[]regions;
+
+	//whether any packet has been stored by reference
+	private volatile boolean haveRegions=false;
+
+	//position of the oldest unacknowledged packet
+	private volatile long headPosition=0;
+
+	//position where the next packet will be stored
+	private volatile long tailPosition=0;
+
+	//sequence number of the packet at the head position (only accessed when acknowledging)
+	private long headSequenceNumber;
+
+	//sequence number of the next packet to be stored (only accessed by the sender thread)
+	private long tailSequenceNumber;
+
+	/**
+	 * @param capacity - the maximum number of unacknowledged packets
+	 * @param chunkSize - the maximum payload size
+	 * @param initialSequenceNumber - the sequence number of the first packet
+	 */
+	public SendBuffer(int capacity, int chunkSize, long initialSequenceNumber){
+		this.capacity=capacity;
+		this.chunkSize=chunkSize;
+		this.segments=new byte[(capacity+SEGMENT_MASK)>>SEGMENT_BITS][];
+		this.lengths=new int[capacity];
+		this.sequenceNumbers=new long[capacity];
+		this.regions=new ByteBuffer[capacity];
+		this.messageNumbers=new long[capacity];
+		this.expiryTimes=new long[capacity];
+		this.headSequenceNumber=initialSequenceNumber;
+		this.tailSequenceNumber=initialSequenceNumber;
+	}
+
+	/**
+	 * store the payload of a sent data packet
+	 * 
+	 * @param sequenceNumber - must be the successor of the previously stored sequence number
+	 * @param data
+	 * @param offset
+	 * @param length - at most the chunk size
+	 * @return <code>false</code> if the buffer is full
+	 */
+	public boolean store(long sequenceNumber, byte[]data, int offset, int length){
+		return store(sequenceNumber, data, offset, length, 0, 0);
+	}
+
+	/**
+	 * store the payload of a sent data packet belonging to a message
+	 * 
+	 * @param sequenceNumber - must be the successor of the previously stored sequence number
+	 * @param data
+	 * @param offset
+	 * @param length - at most the chunk size
+	 * @param messageNumber - the message number field of the packet
+	 * @param expiryTime - the time (in microseconds) when the message expires, or zero if it never expires
+	 * @return <code>false</code> if the buffer is full
+	 */
+	public boolean store(long sequenceNumber, byte[]data, int offset, int length, long messageNumber, long expiryTime){
+		if(sequenceNumber!=tailSequenceNumber){
+			throw new IllegalArgumentException("Expected sequence number "+tailSequenceNumber+", got "+sequenceNumber);
+		}
+		if(length>chunkSize){
+			throw new IllegalArgumentException("Data length "+length+" exceeds chunk size "+chunkSize);
+		}
+		long tail=tailPosition;
+		if(tail-headPosition>=capacity)return false;
+		int slot=(int)(tail%capacity);
+		System.arraycopy(data, offset, segment(slot), (slot & SEGMENT_MASK)*chunkSize, length);
+		regions[slot]=null;
+		lengths[slot]=length;
+		messageNumbers[slot]=messageNumber;
+		expiryTimes[slot]=expiryTime;
+		sequenceNumbers[slot]=sequenceNumber;
+		tailSequenceNumber=SequenceNumber.increment(sequenceNumber);
+		tailPosition=tail+1;
+		return true;
+	}
+
+	/**
+	 * store the payload of a sent data packet by reference, without copying it
+	 * 
+	 * @param sequenceNumber - must be the successor of the previously stored sequence number
+	 * @param region - the payload between position and limit (at most the chunk size), 
+	 *                 which must not change until the packet has been acknowledged
+	 * @return <code>false</code> if the buffer is full
+	 */
+	public boolean store(long sequenceNumber, ByteBuffer region){
+		if(sequenceNumber!=tailSequenceNumber){
+			throw new IllegalArgumentException("Expected sequence number "+tailSequenceNumber+", got "+sequenceNumber);
+		}
+		int length=region.remaining();
+		if(length>chunkSize){
+			throw new IllegalArgumentException("Data length "+length+" exceeds chunk size "+chunkSize);
+		}
+		long tail=tailPosition;
+		if(tail-headPosition>=capacity)return false;
+		int slot=(int)(tail%capacity);
+		haveRegions=true;
+		regions[slot]=region;
+		lengths[slot]=length;
+		messageNumbers[slot]=0;
+		expiryTimes[slot]=0;
+		sequenceNumbers[slot]=sequenceNumber;
+		tailSequenceNumber=SequenceNumber.increment(sequenceNumber);
+		tailPosition=tail+1;
+		return true;
+	}
+
+	/**
+	 * copy the payload of the given unacknowledged packet into the target array.
+	 * Must be called by the thread storing the packets.
+	 * 
+	 * @param sequenceNumber
+	 * @param target - array of at least chunk size
+	 * @return the payload length, or <code>-1</code> if the packet is not (or no longer) stored
+	 */
+	public int read(long sequenceNumber, byte[]target){
+		long pos=position(sequenceNumber);
+		if(pos<0)return -1;
+		int slot=(int)(pos%capacity);
+		int length=lengths[slot];
+		ByteBuffer region=regions[slot];
+		if(region!=null){
+			region.duplicate().get(target, 0, length);
+		}
+		else{
+			byte[]segment=segments[slot>>SEGMENT_BITS];
+			if(segment==null)return -1;
+			System.arraycopy(segment, (slot & SEGMENT_MASK)*chunkSize, target, 0, length);
+		}
+		//acknowledged (and the region released) in the meantime
+		if(pos<headPosition)return -1;
+		return length;
+	}
+
+	/**
+	 * the message number field of the given unacknowledged packet.
+	 * Must be called by the thread storing the packets.
+	 * 
+	 * @param sequenceNumber
+	 * @return the message number field, or <code>-1</code> if the packet is not (or no longer) stored
+	 */
+	public long getMessageNumber(long sequenceNumber){
+		long pos=position(sequenceNumber);
+		if(pos<0)return -1;
+		return messageNumbers[(int)(pos%capacity)];
+	}
+
+	/**
+	 * checks whether the message of the given unacknowledged packet has expired, 
+	 * and if so, finds the range of its packets that are still stored.
+	 * Must be called by the thread storing the packets.
+	 * 
+	 * @param sequenceNumber
+	 * @param now - the current time in microseconds
+	 * @return the first and last sequence number of the expired message, 
+	 *         or <code>null</code> if the message has not expired (or the packet is not stored)
+	 */
+	public long[] getExpiredMessage(long sequenceNumber, long now){
+		long pos=position(sequenceNumber);
+		if(pos<0)return null;
+		int slot=(int)(pos%capacity);
+		long expiry=expiryTimes[slot];
+		if(expiry==0 || now<expiry)return null;
+		long number=MessageNumber.getNumber(messageNumbers[slot]);
+		long first=pos;
+		while(!MessageNumber.isFirst(messageNumbers[(int)(first%capacity)]) && first-1>=headPosition 
+				&& MessageNumber.getNumber(messageNumbers[(int)((first-1)%capacity)])==number){
+			first--;
+		}
+		long last=pos;
+		long tail=tailPosition;
+		while(!MessageNumber.isLast(messageNumbers[(int)(last%capacity)]) && last+1<tail 
+				&& MessageNumber.getNumber(messageNumbers[(int)((last+1)%capacity)])==number){
+			last++;
+		}
+		return new long[]{sequenceNumbers[(int)(first%capacity)], sequenceNumbers[(int)(last%capacity)]};
+	}
+
+	//the position of the given stored packet, or -1 if it is not stored
+	private long position(long sequenceNumber){
+		long tail=tailPosition;
+		long pos=tail+SequenceNumber.seqOffset(tailSequenceNumber, sequenceNumber);
+		if(pos<headPosition || pos>=tail)return -1;
+		if(sequenceNumbers[(int)(pos%capacity)]!=sequenceNumber)return -1;
+		return pos;
+	}
+
+	/**
+	 * remove all packets with sequence numbers smaller than the given (cumulative) 
+	 * acknowledgement number
+	 * 
+	 * @param ackNumber
+	 * @return the number of packets removed
+	 */
+	public synchronized int ack(long ackNumber){
+		long head=headPosition;
+		long n=SequenceNumber.seqOffset(headSequenceNumber, ackNumber);
+		if(n<=0)return 0;
+		long stored=tailPosition-head;
+		if(n>stored)n=stored;
+		if(n==0)return 0;
+		long newHead=head+n;
+		headSequenceNumber=SequenceNumber.increment(sequenceNumbers[(int)((newHead-1)%capacity)]);
+		if(haveRegions){
+			//release the referenced regions before the slots can be re-used
+			for(long p=head;p<newHead;p++){
+				regions[(int)(p%capacity)]=null;
+			}
+		}
+		headPosition=newHead;
+		return (int)n;
+	}
+
+	/**
+	 * the number of unacknowledged packets
+	 */
+	public int size(){
+		return (int)(tailPosition-headPosition);
+	}
+
+	public boolean isEmpty(){
+		return tailPosition==headPosition;
+	}
+
+	/**
+	 * the sequence number of the oldest unacknowledged packet, or <code>-1</code> if the buffer is empty
+	 */
+	public long getFirstSequenceNumber(){
+		long head=headPosition;
+		if(head==tailPosition)return -1;
+		return sequenceNumbers[(int)(head%capacity)];
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+	private byte[] segment(int slot){
+		int s=slot>>SEGMENT_BITS;
+		byte[]segment=segments[s];
+		if(segment==null){
+			segment=new byte[(SEGMENT_MASK+1)*chunkSize];
+			segments[s]=segment;
+		}
+		return segment;
+	}
+
+	public String toString(){
+		return "SendBuffer capacity="+capacity+" head="+headPosition+" tail="+tailPosition;
+	}
+}
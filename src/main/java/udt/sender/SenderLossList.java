@@ -31,61 +31,304 @@
  *********************************************************************************/
 
 package udt.sender;
-import java.util.LinkedList;
+
+import udt.util.SequenceNumber;
 
 /**
- * stores the sequence number of the lost packets in increasing order
+ * stores the sequence number of the lost packets in increasing order<br/>
+ * 
+ * The lost sequence numbers are kept as a sorted array of disjoint [start,end] runs, so 
+ * inserting a range of losses, removing everything up to an ACK number and retrieving
+ * the lowest entry do not depend on the number of lost packets. Runs that touch or overlap
+ * are merged on insert.<br/>
+ * 
+ * Since sequence numbers wrap around, the runs do not hold the sequence numbers themselves, 
+ * but unwrapped positions, computed from the offset to the most recently used sequence number.
  */
 public class SenderLossList {
 
-	private final LinkedList<Long>backingList;
+	private static final int INITIAL_CAPACITY=16;
+
+	//the runs are stored in [head, head+runs)
+	private long[]starts;
+	private long[]ends;
+	private int head=0;
+	private int runs=0;
+
+	//total number of lost sequence numbers
+	private volatile int size=0;
+
+	//the most recently used sequence number and its position
+	private long referenceSequenceNumber=-1;
+	private long referencePosition;
 
 	/**
 	 * create a new sender lost list
 	 */
 	public SenderLossList(){
-		backingList = new LinkedList<Long>();
+		starts=new long[INITIAL_CAPACITY];
+		ends=new long[INITIAL_CAPACITY];
 	}
 
 	public void insert(Long obj){
-		synchronized (backingList) {
-			for(int i=0;i<backingList.size();i++){
-				Long entry=backingList.get(i);
-				if(obj<entry){
-					backingList.add(i,obj);	
-					return;
-				}
-				else if(obj.equals(entry))return;
-			}
-			backingList.add(obj);
+		insert(obj.longValue(), obj.longValue());
+	}
+
+	/**
+	 * insert the sequence numbers from start to end (inclusive)
+	 * @param seqStart
+	 * @param seqEnd - may have wrapped around
+	 */
+	public synchronized void insert(long seqStart, long seqEnd){
+		long start=toPosition(seqStart);
+		long end=start+SequenceNumber.seqOffset(seqStart, seqEnd);
+		if(end<start)return;
+		int tail=head+runs;
+		//fast path: append behind the last run
+		if(runs==0 || start>ends[tail-1]+1){
+			ensureCapacity();
+			tail=head+runs;
+			starts[tail]=start;
+			ends[tail]=end;
+			runs++;
+			size+=end-start+1;
+			return;
+		}
+		//first run that ends at or after start-1 (i.e. that touches the new range)
+		int i=search(start-1);
+		if(starts[i]>end+1){
+			//no overlap: insert a new run before i
+			ensureCapacity();
+			i=search(start-1);
+			tail=head+runs;
+			System.arraycopy(starts, i, starts, i+1, tail-i);
+			System.arraycopy(ends, i, ends, i+1, tail-i);
+			starts[i]=start;
+			ends[i]=end;
+			runs++;
+			size+=end-start+1;
+			return;
+		}
+		//merge all runs touching [start,end] into run i
+		int j=i;
+		long removed=0;
+		while(j<tail && starts[j]<=end+1){
+			removed+=ends[j]-starts[j]+1;
+			j++;
+		}
+		long newStart=Math.min(start, starts[i]);
+		long newEnd=Math.max(end, ends[j-1]);
+		starts[i]=newStart;
+		ends[i]=newEnd;
+		if(j>i+1){
+			System.arraycopy(starts, j, starts, i+1, tail-j);
+			System.arraycopy(ends, j, ends, i+1, tail-j);
+			runs-=j-i-1;
+		}
+		size+=(newEnd-newStart+1)-removed;
+	}
+
+	/**
+	 * remove a single sequence number
+	 * @param obj
+	 */
+	public synchronized void remove(Long obj){
+		if(runs==0)return;
+		long seq=toPosition(obj.longValue());
+		int i=search(seq);
+		if(i==head+runs || starts[i]>seq)return;
+		if(starts[i]==ends[i]){
+			int tail=head+runs;
+			System.arraycopy(starts, i+1, starts, i, tail-i-1);
+			System.arraycopy(ends, i+1, ends, i, tail-i-1);
+			runs--;
+		}
+		else if(seq==starts[i]){
+			starts[i]++;
+		}
+		else if(seq==ends[i]){
+			ends[i]--;
+		}
+		else{
+			//split the run
+			ensureCapacity();
+			i=search(seq);
+			int tail=head+runs;
+			System.arraycopy(starts, i+1, starts, i+2, tail-i-1);
+			System.arraycopy(ends, i+1, ends, i+2, tail-i-1);
+			starts[i+1]=seq+1;
+			ends[i+1]=ends[i];
+			ends[i]=seq-1;
+			runs++;
+		}
+		size--;
+	}
+
+	/**
+	 * remove the sequence numbers from first to last (inclusive)
+	 * @param seqFirst
+	 * @param seqLast - may have wrapped around
+	 */
+	public synchronized void remove(long seqFirst, long seqLast){
+		if(runs==0)return;
+		long first=toPosition(seqFirst);
+		long last=first+SequenceNumber.seqOffset(seqFirst, seqLast);
+		if(last<first)return;
+		int i=search(first);
+		int tail=head+runs;
+		if(i==tail || starts[i]>last)return;
+		//runs i to j-1 overlap the removed range
+		int j=i;
+		long removed=0;
+		while(j<tail && starts[j]<=last){
+			removed+=Math.min(ends[j], last)-Math.max(starts[j], first)+1;
+			j++;
+		}
+		long headStart=starts[i];
+		long tailEnd=ends[j-1];
+		//the parts before and after the removed range remain
+		int remaining=(headStart<first ? 1 : 0)+(tailEnd>last ? 1 : 0);
+		if(remaining>j-i){
+			//split a single run
+			ensureCapacity();
+			i=search(first);
+			j=i+1;
+			tail=head+runs;
+		}
+		System.arraycopy(starts, j, starts, i+remaining, tail-j);
+		System.arraycopy(ends, j, ends, i+remaining, tail-j);
+		int k=i;
+		if(headStart<first){
+			starts[k]=headStart;
+			ends[k]=first-1;
+			k++;
 		}
+		if(tailEnd>last){
+			starts[k]=last+1;
+			ends[k]=tailEnd;
+		}
+		runs+=remaining-(j-i);
+		if(runs==0)head=0;
+		size-=removed;
+	}
+
+	/**
+	 * remove all sequence numbers smaller than the given ACK number
+	 * @param ackSequenceNumber
+	 */
+	public synchronized void removeUpTo(long ackSequenceNumber){
+		if(runs==0)return;
+		long ackNumber=toPosition(ackSequenceNumber);
+		//first run ending at or after ackNumber
+		int i=search(ackNumber);
+		long removed=0;
+		for(int k=head;k<i;k++){
+			removed+=ends[k]-starts[k]+1;
+		}
+		runs-=i-head;
+		head=i;
+		if(runs>0 && starts[head]<ackNumber){
+			removed+=ackNumber-starts[head];
+			starts[head]=ackNumber;
+		}
+		if(runs==0)head=0;
+		size-=removed;
 	}
 
-	public void remove(Long obj){
-		synchronized (backingList) {
-			backingList.remove(obj);
+	/**
+	 * retrieves and removes the loss list entry with the lowest sequence number, 
+	 * or <code>-1</code> if loss list is empty
+	 */
+	public synchronized long pollFirst(){
+		if(runs==0)return -1;
+		long seq=starts[head];
+		if(seq==ends[head]){
+			head++;
+			runs--;
+			if(runs==0)head=0;
 		}
+		else{
+			starts[head]=seq+1;
+		}
+		size--;
+		return toSequenceNumber(seq);
 	}
+
 	/**
 	 * retrieves the loss list entry with the lowest sequence number, or <code>null</code> if loss list is empty
 	 */
 	public Long getFirstEntry(){
-		synchronized(backingList){
-			return backingList.poll();
-		}
+		long seq=pollFirst();
+		return seq<0 ? null : Long.valueOf(seq);
 	}
-	
+
 	public boolean isEmpty(){
-		return backingList.isEmpty();
+		return size==0;
 	}
 
 	public int size(){
-		return backingList.size();
+		return size;
+	}
+
+	/**
+	 * the number of disjoint runs of lost sequence numbers
+	 */
+	public synchronized int getNumberOfRanges(){
+		return runs;
+	}
+
+	//the unwrapped position of the given sequence number, which becomes the new reference
+	private long toPosition(long seq){
+		long pos=referenceSequenceNumber<0 ? seq : 
+			referencePosition+SequenceNumber.seqOffset(referenceSequenceNumber, seq);
+		referenceSequenceNumber=seq;
+		referencePosition=pos;
+		return pos;
+	}
+
+	private static long toSequenceNumber(long pos){
+		long n=SequenceNumber.MAX_SEQUENCE_NUMBER+1;
+		return ((pos%n)+n)%n;
+	}
+
+	//index of the first run whose end is >= the given sequence number, or head+runs if none
+	private int search(long seq){
+		int low=head;
+		int high=head+runs;
+		while(low<high){
+			int mid=(low+high)>>>1;
+			if(ends[mid]<seq)low=mid+1;
+			else high=mid;
+		}
+		return low;
+	}
+
+	//make sure there is room for one more run at the end
+	private void ensureCapacity(){
+		if(head+runs<starts.length)return;
+		if(runs<starts.length/2){
+			//compact
+			System.arraycopy(starts, head, starts, 0, runs);
+			System.arraycopy(ends, head, ends, 0, runs);
+		}
+		else{
+			long[]newStarts=new long[starts.length*2];
+			long[]newEnds=new long[ends.length*2];
+			System.arraycopy(starts, head, newStarts, 0, runs);
+			System.arraycopy(ends, head, newEnds, 0, runs);
+			starts=newStarts;
+			ends=newEnds;
+		}
+		head=0;
 	}
 
-	public String toString(){
-		synchronized (backingList) {
-			return backingList.toString();	
+	public synchronized String toString(){
+		StringBuilder sb=new StringBuilder("[");
+		for(int i=head;i<head+runs;i++){
+			if(i>head)sb.append(", ");
+			sb.append(toSequenceNumber(starts[i]));
+			if(ends[i]!=starts[i])sb.append("-").append(toSequenceNumber(ends[i]));
 		}
+		return sb.append("]").toString();
 	}
 }
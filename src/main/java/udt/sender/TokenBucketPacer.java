@@ -0,0 +1,91 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt.sender;
+
+import udt.util.Util;
+
+/**
+ * lets packets go out in bursts: instead of waking up for every packet, the sender 
+ * waits until tokens for a full burst have accumulated, and then sends the burst 
+ * back to back. The average rate is the same as with per-packet pacing, but the 
+ * number of wakeups is reduced by the burst size.<br/>
+ * 
+ * Note that the receiver measures the packet arrival rate from the spacing of arriving
+ * packets, so large bursts can lead to less accurate rate estimates.
+ */
+public class TokenBucketPacer implements Pacer {
+
+	/**
+	 * default burst size
+	 */
+	public static final int DEFAULT_BURST_SIZE=8;
+
+	private final int burstSize;
+
+	private final HybridPacer waiter=new HybridPacer();
+
+	//tokens left in the current burst
+	private int tokens=0;
+
+	public TokenBucketPacer(){
+		this(DEFAULT_BURST_SIZE);
+	}
+
+	/**
+	 * @param burstSize - the number of packets sent per wakeup
+	 */
+	public TokenBucketPacer(int burstSize){
+		if(burstSize<1)throw new IllegalArgumentException("Burst size must be positive");
+		this.burstSize=burstSize;
+	}
+
+	public void pace(long time, double interval){
+		if(tokens>0){
+			//rest of the current burst
+			tokens--;
+			return;
+		}
+		if(Util.getCurrentTime()>=time)return;
+		//wait until tokens for a full burst are available
+		waiter.pace(time+(long)((burstSize-1)*interval), interval);
+		tokens=burstSize-1;
+	}
+
+	public int getBurstSize(){
+		return burstSize;
+	}
+
+	public String toString(){
+		return "TokenBucketPacer burstSize="+burstSize;
+	}
+}
@@ -70,11 +70,19 @@ public abstract class Application implements Runnable {
 		return new byte[]{m1,m2,m3,m4};
 	}
 	
+	static long decode64(byte[]data, int start){
+		long result=0;
+		for(int i=7;i>=0;i--){
+			result=result<<8 | (data[start+i] & 0xFF);
+		}
+		return result;
+	}
+	
 	static byte[]encode64(long value){
-		byte m4= (byte) (value>>24 );
-		byte m3=(byte)(value>>16);
-		byte m2=(byte)(value>>8);
-		byte m1=(byte)(value);
-		return new byte[]{m1,m2,m3,m4,0,0,0,0};
+		byte[]result=new byte[8];
+		for(int i=0;i<8;i++){
+			result[i]=(byte)(value>>(8*i));
+		}
+		return result;
 	}
 }
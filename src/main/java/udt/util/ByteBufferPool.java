@@ -0,0 +1,106 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ *
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ *
+ * DISCLAIMER
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt.util;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a simple pool of equally sized {@link ByteBuffer}s, used to avoid allocating
+ * a new buffer for each received datagram.<br/>
+ * 
+ * The pool retains at most <code>maxPooled</code> buffers, if it is empty
+ * a new buffer will be allocated.
+ */
+public class ByteBufferPool {
+
+	private final Queue<ByteBuffer>pool=new ConcurrentLinkedQueue<ByteBuffer>();
+
+	//number of buffers currently held by the pool
+	private final AtomicInteger pooled=new AtomicInteger(0);
+
+	private final int bufferSize;
+
+	private final int maxPooled;
+
+	private final boolean direct;
+
+	/**
+	 * @param bufferSize - the capacity of the buffers
+	 * @param maxPooled - the maximum number of buffers retained by the pool
+	 * @param direct - whether to allocate direct buffers
+	 */
+	public ByteBufferPool(int bufferSize, int maxPooled, boolean direct){
+		this.bufferSize=bufferSize;
+		this.maxPooled=maxPooled;
+		this.direct=direct;
+	}
+
+	/**
+	 * get a cleared buffer from the pool, allocating a new one if the pool is empty
+	 */
+	public ByteBuffer acquire(){
+		ByteBuffer bb=pool.poll();
+		if(bb!=null){
+			pooled.decrementAndGet();
+			return bb;
+		}
+		return direct? ByteBuffer.allocateDirect(bufferSize) : ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * return a buffer to the pool. Buffers of the wrong size are discarded
+	 */
+	public void release(ByteBuffer bb){
+		if(bb==null || bb.capacity()!=bufferSize)return;
+		if(pooled.incrementAndGet()>maxPooled){
+			pooled.decrementAndGet();
+			return;
+		}
+		bb.clear();
+		pool.offer(bb);
+	}
+
+	public int getBufferSize(){
+		return bufferSize;
+	}
+
+	/**
+	 * the number of buffers currently available in the pool
+	 */
+	public int size(){
+		return pooled.get();
+	}
+}
@@ -0,0 +1,176 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * reads the frames written by a {@link CompressedOutputStream} from the underlying 
+ * stream (typically a {@link udt.UDTInputStream}), and decompresses them
+ */
+public class CompressedInputStream extends InputStream {
+
+	/**
+	 * the default maximum (uncompressed) frame size accepted, a few times 
+	 * the default block size of the {@link CompressedOutputStream}
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE=4*CompressedOutputStream.DEFAULT_BLOCK_SIZE;
+
+	private final InputStream in;
+
+	private final int maxFrameSize;
+
+	private final Inflater inflater=new Inflater();
+
+	private final byte[]header=new byte[CompressedOutputStream.FRAME_HEADER_SIZE];
+
+	//the compressed frame
+	private byte[]frame=new byte[0];
+
+	//the decompressed data of the current frame
+	private byte[]block=new byte[0];
+	private int length=0;
+	private int position=0;
+
+	private boolean eof=false;
+
+	public CompressedInputStream(InputStream in){
+		this(in, DEFAULT_MAX_FRAME_SIZE);
+	}
+
+	/**
+	 * @param in - the underlying stream
+	 * @param maxFrameSize - the maximum uncompressed size of a frame, which must not be 
+	 *        less than the block size of the {@link CompressedOutputStream} that wrote the data
+	 */
+	public CompressedInputStream(InputStream in, int maxFrameSize){
+		if(maxFrameSize<=0)throw new IllegalArgumentException("Invalid maximum frame size <"+maxFrameSize+">");
+		this.in=in;
+		this.maxFrameSize=maxFrameSize;
+	}
+
+	@Override
+	public int read()throws IOException{
+		byte[]b=new byte[1];
+		int c=read(b, 0, 1);
+		return c<0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[]b, int off, int len)throws IOException{
+		if(len==0)return 0;
+		if(position==length && !nextFrame())return -1;
+		int n=Math.min(len, length-position);
+		System.arraycopy(block, position, b, off, n);
+		position+=n;
+		return n;
+	}
+
+	@Override
+	public int available(){
+		return length-position;
+	}
+
+	@Override
+	public void close()throws IOException{
+		inflater.end();
+		in.close();
+	}
+
+	//reads and decompresses the next frame, returns false at the end of the stream
+	private boolean nextFrame()throws IOException{
+		if(eof)return false;
+		if(!readFully(header, 0, header.length, true)){
+			eof=true;
+			return false;
+		}
+		int rawLength=readInt(header, 0);
+		int storedLength=readInt(header, 4);
+		if(rawLength<0 || rawLength>maxFrameSize || storedLength<0 || storedLength>rawLength){
+			throw new IOException("Invalid frame header");
+		}
+		if(block.length<rawLength)block=new byte[rawLength];
+		if(storedLength==rawLength){
+			readFully(block, 0, rawLength, false);
+		}
+		else{
+			if(frame.length<storedLength)frame=new byte[storedLength];
+			readFully(frame, 0, storedLength, false);
+			inflater.reset();
+			inflater.setInput(frame, 0, storedLength);
+			try{
+				int n=0;
+				while(n<rawLength && !inflater.finished()){
+					int c=inflater.inflate(block, n, rawLength-n);
+					if(c==0 && (inflater.needsInput() || inflater.needsDictionary())){
+						throw new IOException("Truncated frame");
+					}
+					n+=c;
+				}
+				if(n!=rawLength)throw new IOException("Invalid frame length");
+			}catch(DataFormatException ex){
+				IOException e=new IOException("Invalid compressed data");
+				e.initCause(ex);
+				throw e;
+			}
+		}
+		length=rawLength;
+		position=0;
+		return true;
+	}
+
+	//returns false if the stream ends before the first byte, if that is allowed
+	private boolean readFully(byte[]b, int off, int len, boolean eofAllowed)throws IOException{
+		int n=0;
+		while(n<len){
+			int c=in.read(b, off+n, len-n);
+			if(c<0){
+				if(n==0 && eofAllowed)return false;
+				throw new EOFException("Unexpected end of compressed stream");
+			}
+			n+=c;
+		}
+		return true;
+	}
+
+	private static int readInt(byte[]b, int offset){
+		return (b[offset] & 0xFF)<<24 | (b[offset+1] & 0xFF)<<16 
+			| (b[offset+2] & 0xFF)<<8 | (b[offset+3] & 0xFF);
+	}
+
+}
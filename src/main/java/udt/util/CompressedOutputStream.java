@@ -0,0 +1,301 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
+
+/**
+ * compresses the data written to it in blocks, and writes the compressed frames to 
+ * the underlying stream (typically a {@link udt.UDTOutputStream}).<br/>
+ * 
+ * Compression runs in a separate pipeline thread, so the application can fill the next block 
+ * while the previous one is compressed and handed to the UDT sender.<br/>
+ * 
+ * Each frame consists of the uncompressed length and the stored length (4 bytes each), 
+ * followed by the data. Blocks that do not get smaller are stored uncompressed, which 
+ * is indicated by equal lengths. See {@link CompressedInputStream}.
+ */
+public class CompressedOutputStream extends OutputStream {
+
+	public static final int DEFAULT_BLOCK_SIZE=256*1024;
+
+	//the fastest deflate level
+	public static final int DEFAULT_LEVEL=Deflater.BEST_SPEED;
+
+	static final int FRAME_HEADER_SIZE=8;
+
+	private final OutputStream out;
+
+	private final int blockSize;
+
+	private final int level;
+
+	//blocks waiting for compression, and the free ones
+	private final BlockingQueue<Block>queue=new ArrayBlockingQueue<Block>(2);
+	private final BlockingQueue<Block>free=new ArrayBlockingQueue<Block>(4);
+
+	//the block currently filled by the application
+	private Block current;
+
+	private final Thread compressor;
+
+	private volatile IOException error;
+
+	private volatile long bytesIn=0;
+
+	private volatile long bytesOut=0;
+
+	private boolean finished=false;
+
+	//whether data has been written since the last flush
+	private boolean dirty=false;
+
+	public CompressedOutputStream(OutputStream out){
+		this(out, DEFAULT_BLOCK_SIZE, DEFAULT_LEVEL);
+	}
+
+	/**
+	 * @param out - the underlying stream
+	 * @param blockSize - the amount of data compressed at once
+	 * @param level - the deflate level
+	 */
+	public CompressedOutputStream(OutputStream out, int blockSize, int level){
+		this.out=out;
+		this.blockSize=blockSize;
+		this.level=level;
+		for(int i=0;i<4;i++){
+			free.add(new Block(blockSize));
+		}
+		current=free.poll();
+		compressor=UDTThreadFactory.get().newThread(new Runnable(){
+			public void run(){
+				compress();
+			}
+		});
+		compressor.setDaemon(true);
+		compressor.start();
+	}
+
+	@Override
+	public void write(int b)throws IOException{
+		write(new byte[]{(byte)b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[]b, int off, int len)throws IOException{
+		checkOpen();
+		dirty=true;
+		while(len>0){
+			int n=Math.min(len, blockSize-current.length);
+			System.arraycopy(b, off, current.data, current.length, n);
+			current.length+=n;
+			off+=n;
+			len-=n;
+			if(current.length==blockSize){
+				submit(current);
+				current=take(free);
+			}
+		}
+	}
+
+	/**
+	 * compresses and writes all buffered data, and flushes the underlying stream
+	 */
+	@Override
+	public void flush()throws IOException{
+		checkOpen();
+		if(!dirty)return;
+		dirty=false;
+		if(current.length>0){
+			submit(current);
+			current=take(free);
+		}
+		Block marker=new Block(0);
+		marker.flushed=new CountDownLatch(1);
+		submit(marker);
+		try{
+			marker.flushed.await();
+		}catch(InterruptedException ie){
+			IOException ex=new IOException();
+			ex.initCause(ie);
+			throw ex;
+		}
+		checkError();
+	}
+
+	/**
+	 * writes all remaining data and stops the compression thread, 
+	 * without closing the underlying stream
+	 */
+	public void finish()throws IOException{
+		if(finished)return;
+		try{
+			flush();
+		}finally{
+			finished=true;
+			compressor.interrupt();
+		}
+	}
+
+	@Override
+	public void close()throws IOException{
+		finish();
+		out.close();
+	}
+
+	/**
+	 * the number of bytes written by the application
+	 */
+	public long getBytesIn(){
+		return bytesIn;
+	}
+
+	/**
+	 * the number of bytes written to the underlying stream
+	 */
+	public long getBytesOut(){
+		return bytesOut;
+	}
+
+	private void submit(Block b)throws IOException{
+		try{
+			queue.put(b);
+		}catch(InterruptedException ie){
+			IOException ex=new IOException();
+			ex.initCause(ie);
+			throw ex;
+		}
+	}
+
+	private Block take(BlockingQueue<Block>q)throws IOException{
+		try{
+			Block b=q.take();
+			checkError();
+			return b;
+		}catch(InterruptedException ie){
+			IOException ex=new IOException();
+			ex.initCause(ie);
+			throw ex;
+		}
+	}
+
+	private void checkOpen()throws IOException{
+		if(finished)throw new IOException("Stream has been closed");
+		checkError();
+	}
+
+	private void checkError()throws IOException{
+		if(error!=null){
+			IOException ex=new IOException("Compression failed");
+			ex.initCause(error);
+			throw ex;
+		}
+	}
+
+	//the compression thread
+	private void compress(){
+		Deflater deflater=new Deflater(level);
+		byte[]frame=new byte[FRAME_HEADER_SIZE+blockSize];
+		try{
+			while(true){
+				Block b=queue.take();
+				if(b.flushed!=null){
+					try{
+						if(error==null)out.flush();
+					}catch(IOException ex){
+						error=ex;
+					}
+					b.flushed.countDown();
+					continue;
+				}
+				try{
+					if(error==null)writeFrame(deflater, b, frame);
+				}catch(IOException ex){
+					error=ex;
+				}
+				b.length=0;
+				free.put(b);
+			}
+		}catch(InterruptedException ie){
+			//finished
+		}finally{
+			deflater.end();
+		}
+	}
+
+	private void writeFrame(Deflater deflater, Block b, byte[]frame)throws IOException{
+		deflater.reset();
+		deflater.setInput(b.data, 0, b.length);
+		deflater.finish();
+		int n=0;
+		//the output may not become larger than the input
+		while(!deflater.finished() && n<b.length){
+			n+=deflater.deflate(frame, FRAME_HEADER_SIZE+n, b.length-n);
+		}
+		if(!deflater.finished() || n>=b.length){
+			//store uncompressed
+			System.arraycopy(b.data, 0, frame, FRAME_HEADER_SIZE, b.length);
+			n=b.length;
+		}
+		writeInt(frame, 0, b.length);
+		writeInt(frame, 4, n);
+		out.write(frame, 0, FRAME_HEADER_SIZE+n);
+		bytesIn+=b.length;
+		bytesOut+=FRAME_HEADER_SIZE+n;
+	}
+
+	private static void writeInt(byte[]target, int offset, int value){
+		target[offset]=(byte)(value>>24);
+		target[offset+1]=(byte)(value>>16);
+		target[offset+2]=(byte)(value>>8);
+		target[offset+3]=(byte)value;
+	}
+
+	private static class Block{
+		final byte[]data;
+		int length;
+		//set for flush markers
+		CountDownLatch flushed;
+
+		Block(int size){
+			data=new byte[size];
+		}
+	}
+
+}
@@ -0,0 +1,335 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * transfers a directory tree over a single UDT session.<br/>
+ * 
+ * The sender first sends a manifest listing all files (number of files, then for each file 
+ * the length of its relative path, the path and the file size). Then it sends the file data 
+ * as pieces of at most {@link #PIECE_SIZE} bytes, each preceded by the index of the file in 
+ * the manifest, the offset and the length (16 bytes). Small files are sent as one piece, and 
+ * the pieces are packed into large writes, so many small files share a data packet.<br/>
+ * 
+ * The pieces are read by a thread pool, and sent in the order they become available. 
+ * The pieces of large files are interleaved with the small files, so that a large file 
+ * does not hold up the rest of the tree. The receiver writes each piece to its place.
+ */
+public class DirectoryTransfer {
+
+	/**
+	 * the maximum size of a piece
+	 */
+	public static final int PIECE_SIZE=1024*1024;
+
+	//number of threads reading files
+	private static final int READER_THREADS=4;
+
+	//maximum amount of data read ahead of the sender
+	private static final long MAX_IN_FLIGHT=16*PIECE_SIZE;
+
+	private static final int PIECE_HEADER_SIZE=16;
+
+	//limits for the manifest accepted by the receiver
+	private static final int MAX_FILES=1024*1024;
+	private static final int MAX_PATH_LENGTH=4096;
+
+	//maximum number of files the receiver keeps open at the same time
+	private static final int MAX_OPEN_FILES=16;
+
+	/**
+	 * sends the directory tree to the given stream
+	 * @param dir
+	 * @param out
+	 * @return the number of file data bytes sent
+	 */
+	public static long send(File dir, OutputStream out)throws IOException{
+		List<File>files=new ArrayList<File>();
+		List<String>paths=new ArrayList<String>();
+		list(dir, "", files, paths, new HashSet<String>());
+		OutputStream batch=new BufferedOutputStream(out, 256*1024);
+
+		//manifest
+		batch.write(Application.encode(files.size()));
+		long total=0;
+		long[]sizes=new long[files.size()];
+		for(int i=0;i<files.size();i++){
+			byte[]path=paths.get(i).getBytes("UTF-8");
+			sizes[i]=files.get(i).length();
+			total+=sizes[i];
+			batch.write(Application.encode(path.length));
+			batch.write(path);
+			batch.write(Application.encode64(sizes[i]));
+		}
+
+		//small files in order, with the pieces of large files interleaved
+		List<Piece>pieces=new ArrayList<Piece>();
+		LinkedList<Piece>largePieces=new LinkedList<Piece>();
+		for(int i=0;i<files.size();i++){
+			if(sizes[i]<=PIECE_SIZE){
+				if(sizes[i]>0)pieces.add(new Piece(files.get(i), i, 0, (int)sizes[i]));
+				if(!largePieces.isEmpty())pieces.add(largePieces.removeFirst());
+			}
+			else{
+				for(long offset=0;offset<sizes[i];offset+=PIECE_SIZE){
+					largePieces.add(new Piece(files.get(i), i, offset, (int)Math.min(PIECE_SIZE, sizes[i]-offset)));
+				}
+			}
+		}
+		pieces.addAll(largePieces);
+
+		ExecutorService readers=UDTThreadFactory.get().newHandlerExecutor(READER_THREADS);
+		try{
+			CompletionService<Piece>completed=new ExecutorCompletionService<Piece>(readers);
+			long inFlight=0;
+			int submitted=0;
+			for(Piece p: pieces){
+				while(inFlight+p.length>MAX_IN_FLIGHT){
+					inFlight-=write(completed.take().get(), batch);
+					submitted--;
+				}
+				completed.submit(p);
+				inFlight+=p.length;
+				submitted++;
+			}
+			while(submitted>0){
+				write(completed.take().get(), batch);
+				submitted--;
+			}
+		}catch(InterruptedException ie){
+			IOException ex=new IOException();
+			ex.initCause(ie);
+			throw ex;
+		}catch(ExecutionException ee){
+			IOException ex=new IOException("Error reading file");
+			ex.initCause(ee.getCause());
+			throw ex;
+		}finally{
+			readers.shutdownNow();
+		}
+		batch.flush();
+		return total;
+	}
+
+	//writes a piece, returns its length
+	private static int write(Piece p, OutputStream out)throws IOException{
+		byte[]header=new byte[PIECE_HEADER_SIZE];
+		System.arraycopy(Application.encode(p.fileIndex), 0, header, 0, 4);
+		System.arraycopy(Application.encode64(p.offset), 0, header, 4, 8);
+		System.arraycopy(Application.encode(p.length), 0, header, 12, 4);
+		out.write(header);
+		out.write(p.data, 0, p.length);
+		p.data=null;
+		return p.length;
+	}
+
+	//collects the regular files below dir, with their paths relative to the top directory. 
+	//Directories are listed only once (by canonical path), so that linked directories 
+	//cannot form a cycle
+	private static void list(File dir, String prefix, List<File>files, List<String>paths, Set<String>visited)throws IOException{
+		if(!visited.add(dir.getCanonicalPath()))return;
+		File[]entries=dir.listFiles();
+		if(entries==null)throw new IOException("Cannot list directory <"+dir+">");
+		Arrays.sort(entries);
+		for(File f: entries){
+			String path=prefix+f.getName();
+			if(f.isDirectory()){
+				list(f, path+"/", files, paths, visited);
+			}
+			else if(f.isFile()){
+				files.add(f);
+				paths.add(path);
+			}
+		}
+	}
+
+	/**
+	 * receives a directory tree from the given stream into the target directory
+	 * @param in
+	 * @param targetDir
+	 * @return the number of files received
+	 */
+	public static int receive(InputStream in, File targetDir)throws IOException{
+		DataInputStream data=new DataInputStream(in);
+		byte[]b=new byte[PIECE_HEADER_SIZE];
+		data.readFully(b, 0, 4);
+		int count=(int)Application.decode(b, 0);
+		if(count<0 || count>MAX_FILES){
+			throw new IOException("Invalid number of files <"+count+">");
+		}
+		File root=targetDir.getCanonicalFile();
+		File[]files=new File[count];
+		long[]sizes=new long[count];
+		long[]remaining=new long[count];
+		long total=0;
+		for(int i=0;i<count;i++){
+			data.readFully(b, 0, 4);
+			int pathLength=(int)Application.decode(b, 0);
+			if(pathLength<=0 || pathLength>MAX_PATH_LENGTH){
+				throw new IOException("Invalid path length <"+pathLength+">");
+			}
+			byte[]path=new byte[pathLength];
+			data.readFully(path);
+			data.readFully(b, 0, 8);
+			files[i]=target(root, new String(path, "UTF-8"));
+			sizes[i]=Application.decode64(b, 0);
+			if(sizes[i]<0){
+				throw new IOException("Invalid size of <"+files[i]+">");
+			}
+			if(sizes[i]>Long.MAX_VALUE-total){
+				throw new IOException("Invalid total size of files");
+			}
+			remaining[i]=sizes[i];
+			total+=remaining[i];
+			files[i].getParentFile().mkdirs();
+			if(remaining[i]==0)new FileOutputStream(files[i]).close();
+		}
+
+		//files that arrive in several pieces stay open until they are complete, 
+		//at most MAX_OPEN_FILES of them, the least recently used one is closed 
+		//and reopened when its next piece arrives
+		Map<Integer,RandomAccessFile>open=new LinkedHashMap<Integer,RandomAccessFile>(16, 0.75f, true);
+		boolean[]created=new boolean[count];
+		byte[]buf=new byte[PIECE_SIZE];
+		try{
+			while(total>0){
+				data.readFully(b);
+				int index=(int)Application.decode(b, 0);
+				long offset=Application.decode64(b, 4);
+				int length=(int)Application.decode(b, 12);
+				if(index<0 || index>=count || length<0 || length>PIECE_SIZE || length>remaining[index]
+						|| offset<0 || offset>sizes[index]-length){
+					throw new IOException("Invalid piece header");
+				}
+				data.readFully(buf, 0, length);
+				RandomAccessFile raf=open.get(index);
+				if(raf==null){
+					if(open.size()>=MAX_OPEN_FILES){
+						Iterator<RandomAccessFile>eldest=open.values().iterator();
+						RandomAccessFile lru=eldest.next();
+						eldest.remove();
+						lru.close();
+					}
+					raf=new RandomAccessFile(files[index], "rw");
+					if(!created[index]){
+						raf.setLength(sizes[index]);
+						created[index]=true;
+					}
+				}
+				raf.seek(offset);
+				raf.write(buf, 0, length);
+				remaining[index]-=length;
+				total-=length;
+				if(remaining[index]==0){
+					open.remove(index);
+					raf.close();
+				}
+				else open.put(index, raf);
+			}
+		}finally{
+			for(RandomAccessFile raf: open.values()){
+				raf.close();
+			}
+		}
+		return count;
+	}
+
+	//the local file for a relative path from the manifest, which must stay inside the 
+	//(canonical) target directory on any platform
+	private static File target(File root, String path)throws IOException{
+		if(path.startsWith("/") || path.indexOf('\\')>=0 || (path.length()>1 && path.charAt(1)==':')){
+			throw new IOException("Invalid path <"+path+">");
+		}
+		for(String element: path.split("/")){
+			if(element.length()==0 || element.equals(".") || element.equals("..")){
+				throw new IOException("Invalid path <"+path+">");
+			}
+		}
+		File file=new File(root, path.replace('/', File.separatorChar)).getCanonicalFile();
+		if(!file.getPath().startsWith(root.getPath()+File.separator)){
+			throw new IOException("Path <"+path+"> is outside the target directory");
+		}
+		return file;
+	}
+
+	private static class Piece implements Callable<Piece>{
+		final File file;
+		final int fileIndex;
+		final long offset;
+		final int length;
+		byte[]data;
+
+		Piece(File file, int fileIndex, long offset, int length){
+			this.file=file;
+			this.fileIndex=fileIndex;
+			this.offset=offset;
+			this.length=length;
+		}
+
+		public Piece call()throws IOException{
+			data=new byte[length];
+			RandomAccessFile raf=new RandomAccessFile(file, "r");
+			try{
+				raf.seek(offset);
+				raf.readFully(data);
+			}finally{
+				raf.close();
+			}
+			return this;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * a single threaded event loop, which runs the receiver and sender algorithms of 
+ * many sessions without needing a thread per session.<br/>
+ * 
+ * Tasks can be submitted from any thread with {@link #execute(Runnable)}. In addition,
+ * the loop thread can schedule {@link Task}s for a given time with microsecond resolution,
+ * which is used for pacing the senders. While there is nothing to do, the loop thread 
+ * parks, spinning only for the last {@link #SPIN_THRESHOLD} microseconds before
+ * the next scheduled task is due.<br/>
+ * 
+ * Tasks run in the loop thread and must not block.
+ */
+public class EventLoop {
+
+	private static final Logger logger=Logger.getLogger(EventLoop.class.getName());
+
+	/**
+	 * microseconds before a scheduled task is due during which the loop thread 
+	 * spins instead of parking
+	 */
+	public static final long SPIN_THRESHOLD=100;
+
+	//maximum number of submitted tasks run before checking the scheduled tasks
+	private static final int MAX_TASKS_PER_ROUND=1024;
+
+	//tasks submitted for immediate execution
+	private final ConcurrentLinkedQueue<Runnable>tasks=new ConcurrentLinkedQueue<Runnable>();
+
+	//scheduled tasks, ordered by time. Only accessed by the loop thread
+	private final PriorityQueue<Scheduled>scheduled=new PriorityQueue<Scheduled>();
+
+	private volatile boolean stopped=false;
+
+	//true while the loop thread is parked (or about to park)
+	private volatile boolean sleeping=false;
+
+	private final Thread thread;
+
+	/**
+	 * create and start an event loop
+	 * @param name - used for naming the loop thread
+	 */
+	public EventLoop(String name){
+		thread=UDTThreadFactory.get().newPlatformThread(new Runnable(){
+			public void run(){
+				loop();
+			}
+		});
+		thread.setName(name+"-"+thread.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * run the given task in the loop thread as soon as possible
+	 * @param task
+	 */
+	public void execute(Runnable task){
+		tasks.add(task);
+		if(sleeping)LockSupport.unpark(thread);
+	}
+
+	/**
+	 * run the given task in the loop thread as soon as possible, unless it is 
+	 * already waiting to be run
+	 * @param task
+	 */
+	public void execute(Task task){
+		if(task.queued.compareAndSet(false, true)){
+			execute((Runnable)task);
+		}
+	}
+
+	/**
+	 * schedule the given task for execution at the given time, replacing any earlier 
+	 * schedule of the same task
+	 * 
+	 * @param task
+	 * @param time - time in microseconds, see {@link Util#getCurrentTime()}
+	 */
+	public void schedule(final Task task, final long time){
+		if(Thread.currentThread()!=thread){
+			execute(new Runnable(){
+				public void run(){
+					schedule(task, time);
+				}
+			});
+			return;
+		}
+		task.scheduledTime=time;
+		scheduled.add(new Scheduled(task, time));
+	}
+
+	/**
+	 * cancel the schedule of the given task. Must be called from the loop thread.
+	 * @param task
+	 */
+	public void cancel(Task task){
+		task.scheduledTime=-1;
+	}
+
+	/**
+	 * stop the loop thread. Pending tasks are discarded.
+	 */
+	public void stop(){
+		stopped=true;
+		LockSupport.unpark(thread);
+	}
+
+	public boolean isStopped(){
+		return stopped;
+	}
+
+	public boolean inEventLoop(){
+		return Thread.currentThread()==thread;
+	}
+
+	private void loop(){
+		while(!stopped){
+			Runnable r;
+			int n=0;
+			while(n++<MAX_TASKS_PER_ROUND && (r=tasks.poll())!=null){
+				if(r instanceof Task)((Task)r).queued.set(false);
+				run(r);
+			}
+			long next=runScheduled();
+			if(!tasks.isEmpty())continue;
+			if(next<0){
+				sleeping=true;
+				if(tasks.isEmpty() && !stopped)LockSupport.park(this);
+				sleeping=false;
+			}
+			else{
+				long wait=next-Util.getCurrentTime()-SPIN_THRESHOLD;
+				if(wait>0){
+					sleeping=true;
+					if(tasks.isEmpty() && !stopped)LockSupport.parkNanos(this, wait*1000);
+					sleeping=false;
+				}
+			}
+		}
+		tasks.clear();
+		scheduled.clear();
+	}
+
+	//run the due scheduled tasks, returns the time of the next scheduled task or -1
+	private long runScheduled(){
+		long now=Util.getCurrentTime();
+		Scheduled s;
+		while((s=scheduled.peek())!=null){
+			if(s.task.scheduledTime!=s.time){
+				//cancelled or re-scheduled
+				scheduled.poll();
+				continue;
+			}
+			if(s.time>now)return s.time;
+			scheduled.poll();
+			s.task.scheduledTime=-1;
+			run(s.task);
+		}
+		return -1;
+	}
+
+	private void run(Runnable r){
+		try{
+			r.run();
+		}catch(Throwable ex){
+			logger.log(Level.WARNING,"Error running event loop task",ex);
+		}
+	}
+
+	public String toString(){
+		return "EventLoop "+thread.getName();
+	}
+
+	/**
+	 * a task which is queued or scheduled at most once at a time
+	 */
+	public static abstract class Task implements Runnable{
+
+		private final AtomicBoolean queued=new AtomicBoolean(false);
+
+		//time the task is scheduled for, or -1. Only accessed by the loop thread
+		private long scheduledTime=-1;
+
+		/**
+		 * the time (microseconds) this task is scheduled for, or -1 if it is not scheduled.
+		 * Must be called from the loop thread.
+		 */
+		public long getScheduledTime(){
+			return scheduledTime;
+		}
+	}
+
+	private static class Scheduled implements Comparable<Scheduled>{
+
+		private final Task task;
+
+		private final long time;
+
+		Scheduled(Task task, long time){
+			this.task=task;
+			this.time=time;
+		}
+
+		public int compareTo(Scheduled o){
+			return time<o.time ? -1 : (time==o.time ? 0 : 1);
+		}
+	}
+
+}
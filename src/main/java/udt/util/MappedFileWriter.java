@@ -0,0 +1,213 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * writes received data packets directly into a memory mapped file.<br/>
+ * 
+ * The file is transferred as a sequence of data packets that all carry <code>chunkSize</code> 
+ * bytes, except for the last one. So the file offset of each packet follows from its sequence 
+ * number, and packets can be written as soon as they arrive, in any order. The packets 
+ * received so far are tracked in a lock-free bit set, so that duplicates are detected 
+ * and the writer knows when the file is complete.<br/>
+ * 
+ * Packets may be written concurrently by several threads.
+ */
+public class MappedFileWriter {
+
+	//approximate size of the mapped file regions
+	private static final int MAPPING_SIZE=64*1024*1024;
+
+	//packet offsets must be unambiguous in the sequence number space
+	private static final long MAX_PACKETS=0x3FFFFFFF;
+
+	private final long size;
+
+	private final int chunkSize;
+
+	private final long firstSequenceNumber;
+
+	private final int numberOfPackets;
+
+	//number of packets per mapped region, so that a packet never spans two regions
+	private final int packetsPerMapping;
+
+	private final MappedByteBuffer[]mappings;
+
+	//one bit per packet
+	private final AtomicLongArray received;
+
+	private final AtomicLong numberReceived=new AtomicLong(0);
+
+	private final CountDownLatch done=new CountDownLatch(1);
+
+	private volatile String error;
+
+	/**
+	 * @param file - the file to write to, opened for writing
+	 * @param position - the position in the file where the data starts
+	 * @param size - the number of bytes to receive
+	 * @param chunkSize - the length of each data packet except the last one
+	 * @param firstSequenceNumber - the sequence number of the first packet
+	 * @throws IOException
+	 */
+	public MappedFileWriter(FileChannel file, long position, long size, int chunkSize, long firstSequenceNumber)throws IOException{
+		long packets=(size+chunkSize-1)/chunkSize;
+		if(packets>MAX_PACKETS){
+			throw new IllegalArgumentException("File too large: "+size+" bytes");
+		}
+		this.size=size;
+		this.chunkSize=chunkSize;
+		this.firstSequenceNumber=firstSequenceNumber;
+		this.numberOfPackets=(int)packets;
+		this.packetsPerMapping=Math.max(1, MAPPING_SIZE/chunkSize);
+		this.mappings=new MappedByteBuffer[(numberOfPackets+packetsPerMapping-1)/packetsPerMapping];
+		long mappingSize=(long)packetsPerMapping*chunkSize;
+		for(int i=0;i<mappings.length;i++){
+			long offset=i*mappingSize;
+			mappings[i]=file.map(MapMode.READ_WRITE, position+offset, Math.min(mappingSize, size-offset));
+		}
+		this.received=new AtomicLongArray((numberOfPackets+63)/64);
+		if(numberOfPackets==0)done.countDown();
+	}
+
+	/**
+	 * checks whether the given sequence number belongs to the file
+	 * @param sequenceNumber
+	 */
+	public boolean contains(long sequenceNumber){
+		long index=SequenceNumber.seqOffset(firstSequenceNumber, sequenceNumber);
+		return index>=0 && index<numberOfPackets;
+	}
+
+	/**
+	 * write the data of a packet to its place in the file
+	 * 
+	 * @param sequenceNumber - the sequence number of the packet
+	 * @param data
+	 * @param length
+	 * @return <code>false</code> if the sequence number does not belong to the file
+	 */
+	public boolean write(long sequenceNumber, byte[]data, int length){
+		long index=SequenceNumber.seqOffset(firstSequenceNumber, sequenceNumber);
+		if(index<0 || index>=numberOfPackets)return false;
+		int packet=(int)index;
+		int word=packet>>6;
+		long bit=1L<<(packet & 63);
+		if((received.get(word) & bit)!=0)return true;
+		long offset=(long)packet*chunkSize;
+		int expected=(int)Math.min(chunkSize, size-offset);
+		if(length!=expected){
+			fail("Packet "+sequenceNumber+" has length "+length+", expected "+expected);
+			return true;
+		}
+		ByteBuffer target=mappings[packet/packetsPerMapping].duplicate();
+		target.position((packet%packetsPerMapping)*chunkSize);
+		target.put(data, 0, length);
+		//mark as received, unless another thread has written the same packet meanwhile
+		while(true){
+			long current=received.get(word);
+			if((current & bit)!=0)return true;
+			if(received.compareAndSet(word, current, current | bit))break;
+		}
+		if(numberReceived.incrementAndGet()==numberOfPackets){
+			done.countDown();
+		}
+		return true;
+	}
+
+	private void fail(String message){
+		error=message;
+		done.countDown();
+	}
+
+	/**
+	 * waits until all packets have been written
+	 * @return <code>true</code> if the file is complete, <code>false</code> if the timeout elapsed
+	 * @throws IOException - if data was received that does not fit the file layout
+	 * @throws InterruptedException
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit units)throws IOException, InterruptedException{
+		boolean complete=done.await(timeout, units);
+		if(error!=null)throw new IOException(error);
+		return complete;
+	}
+
+	public boolean isComplete(){
+		return numberReceived.get()==numberOfPackets;
+	}
+
+	/**
+	 * forces the written data to the storage device
+	 */
+	public void force(){
+		for(MappedByteBuffer m: mappings){
+			m.force();
+		}
+	}
+
+	public long getFirstSequenceNumber(){
+		return firstSequenceNumber;
+	}
+
+	/**
+	 * the sequence number following the last packet of the file
+	 */
+	public long getEndSequenceNumber(){
+		return SequenceNumber.add(firstSequenceNumber, numberOfPackets);
+	}
+
+	public int getNumberOfPackets(){
+		return numberOfPackets;
+	}
+
+	public long getNumberOfReceivedPackets(){
+		return numberReceived.get();
+	}
+
+	public long getSize(){
+		return size;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+/**
+ * helper methods for the message number field of data packets.<br/>
+ * 
+ * In message mode, bits 31-30 of the field mark the packet's position in its message 
+ * (10: first, 01: last, 11: a message consisting of a single packet, 00: in the middle), 
+ * bit 29 tells whether the message must be delivered in order, and bits 28-0 hold the 
+ * message number itself. Data sent as a stream has a message number of zero.
+ */
+public class MessageNumber {
+
+	public final static long MAX_MESSAGE_NUMBER=0x1FFFFFFFL;
+
+	private final static long FIRST=0x80000000L;
+
+	private final static long LAST=0x40000000L;
+
+	private final static long IN_ORDER=0x20000000L;
+
+	/**
+	 * build the message number field
+	 * @param messageNumber
+	 * @param first - whether the packet is the first one of its message
+	 * @param last - whether the packet is the last one of its message
+	 * @param inOrder
+	 */
+	public static long encode(long messageNumber, boolean first, boolean last, boolean inOrder){
+		long field=messageNumber & MAX_MESSAGE_NUMBER;
+		if(first)field|=FIRST;
+		if(last)field|=LAST;
+		if(inOrder)field|=IN_ORDER;
+		return field;
+	}
+
+	/**
+	 * the message number contained in the given field
+	 */
+	public static long getNumber(long field){
+		return field & MAX_MESSAGE_NUMBER;
+	}
+
+	public static boolean isFirst(long field){
+		return (field & FIRST)!=0;
+	}
+
+	public static boolean isLast(long field){
+		return (field & LAST)!=0;
+	}
+
+	public static boolean isInOrder(long field){
+		return (field & IN_ORDER)!=0;
+	}
+
+	/**
+	 * the next message number, skipping zero which denotes stream data
+	 * @param messageNumber
+	 */
+	public static long increment(long messageNumber){
+		return messageNumber>=MAX_MESSAGE_NUMBER ? 1 : messageNumber+1;
+	}
+
+}
@@ -0,0 +1,148 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * a bounded, lock-free queue for many producers and a single consumer.<br/>
+ * 
+ * Each slot of the ring carries a sequence number, which tells producers whether 
+ * the slot is free for the current lap, and the consumer whether it has been filled. 
+ * Producers claim a slot by a CAS on the tail index; the consumer needs no atomic 
+ * read-modify-write operations at all. {@link #offer(Object)} never blocks: if the 
+ * queue is full, it returns <code>false</code>.
+ * 
+ * @param <E> - the element type
+ */
+public class MpscQueue<E> {
+
+	private final AtomicReferenceArray<E>buffer;
+
+	//slot i is free for the producer of index p if sequence[i]==p,
+	//and filled for the consumer of index c if sequence[i]==c+1
+	private final AtomicLongArray sequence;
+
+	private final int capacity;
+
+	private final int mask;
+
+	//next index to be claimed by a producer
+	private final AtomicLong tail=new AtomicLong(0);
+
+	//next index to be read by the consumer, only written by the consumer
+	private volatile long head=0;
+
+	/**
+	 * @param capacity - the capacity, rounded up to a power of two
+	 */
+	public MpscQueue(int capacity){
+		if(capacity<1)throw new IllegalArgumentException("Capacity must be positive");
+		int size=1;
+		while(size<capacity)size<<=1;
+		this.capacity=size;
+		this.mask=size-1;
+		buffer=new AtomicReferenceArray<E>(size);
+		sequence=new AtomicLongArray(size);
+		for(int i=0;i<size;i++){
+			sequence.set(i, i);
+		}
+	}
+
+	/**
+	 * add an element, may be called by any thread
+	 * @param e
+	 * @return <code>false</code> if the queue is full
+	 */
+	public boolean offer(E e){
+		if(e==null)throw new NullPointerException();
+		long pos=tail.get();
+		while(true){
+			int index=(int)(pos & mask);
+			long diff=sequence.get(index)-pos;
+			if(diff==0){
+				if(tail.compareAndSet(pos, pos+1)){
+					buffer.lazySet(index, e);
+					//publish the element to the consumer
+					sequence.set(index, pos+1);
+					return true;
+				}
+				pos=tail.get();
+			}
+			else if(diff<0){
+				//slot still holds the element of the previous lap
+				return false;
+			}
+			else{
+				//another producer claimed this slot
+				pos=tail.get();
+			}
+		}
+	}
+
+	/**
+	 * remove the head element, must only be called by the consumer thread
+	 * @return the head element or <code>null</code> if the queue is empty
+	 */
+	public E poll(){
+		long pos=head;
+		int index=(int)(pos & mask);
+		if(sequence.get(index)!=pos+1)return null;
+		E e=buffer.get(index);
+		buffer.lazySet(index, null);
+		//free the slot for the producers of the next lap
+		sequence.set(index, pos+capacity);
+		head=pos+1;
+		return e;
+	}
+
+	public boolean isEmpty(){
+		return sequence.get((int)(head & mask))!=head+1;
+	}
+
+	/**
+	 * the approximate number of elements
+	 */
+	public int size(){
+		long n=tail.get()-head;
+		return (int)Math.max(0, Math.min(n, capacity));
+	}
+
+	public int getCapacity(){
+		return capacity;
+	}
+
+}
@@ -0,0 +1,104 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ *
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ *
+ * DISCLAIMER
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * a bounded pool of equally sized byte arrays, used for the payload of received 
+ * data packets.<br/>
+ * 
+ * A payload buffer is owned by exactly one holder at a time: it is acquired when a 
+ * data packet is decoded, handed on to the receive buffer, and released by the
+ * input stream once the application has read all its data (or when the chunk is discarded).
+ * The pool retains at most <code>maxPooled</code> buffers, if it is empty
+ * a new buffer will be allocated.
+ */
+public class PayloadPool {
+
+	private final Queue<byte[]>pool=new ConcurrentLinkedQueue<byte[]>();
+
+	//number of buffers currently held by the pool
+	private final AtomicInteger pooled=new AtomicInteger(0);
+
+	private final int bufferSize;
+
+	private final int maxPooled;
+
+	/**
+	 * @param bufferSize - the length of the buffers
+	 * @param maxPooled - the maximum number of buffers retained by the pool
+	 */
+	public PayloadPool(int bufferSize, int maxPooled){
+		this.bufferSize=bufferSize;
+		this.maxPooled=maxPooled;
+	}
+
+	/**
+	 * get a buffer from the pool, allocating a new one if the pool is empty
+	 */
+	public byte[] acquire(){
+		byte[] b=pool.poll();
+		if(b!=null){
+			pooled.decrementAndGet();
+			return b;
+		}
+		return new byte[bufferSize];
+	}
+
+	/**
+	 * return a buffer to the pool. Buffers of the wrong size are discarded. 
+	 * The caller must not use the buffer afterwards.
+	 */
+	public void release(byte[] b){
+		if(b==null || b.length!=bufferSize)return;
+		if(pooled.incrementAndGet()>maxPooled){
+			pooled.decrementAndGet();
+			return;
+		}
+		pool.offer(b);
+	}
+
+	public int getBufferSize(){
+		return bufferSize;
+	}
+
+	/**
+	 * the number of buffers currently available in the pool
+	 */
+	public int size(){
+		return pooled.get();
+	}
+}
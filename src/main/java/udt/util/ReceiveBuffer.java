@@ -1,70 +1,95 @@
 package udt.util;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 import udt.UDTInputStream.AppData;
 
 /**
  * 
- * The receive buffer stores data chunks to be read by the application
+ * The receive buffer stores data chunks to be read by the application.<br/>
+ * 
+ * It is a lock-free ring indexed by sequence number, written by a single producer 
+ * (the receiver) and read by a single consumer (the application). A reader waiting 
+ * for data parks and is unparked by the producer.
  *
  * @author schuller
  */
 public class ReceiveBuffer {
 
-	private final AppData[]buffer;
-
-	//the head of the buffer: contains the next chunk to be read by the application, 
-	//i.e. the one with the lowest sequence number
-	private volatile int readPosition=0;
+	//chunks indexed by sequence number. The length is a power of two, so that
+	//consecutive sequence numbers map to distinct slots even when they wrap around
+	private final AtomicReferenceArray<AppData>buffer;
 
-	//the lowest sequence number stored in this buffer
-	private final long initialSequenceNumber;
+	private final int mask;
 
-	//the highest sequence number already read by the application
-	private long highestReadSequenceNumber;
+	//the highest sequence number already read by the application, 
+	//only written by the consumer
+	private volatile long highestReadSequenceNumber;
 
 	//number of chunks
 	private final AtomicInteger numValidChunks=new AtomicInteger(0);
 
-	//lock and condition for poll() with timeout
-	private final Condition notEmpty;
-	private final ReentrantLock lock;
+	//the consumer thread waiting in poll() with timeout, if any
+	private volatile Thread waiter;
 
 	//the size of the buffer
 	private final int size;
 
 	public ReceiveBuffer(int size, long initialSequenceNumber){
 		this.size=size;
-		this.buffer=new AppData[size];
-		this.initialSequenceNumber=initialSequenceNumber;
-		lock=new ReentrantLock(false);
-		notEmpty=lock.newCondition();
+		int length=1;
+		while(length<size)length<<=1;
+		this.buffer=new AtomicReferenceArray<AppData>(length);
+		this.mask=length-1;
 		highestReadSequenceNumber=SequenceNumber.decrement(initialSequenceNumber);
 	}
 
+	/**
+	 * store a data chunk. Duplicates are released and discarded.
+	 * @param data
+	 * @return <code>false</code> if the chunk could not be stored because the buffer is full
+	 */
 	public boolean offer(AppData data){
 		if(numValidChunks.get()==size) {
 			return false;
 		}
-		lock.lock();
-		try{
-			long seq=data.getSequenceNumber();
-			//if already have this chunk, discard it
-			if(SequenceNumber.compare(seq, highestReadSequenceNumber)<=0)return true;
-			//else compute insert position
-			int offset=(int)SequenceNumber.seqOffset(initialSequenceNumber, seq);
-			int insert=offset% size;
-			buffer[insert]=data;
-			numValidChunks.incrementAndGet();
-			notEmpty.signal();
+		long seq=data.getSequenceNumber();
+		long ahead=SequenceNumber.seqOffset(highestReadSequenceNumber, seq);
+		//if already have this chunk, discard it
+		if(ahead<=0){
+			data.release();
+			return true;
+		}
+		//too far ahead of the reader
+		if(ahead>size){
+			return false;
+		}
+		int insert=(int)(seq & mask);
+		AppData existing=buffer.get(insert);
+		if(existing!=null){
+			//duplicate of a chunk that has not been read yet
+			if(existing.getSequenceNumber()==seq){
+				data.release();
+				return true;
+			}
+			//the chunk of the previous round is just being read
+			return false;
+		}
+		//the reader updates highestReadSequenceNumber before clearing the slot, 
+		//so this detects a chunk that was read after the first check
+		if(SequenceNumber.compare(seq, highestReadSequenceNumber)<=0){
+			data.release();
 			return true;
-		}finally{
-			lock.unlock();
 		}
+		buffer.set(insert, data);
+		numValidChunks.incrementAndGet();
+		Thread w=waiter;
+		if(w!=null)LockSupport.unpark(w);
+		return true;
 	}
 
 	/**
@@ -80,26 +105,23 @@ public class ReceiveBuffer {
 	 * @throws InterruptedException if interrupted while waiting
 	 */
 	public AppData poll(int timeout, TimeUnit units)throws InterruptedException{
-		lock.lockInterruptibly();
-		long nanos = units.toNanos(timeout);
-
-		try {
-			for (;;) {
-				if (numValidChunks.get() != 0) {
-					return poll();
-				}
-				if (nanos <= 0)
-					return null;
-				try {
-					nanos = notEmpty.awaitNanos(nanos);
-				} catch (InterruptedException ie) {
-					notEmpty.signal(); // propagate to non-interrupted thread
-					throw ie;
-				}
-
+		long deadline=System.nanoTime()+units.toNanos(timeout);
+		for (;;) {
+			AppData r=poll();
+			if(r!=null)return r;
+			long nanos=deadline-System.nanoTime();
+			if (nanos <= 0)
+				return null;
+			waiter=Thread.currentThread();
+			try{
+				//re-check, the producer may have missed the waiter
+				r=poll();
+				if(r!=null)return r;
+				LockSupport.parkNanos(this, nanos);
+			}finally{
+				waiter=null;
 			}
-		} finally {
-			lock.unlock();
+			if(Thread.interrupted())throw new InterruptedException();
 		}
 	}
 
@@ -108,30 +130,91 @@ public class ReceiveBuffer {
 	 * return a data chunk, guaranteed to be in-order. 
 	 */
 	public AppData poll(){
-		if(numValidChunks.get()==0){
+		long previous=highestReadSequenceNumber;
+		long next=SequenceNumber.increment(previous);
+		int index=(int)(next & mask);
+		AppData r=buffer.get(index);
+		if(r==null || r.getSequenceNumber()!=next){
 			return null;
 		}
-		AppData r=buffer[readPosition];
-		if(r!=null){
-			long thisSeq=r.getSequenceNumber();
-			if(1==SequenceNumber.seqOffset(highestReadSequenceNumber,thisSeq)){
-				increment();
-				highestReadSequenceNumber=thisSeq;
-			}
-			else return null;
+		highestReadSequenceNumber=next;
+		if(!buffer.compareAndSet(index, r, null)){
+			//taken by remove()
+			highestReadSequenceNumber=previous;
+			return null;
 		}
+		numValidChunks.decrementAndGet();
 		return r;
 	}
 
-	public int getSize(){
-		return size;
+	/**
+	 * copies all contiguous in-order chunks that fit completely into the given buffer
+	 * in one pass, and releases them. Must only be called by the consumer.
+	 * 
+	 * @param target
+	 * @return the number of bytes copied
+	 */
+	public int drainTo(ByteBuffer target){
+		int copied=0;
+		long next=SequenceNumber.increment(highestReadSequenceNumber);
+		while(true){
+			int index=(int)(next & mask);
+			AppData r=buffer.get(index);
+			if(r==null || r.getSequenceNumber()!=next || r.getLength()>target.remaining()){
+				break;
+			}
+			long previous=highestReadSequenceNumber;
+			highestReadSequenceNumber=next;
+			if(!buffer.compareAndSet(index, r, null)){
+				//taken by remove()
+				highestReadSequenceNumber=previous;
+				break;
+			}
+			target.put(r.getData(), 0, r.getLength());
+			copied+=r.getLength();
+			numValidChunks.decrementAndGet();
+			r.release();
+			next=SequenceNumber.increment(next);
+		}
+		return copied;
 	}
 
-	void increment(){
-		buffer[readPosition]=null;
-		readPosition++;
-		if(readPosition==size)readPosition=0;
+	/**
+	 * removes the chunk with the given sequence number, if it is stored. 
+	 * May be called by the producer and the consumer concurrently, only one of 
+	 * them gets the chunk.
+	 * 
+	 * @param sequenceNumber
+	 * @return the chunk, or <code>null</code> if it is not stored
+	 */
+	public AppData remove(long sequenceNumber){
+		int index=(int)(sequenceNumber & mask);
+		AppData r=buffer.get(index);
+		if(r==null || r.getSequenceNumber()!=sequenceNumber || !buffer.compareAndSet(index, r, null)){
+			return null;
+		}
 		numValidChunks.decrementAndGet();
+		return r;
+	}
+
+	/**
+	 * skips the data up to (excluding) the given sequence number, which has been 
+	 * consumed by other means. Must only be called by the consumer.
+	 * @param sequenceNumber - the next sequence number to be read
+	 */
+	public void skipTo(long sequenceNumber){
+		highestReadSequenceNumber=SequenceNumber.decrement(sequenceNumber);
+	}
+
+	/**
+	 * the sequence number of the next chunk to be read
+	 */
+	public long getNextSequenceNumber(){
+		return SequenceNumber.increment(highestReadSequenceNumber);
+	}
+
+	public int getSize(){
+		return size;
 	}
 
 	public boolean isEmpty(){
@@ -33,11 +33,25 @@
 package udt.util;
 
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import udt.UDTClient;
 import udt.UDTInputStream;
@@ -54,6 +68,48 @@ import udt.UDTReceiver;
  */
 public class ReceiveFile extends Application{
 
+	/**
+	 * key for a system property: if set to true, the data packets are written directly 
+	 * into the memory mapped file, in the order they arrive (default: false). 
+	 * This requires a sender that sends the file in full packets, like {@link SendFile}
+	 */
+	public static final String MEM_MAPPED="udt.receivefile.memMapped";
+
+	/**
+	 * key for a system property: the number of UDT sessions used to receive the file 
+	 * in parallel (default: 1). With more than one session, the file is split into parts 
+	 * which are requested from the server separately, and written to their place in the file
+	 */
+	public static final String STREAMS="udt.receivefile.streams";
+
+	/**
+	 * key for a system property: if set to true, the file is transferred in checksummed 
+	 * chunks, and the completed chunks are recorded in a state file next to the local file. 
+	 * An interrupted transfer is resumed by running it again, which transfers only the 
+	 * missing or corrupt chunks (default: false)
+	 */
+	public static final String RESUMABLE="udt.receivefile.resumable";
+
+	/**
+	 * key for a system property: the chunk size of resumable transfers (default: 4 MB)
+	 */
+	public static final String CHUNK_SIZE="udt.receivefile.chunkSize";
+
+	/**
+	 * key for a system property: if set to true, the server is asked to send the file 
+	 * data compressed (default: false). Only used for a transfer over a single session
+	 */
+	public static final String COMPRESSED="udt.receivefile.compressed";
+
+	/**
+	 * key for a system property: if set to true, the remote file is a directory, which is 
+	 * received with all files below it into the local directory (default: false)
+	 */
+	public static final String DIRECTORY="udt.receivefile.directory";
+
+	//rounds of re-requesting chunks that failed verification
+	private static final int MAX_ROUNDS=5;
+
 	private final int serverPort;
 	private final String serverHost;
 	private final String remoteFile;
@@ -75,6 +131,19 @@ public class ReceiveFile extends Application{
 		try{
 			UDTReceiver.connectionExpiryDisabled=true;
 			InetAddress myHost=localIP!=null?InetAddress.getByName(localIP):InetAddress.getLocalHost();
+			if(Boolean.getBoolean(DIRECTORY)){
+				receiveDirectory(myHost);
+				return;
+			}
+			if(Boolean.getBoolean(RESUMABLE)){
+				receiveResumable(myHost);
+				return;
+			}
+			int streams=Integer.getInteger(STREAMS, 1);
+			if(streams>1){
+				receiveParallel(myHost, streams);
+				return;
+			}
 			UDTClient client=localPort!=-1?new UDTClient(myHost,localPort):new UDTClient(myHost);
 			client.connect(serverHost, serverPort);
 			UDTInputStream in=client.getInputStream();
@@ -83,9 +152,11 @@ public class ReceiveFile extends Application{
 			System.out.println("[ReceiveFile] Requesting file "+remoteFile);
 			byte[]fName=remoteFile.getBytes();
 			
+			boolean compressed=Boolean.getBoolean(COMPRESSED);
+			
 			//send file name info
 			byte[]nameinfo=new byte[fName.length+4];
-			System.arraycopy(encode(fName.length), 0, nameinfo, 0, 4);
+			System.arraycopy(encode(compressed ? fName.length | SendFile.COMPRESSED : fName.length), 0, nameinfo, 0, 4);
 			System.arraycopy(fName, 0, nameinfo, 4, fName.length);
 			
 			out.write(nameinfo);
@@ -102,7 +173,7 @@ public class ReceiveFile extends Application{
 				if(r<0)break;
 				total+=r;
 			}
-			long size=decode(sizeInfo, 0);
+			long size=decode64(sizeInfo, 0);
 			
 			Boolean devNull=Boolean.getBoolean("udt.dev.null");
 			if(devNull){
@@ -111,13 +182,17 @@ public class ReceiveFile extends Application{
 			
 			File file=new File(new String(localFile));
 			System.out.println("[ReceiveFile] Write to local file <"+file.getAbsolutePath()+">");
+			if(Boolean.getBoolean(MEM_MAPPED) && !compressed){
+				receiveMapped(client, file, size);
+				return;
+			}
 			FileOutputStream fos=new FileOutputStream(file);
 			OutputStream os=new BufferedOutputStream(fos,1024*1024);
 			try{
 				System.out.println("[ReceiveFile] Reading <"+size+"> bytes.");
 				long start = System.currentTimeMillis();
 			    //and read the file data
-				Util.copy(in, os, size, false);
+				Util.copy(compressed ? new CompressedInputStream(in) : in, os, size, false);
 				long end = System.currentTimeMillis();
 				double rate=1000.0*size/1024/1024/(end-start);
 				System.out.println("[ReceiveFile] Rate: "+format.format(rate)+" MBytes/sec. "
@@ -136,6 +211,245 @@ public class ReceiveFile extends Application{
 	}
 	
 	
+	//writes the packets directly into the mapped file
+	private void receiveMapped(UDTClient client, File file, long size)throws Exception{
+		RandomAccessFile raf=new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(size);
+			System.out.println("[ReceiveFile] Reading <"+size+"> bytes into mapped file.");
+			long start = System.currentTimeMillis();
+			client.getInputStream().receiveFile(raf.getChannel(), 0, size);
+			long end = System.currentTimeMillis();
+			double rate=1000.0*size/1024/1024/(end-start);
+			System.out.println("[ReceiveFile] Rate: "+format.format(rate)+" MBytes/sec. "
+					+format.format(8*rate)+" MBit/sec.");
+			client.shutdown();
+			if(verbose)System.out.println(client.getStatistics());
+		}finally{
+			raf.close();
+		}
+	}
+
+	//receives a directory tree over one session
+	private void receiveDirectory(InetAddress myHost)throws Exception{
+		UDTClient client=localPort!=-1?new UDTClient(myHost,localPort):new UDTClient(myHost);
+		client.connect(serverHost, serverPort);
+		UDTOutputStream out=client.getOutputStream();
+		byte[]fName=remoteFile.getBytes();
+		byte[]request=new byte[fName.length+4];
+		System.arraycopy(encode(fName.length | SendFile.DIRECTORY), 0, request, 0, 4);
+		System.arraycopy(fName, 0, request, 4, fName.length);
+		out.write(request);
+		out.flush();
+		out.pauseOutput();
+
+		File dir=new File(localFile);
+		System.out.println("[ReceiveFile] Write to local directory <"+dir.getAbsolutePath()+">");
+		long start = System.currentTimeMillis();
+		int files=DirectoryTransfer.receive(client.getInputStream(), dir);
+		long end = System.currentTimeMillis();
+		System.out.println("[ReceiveFile] Received "+files+" files in "+(end-start)+" ms.");
+		client.shutdown();
+	}
+
+	//transfers the chunks that are missing according to the state file
+	private void receiveResumable(InetAddress myHost)throws Exception{
+		UDTClient client=localPort!=-1?new UDTClient(myHost,localPort):new UDTClient(myHost);
+		client.connect(serverHost, serverPort);
+		DataInputStream in=new DataInputStream(client.getInputStream());
+		UDTOutputStream out=client.getOutputStream();
+
+		int chunkSize=Integer.getInteger(CHUNK_SIZE, 4*1024*1024);
+		byte[]fName=remoteFile.getBytes();
+		byte[]request=new byte[fName.length+8];
+		System.arraycopy(encode(fName.length | SendFile.CHUNK_REQUEST), 0, request, 0, 4);
+		System.arraycopy(fName, 0, request, 4, fName.length);
+		System.arraycopy(encode(chunkSize), 0, request, fName.length+4, 4);
+		out.write(request);
+		out.flush();
+
+		byte[]info=new byte[16];
+		in.readFully(info);
+		long size=decode64(info, 0);
+		long lastModified=decode64(info, 8);
+
+		File file=new File(localFile);
+		File stateFile=new File(localFile+TransferState.SUFFIX);
+		RandomAccessFile raf=new RandomAccessFile(file, "rw");
+		TransferState state=TransferState.open(stateFile, size, lastModified, chunkSize);
+		try{
+			if(raf.length()!=size)raf.setLength(size);
+			FileChannel fc=raf.getChannel();
+			int corrupt=state.verify(fc);
+			int complete=state.getNumberOfCompleteChunks();
+			System.out.println("[ReceiveFile] Write to local file <"+file.getAbsolutePath()+">, "
+					+complete+" of "+state.getNumberOfChunks()+" chunks already complete"
+					+(corrupt>0?", "+corrupt+" corrupt chunks":""));
+			long start = System.currentTimeMillis();
+			long received=0;
+			byte[]header=new byte[8];
+			byte[]buf=new byte[chunkSize];
+			for(int round=0;;round++){
+				List<int[]>runs=state.getMissingRuns();
+				byte[]list=new byte[4+8*runs.size()];
+				System.arraycopy(encode(runs.size()), 0, list, 0, 4);
+				for(int i=0;i<runs.size();i++){
+					System.arraycopy(encode(runs.get(i)[0]), 0, list, 4+8*i, 4);
+					System.arraycopy(encode(runs.get(i)[1]), 0, list, 8+8*i, 4);
+				}
+				out.write(list);
+				out.flush();
+				if(runs.isEmpty())break;
+				if(round==MAX_ROUNDS)throw new IOException("Chunks still corrupt after "+MAX_ROUNDS+" attempts");
+				for(int[]run: runs){
+					for(int i=0;i<run[1];i++){
+						in.readFully(header);
+						int chunk=(int)decode(header, 0);
+						int checksum=(int)decode(header, 4);
+						if(chunk<0 || chunk>=state.getNumberOfChunks()){
+							throw new IOException("Invalid chunk index "+chunk);
+						}
+						int length=state.getChunkLength(chunk);
+						in.readFully(buf, 0, length);
+						received+=length;
+						if(TransferState.checksum(buf, 0, length)!=checksum){
+							//will be requested again
+							System.out.println("[ReceiveFile] Checksum error in chunk "+chunk);
+							continue;
+						}
+						ByteBuffer bb=ByteBuffer.wrap(buf, 0, length);
+						long position=state.getChunkOffset(chunk);
+						while(bb.hasRemaining()){
+							position+=fc.write(bb, position);
+						}
+						state.setComplete(chunk, checksum);
+					}
+				}
+			}
+			long end = System.currentTimeMillis();
+			double rate=1000.0*received/1024/1024/(end-start);
+			System.out.println("[ReceiveFile] Received "+received+" bytes. Rate: "+format.format(rate)+" MBytes/sec. "
+					+format.format(8*rate)+" MBit/sec.");
+			client.shutdown();
+			raf.close();
+			state.delete();
+		}finally{
+			raf.close();
+			state.close();
+		}
+	}
+
+	//requests the parts of the file over separate sessions, and waits for all of them
+	private void receiveParallel(InetAddress myHost, int streams)throws Exception{
+		File file=new File(localFile);
+		System.out.println("[ReceiveFile] Write to local file <"+file.getAbsolutePath()+"> using "+streams+" sessions");
+		RandomAccessFile raf=new RandomAccessFile(file, "rw");
+		ExecutorService executor=UDTThreadFactory.get().newHandlerExecutor(streams);
+		try{
+			long start = System.currentTimeMillis();
+			CompletionService<Long>completion=new ExecutorCompletionService<Long>(executor);
+			List<Future<Long>>parts=new ArrayList<Future<Long>>();
+			for(int i=0;i<streams;i++){
+				parts.add(completion.submit(new PartReceiver(myHost, i, streams, raf)));
+			}
+			long size=0;
+			try{
+				//in order of completion, so that a failed part stops the others at once
+				for(int i=0;i<streams;i++){
+					size+=completion.take().get();
+				}
+			}catch(ExecutionException ee){
+				for(Future<Long>part: parts){
+					part.cancel(true);
+				}
+				throw ee;
+			}
+			long end = System.currentTimeMillis();
+			double rate=1000.0*size/1024/1024/(end-start);
+			System.out.println("[ReceiveFile] Rate: "+format.format(rate)+" MBytes/sec. "
+					+format.format(8*rate)+" MBit/sec.");
+		}finally{
+			executor.shutdownNow();
+			raf.close();
+		}
+	}
+
+	/**
+	 * receives one part of the file over its own session
+	 */
+	private class PartReceiver implements Callable<Long>{
+
+		private final InetAddress myHost;
+		private final int index;
+		private final int parts;
+		private final RandomAccessFile raf;
+
+		PartReceiver(InetAddress myHost, int index, int parts, RandomAccessFile raf){
+			this.myHost=myHost;
+			this.index=index;
+			this.parts=parts;
+			this.raf=raf;
+		}
+
+		public Long call()throws Exception{
+			UDTClient client=new UDTClient(myHost);
+			try{
+				return receivePart(client);
+			}finally{
+				client.shutdown();
+			}
+		}
+
+		private long receivePart(UDTClient client)throws Exception{
+			client.connect(serverHost, serverPort);
+			UDTInputStream in=client.getInputStream();
+			UDTOutputStream out=client.getOutputStream();
+
+			//request the part: file name with flagged length, part index and number of parts
+			byte[]fName=remoteFile.getBytes();
+			byte[]request=new byte[fName.length+12];
+			System.arraycopy(encode(fName.length | SendFile.RANGE_REQUEST), 0, request, 0, 4);
+			System.arraycopy(fName, 0, request, 4, fName.length);
+			System.arraycopy(encode(index), 0, request, fName.length+4, 4);
+			System.arraycopy(encode(parts), 0, request, fName.length+8, 4);
+			out.write(request);
+			out.flush();
+			out.pauseOutput();
+
+			//read file size, offset and length of the part
+			ByteBuffer info=ByteBuffer.allocate(24);
+			while(info.hasRemaining()){
+				if(in.read(info)<0)throw new EOFException("Connection closed by server");
+			}
+			long size=decode64(info.array(), 0);
+			long offset=decode64(info.array(), 8);
+			long length=decode64(info.array(), 16);
+			if(verbose)System.out.println("[ReceiveFile] Part "+(index+1)+" of "+parts+": "+length+" bytes at offset "+offset);
+			synchronized(raf){
+				if(raf.length()!=size)raf.setLength(size);
+			}
+			FileChannel fc=raf.getChannel();
+			if(Boolean.getBoolean(MEM_MAPPED)){
+				in.receiveFile(fc, offset, length);
+			}
+			else{
+				//positional writes, so the parts do not interfere
+				ByteBuffer bb=ByteBuffer.allocate(1024*1024);
+				long received=0;
+				while(received<length){
+					bb.clear();
+					bb.limit((int)Math.min(bb.capacity(), length-received));
+					if(in.read(bb)<0)throw new EOFException("Connection closed after "+received+" of "+length+" bytes");
+					bb.flip();
+					while(bb.hasRemaining()){
+						received+=fc.write(bb, offset+received);
+					}
+				}
+			}
+			return length;
+		}
+	}
+
 	public static void main(String[] fullArgs) throws Exception{
 		int serverPort=65321;
 		String serverHost="localhost";
@@ -32,18 +32,20 @@
 
 package udt.util;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.InetAddress;
+import java.net.ProtocolException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
 import java.text.NumberFormat;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 import udt.UDTInputStream;
@@ -62,10 +64,53 @@ import udt.UDTSocket;
  */
 public class SendFile extends Application{
 
+	/**
+	 * key for a system property: if set to true, files are sent from a memory mapping 
+	 * without copying the data (default: false)
+	 */
+	public static final String MEM_MAPPED="udt.sendfile.memMapped";
+
+	/**
+	 * key for a system property: the number of requests handled concurrently (default: 8)
+	 */
+	public static final String POOL_SIZE="udt.sendfile.poolSize";
+
+	/**
+	 * flag in the name length of a request for a part of a file. Such a request 
+	 * is followed by the index of the part and the number of parts (4 bytes each), 
+	 * and answered by the file size, the offset and the length of the part (8 bytes each)
+	 */
+	static final long RANGE_REQUEST=0x80000000L;
+
+	/**
+	 * flag in the name length of a request for a chunked, resumable transfer. The name is 
+	 * followed by the chunk size (4 bytes), and the server answers with the file size and 
+	 * modification time (8 bytes each). Then the client repeatedly sends a list of runs of 
+	 * chunks it needs (the number of runs, then first chunk and number of chunks for each run, 
+	 * 4 bytes each), and the server sends each of these chunks, preceded by its index and 
+	 * its checksum (4 bytes each). An empty list ends the transfer.<br/>
+	 * See {@link TransferState}
+	 */
+	static final long CHUNK_REQUEST=0x40000000L;
+
+	//largest chunk size accepted in a chunked transfer request
+	static final int MAX_CHUNK_SIZE=64*1024*1024;
+
+	/**
+	 * flag in the name length of a request: the file data is sent through a 
+	 * {@link CompressedOutputStream}
+	 */
+	static final long COMPRESSED=0x20000000L;
+
+	/**
+	 * flag in the name length of a request for a directory tree, which is 
+	 * sent as described in {@link DirectoryTransfer}
+	 */
+	static final long DIRECTORY=0x10000000L;
+
 	private final int serverPort;
 
-	//TODO configure pool size
-	private final ExecutorService threadPool=Executors.newFixedThreadPool(3);
+	private final ExecutorService threadPool=UDTThreadFactory.get().newHandlerExecutor(Integer.getInteger(POOL_SIZE, 8));
 
 	public SendFile(int serverPort){
 		this.serverPort=serverPort;
@@ -85,7 +130,6 @@ public class SendFile extends Application{
 			UDTServerSocket server=new UDTServerSocket(myHost,serverPort);
 			while(true){
 				UDTSocket socket=server.accept();
-				Thread.sleep(1000);
 				threadPool.execute(new RequestRunner(socket));
 			}
 		}catch(Exception ex){
@@ -130,7 +174,7 @@ public class SendFile extends Application{
 		public RequestRunner(UDTSocket socket){
 			this.socket=socket;
 			format.setMaximumFractionDigits(3);
-			memMapped=false;//true;
+			memMapped=Boolean.getBoolean(MEM_MAPPED);
 		}
 
 		public void run(){
@@ -155,7 +199,12 @@ public class SendFile extends Application{
 					}
 					System.out.println("[SendFile] name length data: "+sb.toString());
 				}
-				long length=decode(len, 0);
+				long length=decode(len, 0) & 0xFFFFFFFFL;
+				boolean rangeRequest=(length & RANGE_REQUEST)!=0;
+				boolean chunkRequest=(length & CHUNK_REQUEST)!=0;
+				boolean compressed=(length & COMPRESSED)!=0;
+				boolean directory=(length & DIRECTORY)!=0;
+				length&=~(RANGE_REQUEST | CHUNK_REQUEST | COMPRESSED | DIRECTORY);
 				if(verbose)System.out.println("[SendFile] name length     : "+length);
 				byte[]fileName=new byte[(int)length];
 				bb.get(fileName);
@@ -163,26 +212,85 @@ public class SendFile extends Application{
 				File file=new File(new String(fileName));
 				System.out.println("[SendFile] File requested: '"+file.getPath()+"'");
 
+				if(directory){
+					try{
+						long start=System.currentTimeMillis();
+						long size=DirectoryTransfer.send(file, out);
+						out.flush();
+						long end=System.currentTimeMillis();
+						double rate=1000.0*size/1024/1024/(end-start);
+						System.out.println("[SendFile] Sent directory, "+size+" bytes. Rate: "+format.format(rate)+" MBytes/sec.");
+					}finally{
+						socket.getSender().stop();
+					}
+					return;
+				}
+
 				FileInputStream fis=null;
 				try{
 					long size=file.length();
 					System.out.println("[SendFile] File size: "+size);
-					//send size info
-					out.write(encode64(size));
+					if(chunkRequest){
+						byte[]chunkSize=new byte[4];
+						bb.get(chunkSize);
+						try{
+							sendChunks(file, (int)decode(chunkSize, 0), in, out);
+						}catch(ProtocolException pe){
+							logger.warning("Closing session after invalid request from "+
+									socket.getSession().getDestination()+": "+pe.getMessage());
+							socket.close();
+						}
+						return;
+					}
+					long offset=0;
+					long count=size;
+					if(rangeRequest){
+						//send the requested part only
+						byte[]part=new byte[8];
+						bb.get(part);
+						int index=(int)decode(part, 0);
+						int parts=(int)decode(part, 4);
+						if(parts<1 || index<0 || index>=parts){
+							throw new IllegalArgumentException("Invalid part "+index+" of "+parts);
+						}
+						offset=size*index/parts;
+						count=size*(index+1)/parts-offset;
+						System.out.println("[SendFile] Part "+(index+1)+" of "+parts+": "+count+" bytes at offset "+offset);
+						byte[]info=new byte[24];
+						System.arraycopy(encode64(size), 0, info, 0, 8);
+						System.arraycopy(encode64(offset), 0, info, 8, 8);
+						System.arraycopy(encode64(count), 0, info, 16, 8);
+						out.write(info);
+					}
+					else{
+						//send size info
+						out.write(encode64(size));
+					}
 					out.flush();
 					
 					long start=System.currentTimeMillis();
 					//and send the file
-					if(memMapped){
-						copyFile(file,out);
+					if(compressed){
+						fis=new FileInputStream(file);
+						fis.getChannel().position(offset);
+						CompressedOutputStream cos=new CompressedOutputStream(out);
+						try{
+							Util.copy(fis, cos, count, false);
+						}finally{
+							cos.finish();
+						}
+						System.out.println("[SendFile] Compressed "+cos.getBytesIn()+" to "+cos.getBytesOut()+" bytes.");
+					}else if(memMapped){
+						copyFile(file, offset, count, socket);
 					}else{
 						fis=new FileInputStream(file);
-						Util.copy(fis, out, size, false);
+						fis.getChannel().position(offset);
+						copyAligned(fis, out, count, socket.getSession().getChunkSize());
 					}
 					System.out.println("[SendFile] Finished sending data.");
 					long end=System.currentTimeMillis();
 					System.out.println(socket.getSession().getStatistics().toString());
-					double rate=1000.0*size/1024/1024/(end-start);
+					double rate=1000.0*count/1024/1024/(end-start);
 					System.out.println("[SendFile] Rate: "+format.format(rate)+" MBytes/sec. "+format.format(8*rate)+" MBit/sec.");
 					if(Boolean.getBoolean("udt.sender.storeStatistics")){
 						socket.getSession().getStatistics().writeParameterHistory(new File("udtstats-"+System.currentTimeMillis()+".csv"));
@@ -200,19 +308,88 @@ public class SendFile extends Application{
 	}
 
 
-	private static void copyFile(File file, OutputStream os)throws Exception{
-		FileChannel c=new RandomAccessFile(file,"r").getChannel();
-		MappedByteBuffer b=c.map(MapMode.READ_ONLY, 0, file.length());
-		b.load();
-		byte[]buf=new byte[1024*1024];
-		int len=0;
-		while(true){
-			len=Math.min(buf.length, b.remaining());
-			b.get(buf, 0, len);
-			os.write(buf, 0, len);
-			if(b.remaining()==0)break;
+	//serves a chunked transfer (see CHUNK_REQUEST) until the client has all chunks. 
+	//Throws a ProtocolException if the client requests an invalid chunk size or chunk
+	private static void sendChunks(File file, int chunkSize, InputStream in, OutputStream out)throws IOException{
+		if(chunkSize<=0 || chunkSize>MAX_CHUNK_SIZE)throw new ProtocolException("Invalid chunk size "+chunkSize);
+		long size=file.length();
+		long numberOfChunks=(size+chunkSize-1)/chunkSize;
+		byte[]info=new byte[16];
+		System.arraycopy(encode64(size), 0, info, 0, 8);
+		System.arraycopy(encode64(file.lastModified()), 0, info, 8, 8);
+		out.write(info);
+		out.flush();
+		DataInputStream request=new DataInputStream(in);
+		RandomAccessFile raf=new RandomAccessFile(file, "r");
+		try{
+			//chunk index and checksum, followed by the data
+			byte[]buf=new byte[8+chunkSize];
+			byte[]b=new byte[8];
+			int sent=0;
+			while(true){
+				request.readFully(b, 0, 4);
+				int runs=(int)decode(b, 0);
+				if(runs==0)break;
+				if(runs<0 || runs>numberOfChunks)throw new ProtocolException("Invalid number of runs "+runs);
+				int[]firsts=new int[runs];
+				int[]counts=new int[runs];
+				for(int r=0;r<runs;r++){
+					request.readFully(b);
+					firsts[r]=(int)decode(b, 0);
+					counts[r]=(int)decode(b, 4);
+					if(firsts[r]<0 || counts[r]<0 || counts[r]>numberOfChunks-firsts[r]){
+						throw new ProtocolException("Invalid run of "+counts[r]+" chunks from "+firsts[r]);
+					}
+				}
+				for(int r=0;r<runs;r++){
+					for(long chunk=firsts[r];chunk<(long)firsts[r]+counts[r];chunk++){
+						long offset=chunk*chunkSize;
+						int length=(int)Math.min(chunkSize, size-offset);
+						raf.seek(offset);
+						raf.readFully(buf, 8, length);
+						System.arraycopy(encode(chunk), 0, buf, 0, 4);
+						System.arraycopy(encode(TransferState.checksum(buf, 8, length)), 0, buf, 4, 4);
+						out.write(buf, 0, 8+length);
+						sent++;
+					}
+				}
+				out.flush();
+			}
+			System.out.println("[SendFile] Sent "+sent+" chunks of "+chunkSize+" bytes.");
+		}finally{
+			raf.close();
+		}
+	}
+
+	//sends the file in writes of whole packets, so that only the last packet is shorter 
+	//than the chunk size, and the receiver can place the packets by their sequence number
+	private static void copyAligned(InputStream in, OutputStream out, long size, int chunkSize)throws IOException{
+		byte[]buf=new byte[256*chunkSize];
+		long remaining=size;
+		while(remaining>0){
+			int len=(int)Math.min(buf.length, remaining);
+			int n=0;
+			while(n<len){
+				int r=in.read(buf, n, len-n);
+				if(r<0)throw new EOFException("Unexpected end of file");
+				n+=r;
+			}
+			out.write(buf, 0, n);
+			remaining-=n;
+		}
+		out.flush();
+	}
+
+	//sends the file from a memory mapping, without copying it
+	private static void copyFile(File file, long offset, long count, UDTSocket socket)throws Exception{
+		RandomAccessFile raf=new RandomAccessFile(file,"r");
+		try{
+			FileChannel c=raf.getChannel();
+			socket.getChannel().transferFrom(c, offset, count);
+			socket.getOutputStream().flush();
+		}finally{
+			raf.close();
 		}
-		os.flush();
 	}	
 
 
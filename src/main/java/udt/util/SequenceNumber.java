@@ -13,6 +13,11 @@ public class SequenceNumber {
 
 	private final static long maxSequenceNo=0x7FFFFFFF;
 
+	/**
+	 * the largest sequence number, after which sequence numbers wrap around to zero
+	 */
+	public final static long MAX_SEQUENCE_NUMBER=maxSequenceNo;
+
 
 	/**
 	 * compare seq1 and seq2. Returns zero, if they are equal, a negative value if seq1 is smaller than
@@ -55,6 +60,15 @@ public class SequenceNumber {
 		return (seq == maxSequenceNo) ? 0 : seq + 1;
 	}
 
+	/**
+	 * add a non-negative offset
+	 * @param seq
+	 * @param offset
+	 */
+	public static long add(long seq, long offset){
+		return (seq + offset) % (maxSequenceNo + 1);
+	}
+
 	/**
 	 * decrement by one
 	 * @param seq
@@ -0,0 +1,253 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+package udt.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * a hashed timer wheel for running many short timer tasks (such as the ACK, NAK
+ * and EXP timers of UDT sessions) from a single thread.<br/>
+ * 
+ * Time is divided into ticks, and timeouts are hashed into the slot of the wheel 
+ * corresponding to their deadline tick. On each tick the worker thread runs the
+ * due timeouts of the current slot, so scheduling and expiry are O(1) regardless 
+ * of the number of pending timeouts. Timeouts are accurate to one tick.<br/>
+ * 
+ * Tasks run in the timer thread and must not block. Periodic tasks simply reschedule 
+ * themselves.
+ */
+public class TimerWheel {
+
+	private static final Logger logger=Logger.getLogger(TimerWheel.class.getName());
+
+	/**
+	 * default tick duration (microseconds)
+	 */
+	public static final long DEFAULT_TICK_DURATION=1000;
+
+	/**
+	 * default number of slots
+	 */
+	public static final int DEFAULT_WHEEL_SIZE=512;
+
+	//tick duration in nanoseconds
+	private final long tickDuration;
+
+	private final Timeout[]wheel;
+
+	private final int mask;
+
+	//newly scheduled timeouts, moved into the wheel by the worker thread
+	private final ConcurrentLinkedQueue<Timeout>pending=new ConcurrentLinkedQueue<Timeout>();
+
+	private final long startTime;
+
+	private volatile boolean stopped=false;
+
+	private final Thread worker;
+
+	//current tick, only accessed by the worker thread
+	private long tick=0;
+
+	public TimerWheel(String name){
+		this(name, DEFAULT_TICK_DURATION, DEFAULT_WHEEL_SIZE);
+	}
+
+	/**
+	 * create and start a timer wheel
+	 * @param name - used for naming the worker thread
+	 * @param tickDuration - tick duration in microseconds
+	 * @param wheelSize - the number of slots (rounded up to a power of two)
+	 */
+	public TimerWheel(String name, long tickDuration, int wheelSize){
+		if(tickDuration<=0)throw new IllegalArgumentException("Tick duration must be positive");
+		int size=1;
+		while(size<wheelSize)size<<=1;
+		this.wheel=new Timeout[size];
+		this.mask=size-1;
+		this.tickDuration=tickDuration*1000;
+		this.startTime=System.nanoTime();
+		worker=UDTThreadFactory.get().newPlatformThread(new Runnable(){
+			public void run(){
+				work();
+			}
+		});
+		worker.setName(name+"-"+worker.getName());
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * schedule a task for execution after the given delay
+	 * 
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return a handle for cancelling the task
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit){
+		if(stopped)throw new IllegalStateException("Timer wheel is stopped");
+		Timeout t=new Timeout(task, System.nanoTime()-startTime+unit.toNanos(Math.max(0, delay)));
+		pending.add(t);
+		return t;
+	}
+
+	/**
+	 * stop the timer thread. Pending timeouts are discarded.
+	 */
+	public void stop(){
+		stopped=true;
+		LockSupport.unpark(worker);
+	}
+
+	public boolean isStopped(){
+		return stopped;
+	}
+
+	/**
+	 * the number of timeouts scheduled but not yet expired (or cancelled)
+	 */
+	public int size(){
+		int n=pending.size();
+		synchronized(wheel){
+			for(Timeout head: wheel){
+				for(Timeout t=head;t!=null;t=t.next){
+					if(!t.cancelled)n++;
+				}
+			}
+		}
+		return n;
+	}
+
+	private void work(){
+		while(!stopped){
+			long deadline=startTime+tickDuration*(tick+1);
+			long wait;
+			while((wait=deadline-System.nanoTime())>0 && !stopped){
+				LockSupport.parkNanos(this, wait);
+			}
+			if(stopped)break;
+			synchronized(wheel){
+				transferPending();
+				expire((int)(tick & mask));
+			}
+			tick++;
+		}
+	}
+
+	//move newly scheduled timeouts into their slots
+	private void transferPending(){
+		Timeout t;
+		while((t=pending.poll())!=null){
+			if(t.cancelled)continue;
+			long deadlineTick=t.deadline/tickDuration;
+			t.remainingRounds=(deadlineTick-tick)/wheel.length;
+			//timeouts that are already due go into the current slot
+			int slot=(int)(Math.max(deadlineTick, tick) & mask);
+			t.next=wheel[slot];
+			wheel[slot]=t;
+		}
+	}
+
+	//run the due timeouts of the given slot
+	private void expire(int slot){
+		Timeout previous=null;
+		Timeout t=wheel[slot];
+		while(t!=null){
+			Timeout next=t.next;
+			boolean remove=t.cancelled;
+			if(!remove && t.remainingRounds<=0){
+				remove=true;
+				try{
+					t.task.run();
+				}catch(Throwable ex){
+					logger.log(Level.WARNING,"Error running timer task",ex);
+				}
+			}
+			else if(!remove){
+				t.remainingRounds--;
+			}
+			if(remove){
+				if(previous==null)wheel[slot]=next;
+				else previous.next=next;
+				t.next=null;
+			}
+			else{
+				previous=t;
+			}
+			t=next;
+		}
+	}
+
+	public String toString(){
+		return "TimerWheel "+worker.getName()+" tick="+(tickDuration/1000)+"us slots="+wheel.length;
+	}
+
+	/**
+	 * handle for a scheduled task
+	 */
+	public static class Timeout{
+
+		private final Runnable task;
+
+		//deadline in nanoseconds relative to the wheel's start time
+		private final long deadline;
+
+		private long remainingRounds;
+
+		private volatile boolean cancelled=false;
+
+		//next timeout in the same slot
+		private Timeout next;
+
+		Timeout(Runnable task, long deadline){
+			this.task=task;
+			this.deadline=deadline;
+		}
+
+		/**
+		 * cancel the task. Has no effect if the task has already run.
+		 */
+		public void cancel(){
+			cancelled=true;
+		}
+
+		public boolean isCancelled(){
+			return cancelled;
+		}
+	}
+}
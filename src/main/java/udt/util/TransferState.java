@@ -0,0 +1,255 @@
+/*********************************************************************************
+ * Copyright (c) 2010 Forschungszentrum Juelich GmbH 
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * (1) Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the disclaimer at the end. Redistributions in
+ * binary form must reproduce the above copyright notice, this list of
+ * conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution.
+ * 
+ * (2) Neither the name of Forschungszentrum Juelich GmbH nor the names of its 
+ * contributors may be used to endorse or promote products derived from this 
+ * software without specific prior written permission.
+ * 
+ * DISCLAIMER
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+
+
+package udt.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * persistent state of a resumable file transfer.<br/>
+ * 
+ * The file is divided into chunks of a fixed size. For each chunk that has been received 
+ * and verified, the state file records its checksum. When a transfer is resumed, the 
+ * chunks recorded as complete are verified against the data on disk, and only the missing 
+ * or corrupt chunks need to be transferred again.<br/>
+ * 
+ * The state file starts with the size and modification time of the source file and the chunk 
+ * size, so a state belonging to a different version of the file is discarded. Then follows 
+ * one record per chunk, which is updated in place.
+ */
+public class TransferState {
+
+	/**
+	 * the suffix appended to the name of the received file to get the name of the state file
+	 */
+	public static final String SUFFIX=".udtstate";
+
+	//size, last modified, chunk size and number of chunks
+	private static final int HEADER_SIZE=24;
+
+	//completion flag and checksum
+	private static final int RECORD_SIZE=8;
+
+	private final File stateFile;
+
+	private final RandomAccessFile raf;
+
+	private final long size;
+
+	private final int chunkSize;
+
+	private final int numberOfChunks;
+
+	private final BitSet complete;
+
+	private final int[]checksums;
+
+	private TransferState(File stateFile, RandomAccessFile raf, long size, int chunkSize){
+		this.stateFile=stateFile;
+		this.raf=raf;
+		this.size=size;
+		this.chunkSize=chunkSize;
+		long chunks=(size+chunkSize-1)/chunkSize;
+		if(chunks>Integer.MAX_VALUE/RECORD_SIZE){
+			throw new IllegalArgumentException("Too many chunks: "+chunks);
+		}
+		this.numberOfChunks=(int)chunks;
+		this.complete=new BitSet(numberOfChunks);
+		this.checksums=new int[numberOfChunks];
+	}
+
+	/**
+	 * opens the state of a transfer, creating a new state if the state file does not exist 
+	 * or belongs to a different file
+	 * 
+	 * @param stateFile
+	 * @param size - the size of the file
+	 * @param lastModified - the modification time of the source file
+	 * @param chunkSize
+	 */
+	public static TransferState open(File stateFile, long size, long lastModified, int chunkSize)throws IOException{
+		RandomAccessFile raf=new RandomAccessFile(stateFile, "rw");
+		TransferState state=new TransferState(stateFile, raf, size, chunkSize);
+		if(!state.load(lastModified)){
+			raf.setLength(0);
+			raf.writeLong(size);
+			raf.writeLong(lastModified);
+			raf.writeInt(chunkSize);
+			raf.writeInt(state.numberOfChunks);
+			raf.setLength(HEADER_SIZE+(long)RECORD_SIZE*state.numberOfChunks);
+		}
+		return state;
+	}
+
+	//reads an existing state, returns false if there is none for this file
+	private boolean load(long lastModified)throws IOException{
+		if(raf.length()!=HEADER_SIZE+(long)RECORD_SIZE*numberOfChunks)return false;
+		raf.seek(0);
+		if(raf.readLong()!=size || raf.readLong()!=lastModified
+				|| raf.readInt()!=chunkSize || raf.readInt()!=numberOfChunks){
+			return false;
+		}
+		byte[]records=new byte[RECORD_SIZE*numberOfChunks];
+		raf.readFully(records);
+		ByteBuffer bb=ByteBuffer.wrap(records);
+		for(int i=0;i<numberOfChunks;i++){
+			boolean done=bb.getInt()!=0;
+			int checksum=bb.getInt();
+			if(done){
+				complete.set(i);
+				checksums[i]=checksum;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * checks the chunks recorded as complete against the data, and marks those 
+	 * that do not match as missing
+	 * @param data - the received file
+	 * @return the number of corrupt chunks
+	 */
+	public int verify(FileChannel data)throws IOException{
+		int corrupt=0;
+		ByteBuffer buf=ByteBuffer.allocate(chunkSize);
+		for(int i=complete.nextSetBit(0);i>=0;i=complete.nextSetBit(i+1)){
+			buf.clear();
+			buf.limit(getChunkLength(i));
+			long position=getChunkOffset(i);
+			while(buf.hasRemaining()){
+				if(data.read(buf, position+buf.position())<0)break;
+			}
+			if(buf.hasRemaining() || checksum(buf.array(), 0, buf.limit())!=checksums[i]){
+				setMissing(i);
+				corrupt++;
+			}
+		}
+		return corrupt;
+	}
+
+	/**
+	 * record that a chunk has been received and written
+	 * @param chunk
+	 * @param checksum
+	 */
+	public synchronized void setComplete(int chunk, int checksum)throws IOException{
+		complete.set(chunk);
+		checksums[chunk]=checksum;
+		writeRecord(chunk, 1, checksum);
+	}
+
+	private synchronized void setMissing(int chunk)throws IOException{
+		complete.clear(chunk);
+		writeRecord(chunk, 0, 0);
+	}
+
+	private void writeRecord(int chunk, int flag, int checksum)throws IOException{
+		raf.seek(HEADER_SIZE+(long)RECORD_SIZE*chunk);
+		raf.writeInt(flag);
+		raf.writeInt(checksum);
+	}
+
+	public synchronized boolean isComplete(int chunk){
+		return complete.get(chunk);
+	}
+
+	public synchronized int getNumberOfCompleteChunks(){
+		return complete.cardinality();
+	}
+
+	public int getNumberOfChunks(){
+		return numberOfChunks;
+	}
+
+	/**
+	 * the missing chunks as runs of consecutive chunks
+	 * @return list of {first chunk, number of chunks}
+	 */
+	public synchronized List<int[]> getMissingRuns(){
+		List<int[]>runs=new ArrayList<int[]>();
+		int start=complete.nextClearBit(0);
+		while(start<numberOfChunks){
+			int end=complete.nextSetBit(start);
+			if(end<0 || end>numberOfChunks)end=numberOfChunks;
+			runs.add(new int[]{start, end-start});
+			start=complete.nextClearBit(end);
+		}
+		return runs;
+	}
+
+	public long getChunkOffset(int chunk){
+		return (long)chunk*chunkSize;
+	}
+
+	public int getChunkLength(int chunk){
+		return (int)Math.min(chunkSize, size-getChunkOffset(chunk));
+	}
+
+	public int getChunkSize(){
+		return chunkSize;
+	}
+
+	public long getSize(){
+		return size;
+	}
+
+	public void close()throws IOException{
+		raf.close();
+	}
+
+	/**
+	 * closes and deletes the state file, after the transfer is complete
+	 */
+	public void delete()throws IOException{
+		raf.close();
+		stateFile.delete();
+	}
+
+	/**
+	 * the checksum of a chunk (CRC32)
+	 */
+	public static int checksum(byte[]data, int offset, int length){
+		CRC32 crc=new CRC32();
+		crc.update(data, offset, length);
+		return (int)crc.getValue();
+	}
+
+}
@@ -56,6 +56,8 @@ public class UDTStatistics {
 	private final AtomicInteger numberOfACKReceived=new AtomicInteger(0);
 	private final AtomicInteger numberOfCCSlowDownEvents=new AtomicInteger(0);
 	private final AtomicInteger numberOfCCWindowExceededEvents=new AtomicInteger(0);
+	private final AtomicInteger numberOfDroppedPackets=new AtomicInteger(0);
+	private final AtomicInteger numberOfMessageDropRequests=new AtomicInteger(0);
 
 	private final String componentDescription;
 
@@ -65,6 +67,8 @@ public class UDTStatistics {
 	private volatile long estimatedLinkCapacity;
 	private volatile double sendPeriod;
 	private volatile long congestionWindowSize;
+	private volatile long senderCpuTime;
+	private volatile long senderBytes;
 
 	private final List<MeanValue>metrics=new ArrayList<MeanValue>();
 		
@@ -134,6 +138,28 @@ public class UDTStatistics {
 		numberOfCCSlowDownEvents.incrementAndGet();
 	}
 
+	/**
+	 * counts a received packet that was dropped because the receiver's queue was full
+	 */
+	public void incNumberOfDroppedPackets() {
+		numberOfDroppedPackets.incrementAndGet();
+	}
+
+	public int getNumberOfDroppedPackets() {
+		return numberOfDroppedPackets.get();
+	}
+
+	/**
+	 * counts a message drop request sent for a message whose time-to-live expired
+	 */
+	public void incNumberOfMessageDropRequests() {
+		numberOfMessageDropRequests.incrementAndGet();
+	}
+
+	public int getNumberOfMessageDropRequests() {
+		return numberOfMessageDropRequests.get();
+	}
+
 	public void setRTT(long rtt, long rttVar){
 		this.roundTripTime=rtt;
 		this.roundTripTimeVariance=rttVar;
@@ -164,6 +190,26 @@ public class UDTStatistics {
 		return packetArrivalRate;
 	}
 
+	/**
+	 * set the CPU time used by the sender thread
+	 * @param cpuTime - CPU time in nanoseconds
+	 * @param sentBytes - the number of payload bytes sent in that time
+	 */
+	public void setSenderCpuTime(long cpuTime, long sentBytes){
+		this.senderCpuTime=cpuTime;
+		this.senderBytes=sentBytes;
+	}
+
+	/**
+	 * the CPU time (in milliseconds) the sender thread needs per gigabit of sent data, 
+	 * or <code>-1</code> if not known
+	 */
+	public double getSenderCpuTimePerGbit(){
+		long bytes=senderBytes;
+		if(bytes==0)return -1;
+		return (senderCpuTime/1000000.0)/(bytes*8/1e9);
+	}
+
 	/**
 	 * add a metric
 	 * @param m - the metric to add
@@ -206,6 +252,15 @@ public class UDTStatistics {
 		if(numberOfCCWindowExceededEvents.get()>0){
 			sb.append("CC window slowdown events: ").append(numberOfCCWindowExceededEvents.get()).append("\n");
 		}
+		if(numberOfDroppedPackets.get()>0){
+			sb.append("Dropped packets (receiver queue full): ").append(numberOfDroppedPackets.get()).append("\n");
+		}
+		if(numberOfMessageDropRequests.get()>0){
+			sb.append("Message drop requests sent: ").append(numberOfMessageDropRequests.get()).append("\n");
+		}
+		if(senderBytes>0){
+			sb.append("Sender CPU per Gbit: ").append((int)getSenderCpuTimePerGbit()).append(" ms\n");
+		}
 		sb.append("CC parameter SND:  ").append((int)sendPeriod).append("\n");
 		sb.append("CC parameter CWND: ").append(congestionWindowSize).append("\n");
 		for(MeanValue v: metrics){
@@ -32,24 +32,106 @@
 
 package udt.util;
 
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * creates the threads used by UDT.<br/>
+ * 
+ * If the {@link #VIRTUAL_THREADS} system property is set to true and the Java runtime 
+ * supports virtual threads (Java 21 or later), the session receiver and sender threads 
+ * and the application handlers are created as virtual threads. The blocking calls of 
+ * these threads (reading, accepting, waiting for ACKs) use {@link java.util.concurrent.locks.ReentrantLock}s 
+ * and parking, so a waiting virtual thread releases its carrier thread, and thousands of 
+ * mostly idle connections need only a few OS threads. Threads that drive timers, event 
+ * loops or the endpoint's socket are always platform threads.
+ */
 public class UDTThreadFactory implements ThreadFactory {
 
+	private static final Logger logger=Logger.getLogger(UDTThreadFactory.class.getName());
+
+	/**
+	 * key for a system property enabling virtual threads (default: false)
+	 */
+	public static final String VIRTUAL_THREADS="udt.threads.virtual";
+
 	private static final AtomicInteger num=new AtomicInteger(0);
 	
 	private static UDTThreadFactory theInstance=null;
 	
 	public static synchronized UDTThreadFactory get(){
-		if(theInstance==null)theInstance=new UDTThreadFactory();
+		if(theInstance==null)theInstance=new UDTThreadFactory(Boolean.getBoolean(VIRTUAL_THREADS));
 		return theInstance;
 	}
-	
+
+	//Thread.Builder.OfVirtual and its unstarted(Runnable) method, null if not using virtual threads
+	private final Object virtualBuilder;
+	private final Method unstarted;
+
+	UDTThreadFactory(boolean virtual){
+		Object builder=null;
+		Method m=null;
+		if(virtual){
+			try{
+				//accessed by reflection, as long as UDT is built for older Java versions
+				builder=Thread.class.getMethod("ofVirtual").invoke(null);
+				m=Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+			}catch(Exception ex){
+				logger.log(Level.WARNING, "Virtual threads are not supported by this Java runtime, using platform threads.");
+				builder=null;
+				m=null;
+			}
+		}
+		virtualBuilder=builder;
+		unstarted=m;
+	}
+
+	/**
+	 * creates a thread for a session or an application handler, 
+	 * which is a virtual thread if enabled
+	 */
 	public Thread newThread(Runnable r) {
+		if(virtualBuilder!=null){
+			try{
+				Thread t=(Thread)unstarted.invoke(virtualBuilder, r);
+				t.setName("UDT-VirtualThread-"+num.incrementAndGet());
+				return t;
+			}catch(Exception ex){
+				logger.log(Level.WARNING, "Could not create virtual thread", ex);
+			}
+		}
+		return newPlatformThread(r);
+	}
+
+	/**
+	 * creates a platform thread, e.g. for running timers or event loops
+	 */
+	public Thread newPlatformThread(Runnable r) {
 		Thread t=new Thread(r);
 		t.setName("UDT-Thread-"+num.incrementAndGet());
 		return t;
 	}
 
+	/**
+	 * whether {@link #newThread(Runnable)} creates virtual threads
+	 */
+	public boolean isVirtual(){
+		return virtualBuilder!=null;
+	}
+
+	/**
+	 * creates an executor for application handlers: if virtual threads are enabled,
+	 * each task runs in its own virtual thread, otherwise a fixed pool of the given size is used
+	 * @param poolSize - the number of platform threads
+	 */
+	public ExecutorService newHandlerExecutor(int poolSize){
+		if(isVirtual())return Executors.newCachedThreadPool(this);
+		return Executors.newFixedThreadPool(poolSize, this);
+	}
+
 }
@@ -16,6 +16,7 @@ import udt.receiver.PacketHistoryWindow;
 import udt.receiver.PacketPairWindow;
 import udt.sender.SenderLossList;
 import udt.util.CircularArray;
+import udt.util.SequenceNumber;
 
 /*
  * tests for the various list and queue classes
@@ -100,6 +101,106 @@ public class TestList {
 		assertEquals(B,oldest);
 	}
 
+	@Test
+	public void testSenderLossListRanges(){
+		SenderLossList l=new SenderLossList();
+		l.insert(10, 19);
+		l.insert(30, 39);
+		l.insert(1, 2);
+		assertEquals(22,l.size());
+		assertEquals(3,l.getNumberOfRanges());
+		//merge overlapping and adjacent ranges
+		l.insert(15, 29);
+		assertEquals(2,l.getNumberOfRanges());
+		assertEquals(32,l.size());
+		l.insert(3, 9);
+		assertEquals(1,l.getNumberOfRanges());
+		assertEquals(39,l.size());
+		//split a range
+		l.remove(20l);
+		assertEquals(2,l.getNumberOfRanges());
+		assertEquals(38,l.size());
+		//remove up to an ACK
+		l.removeUpTo(25);
+		assertEquals(15,l.size());
+		assertEquals(25,l.pollFirst());
+		assertEquals(26,l.pollFirst());
+		l.removeUpTo(1000);
+		assertTrue(l.isEmpty());
+		assertEquals(-1,l.pollFirst());
+	}
+
+	@Test
+	public void testSenderLossListManyRanges(){
+		SenderLossList l=new SenderLossList();
+		//insert every other sequence number in reverse order
+		for(int i=1000;i>=0;i-=2){
+			l.insert(i, i);
+		}
+		assertEquals(501,l.getNumberOfRanges());
+		//fill the gaps
+		for(int i=1;i<1000;i+=2){
+			l.insert(Long.valueOf(i));
+		}
+		assertEquals(1,l.getNumberOfRanges());
+		assertEquals(1001,l.size());
+		for(int i=0;i<=1000;i++){
+			assertEquals(i,l.pollFirst());
+		}
+		assertTrue(l.isEmpty());
+	}
+
+	@Test
+	public void testSenderLossListWrap(){
+		long max=SequenceNumber.MAX_SEQUENCE_NUMBER;
+		SenderLossList l=new SenderLossList();
+		l.insert(max-9, max-5);
+		//losses after the wrap, inserted as two ranges and as a single wrapped one
+		l.insert(max-2, max);
+		l.insert(0, 3);
+		l.insert(max-4, 5);
+		assertEquals(1,l.getNumberOfRanges());
+		assertEquals(16,l.size());
+		//an ACK just before the wrap keeps the losses after it
+		l.removeUpTo(max-1);
+		assertEquals(8,l.size());
+		assertEquals(max-1,l.pollFirst());
+		l.remove(2l);
+		assertEquals(2,l.getNumberOfRanges());
+		l.removeUpTo(1);
+		assertEquals(4,l.size());
+		assertEquals(1,l.pollFirst());
+		assertEquals(3,l.pollFirst());
+		l.removeUpTo(5);
+		assertEquals(5,l.pollFirst());
+		assertTrue(l.isEmpty());
+	}
+
+	@Test
+	public void testSenderLossListRemoveRange(){
+		long max=SequenceNumber.MAX_SEQUENCE_NUMBER;
+		SenderLossList l=new SenderLossList();
+		l.insert(10, 19);
+		l.insert(30, 39);
+		l.insert(50, 59);
+		//split a run
+		l.remove(12, 14);
+		assertEquals(4,l.getNumberOfRanges());
+		assertEquals(27,l.size());
+		//cut across several runs
+		l.remove(17, 52);
+		assertEquals(3,l.getNumberOfRanges());
+		assertEquals(11,l.size());
+		assertEquals("[10-11, 15-16, 53-59]",l.toString());
+		l.remove(0, 100);
+		assertTrue(l.isEmpty());
+		//a range wrapping around
+		l.insert(max-5, 5);
+		l.remove(max-1, 1);
+		assertEquals(8,l.size());
+		assertEquals("["+(max-5)+"-"+(max-2)+", 2-5]",l.toString());
+	}
+
 	public void testReceiverInputQueue(){
 		BlockingQueue<UDTPacket> q=new PriorityBlockingQueue<UDTPacket>(5);
 		UDTPacket control = new KeepAlive();
@@ -0,0 +1,140 @@
+package udt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+public class TestNioUDPEndPoint extends UDTTestBase{
+
+	@Test
+	public void testBindToAnyPort()throws Exception{
+		NioUDPEndPoint ep=new NioUDPEndPoint(InetAddress.getByName("localhost"));
+		assertTrue(ep.getLocalPort()>0);
+		ep.stop();
+	}
+
+	@Test(timeout=60000)
+	public void testClientServerMode()throws Exception{
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		InetAddress localhost=InetAddress.getByName("localhost");
+		doClientServer(new NioUDPEndPoint(localhost));
+	}
+
+	@Test(timeout=60000)
+	public void testShardedDispatch()throws Exception{
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		InetAddress localhost=InetAddress.getByName("localhost");
+		NioUDPEndPoint server=new NioUDPEndPoint(localhost);
+		server.setDispatchThreads(2);
+		doClientServer(server);
+		assertEquals(0, server.getNumberOfDroppedPackets());
+	}
+
+	@Test(timeout=60000)
+	public void testEventLoop()throws Exception{
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		InetAddress localhost=InetAddress.getByName("localhost");
+		NioUDPEndPoint server=new NioUDPEndPoint(localhost);
+		server.setEventLoopThreads(2);
+		NioUDPEndPoint client=new NioUDPEndPoint(localhost);
+		client.setEventLoopThreads(1);
+		doClientServer(server, client);
+		assertNotNull(server.getEventLoop(0));
+	}
+
+	@Test(timeout=60000)
+	public void testReusePort()throws Exception{
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		InetAddress localhost=InetAddress.getByName("localhost");
+		final UDTServerSocket server=new UDTServerSocket(localhost,0,3);
+		UDPEndPoint[]endpoints=server.getEndpoints();
+		assertEquals(3, endpoints.length);
+		int port=endpoints[0].getLocalPort();
+		for(UDPEndPoint e: endpoints){
+			assertEquals(port, e.getLocalPort());
+		}
+		final int numClients=4;
+		final List<UDTSocket>accepted=new ArrayList<UDTSocket>();
+		Thread acceptor=new Thread(new Runnable(){
+			public void run(){
+				try{
+					for(int i=0;i<numClients;i++){
+						accepted.add(server.accept());
+					}
+				}catch(InterruptedException ie){}
+			}
+		});
+		acceptor.start();
+		List<UDTClient>clients=new ArrayList<UDTClient>();
+		for(int i=0;i<numClients;i++){
+			UDTClient client=new UDTClient(localhost);
+			client.connect("localhost", port);
+			clients.add(client);
+		}
+		acceptor.join();
+		assertEquals(numClients, accepted.size());
+		int sessions=0;
+		for(UDPEndPoint e: endpoints){
+			sessions+=e.getSessions().size();
+		}
+		assertEquals(numClients, sessions);
+		for(UDTClient c: clients){
+			c.shutdown();
+		}
+		server.shutDown();
+	}
+
+	private void doClientServer(final UDPEndPoint server)throws Exception{
+		doClientServer(server, new NioUDPEndPoint(InetAddress.getByName("localhost")));
+	}
+
+	private void doClientServer(final UDPEndPoint server, UDPEndPoint clientEndpoint)throws Exception{
+		server.start(true);
+		final UDTSession[]accepted=new UDTSession[1];
+		Thread acceptor=new Thread(new Runnable(){
+			public void run(){
+				try{
+					accepted[0]=server.accept(10000, TimeUnit.MILLISECONDS);
+				}catch(InterruptedException ie){}
+			}
+		});
+		acceptor.start();
+		UDTClient client=new UDTClient(clientEndpoint);
+		client.connect("localhost", server.getLocalPort());
+		acceptor.join();
+		UDTSession session=accepted[0];
+		assertNotNull(session);
+		while(session.getSocket()==null)Thread.sleep(10);
+
+		int N=100*1024;
+		byte[]data=getRandomData(N);
+		String md5_sent=computeMD5(data);
+		client.sendBlocking(data);
+
+		InputStream is=session.getSocket().getInputStream();
+		byte[]received=new byte[N];
+		int total=0;
+		while(total<N){
+			int c=is.read(received,total,N-total);
+			if(c<0)break;
+			total+=c;
+		}
+		assertEquals(N,total);
+		assertEquals(md5_sent,computeMD5(received));
+		//the payload buffers of the data read by the application were recycled
+		assertTrue(server.getPayloadPool().size()>0);
+		client.shutdown();
+		server.stop();
+	}
+
+}
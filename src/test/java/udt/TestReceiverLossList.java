@@ -1,11 +1,14 @@
 package udt;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
 import udt.receiver.ReceiverLossList;
 import udt.receiver.ReceiverLossListEntry;
+import udt.util.SequenceNumber;
 
 public class TestReceiverLossList {
 
@@ -20,5 +23,74 @@ public class TestReceiverLossList {
 		l.insert(e3);
 		assertEquals(1,l.getFirstEntry().getSequenceNumber());
 	}
+
+	@Test
+	public void testRanges(){
+		ReceiverLossList l=new ReceiverLossList(64);
+		l.insert(10, 5009);
+		assertEquals(5000,l.size());
+		assertEquals(10,l.getFirstSequenceNumber());
+		//duplicates are ignored
+		l.insert(20, 30);
+		assertEquals(5000,l.size());
+		l.remove(10);
+		l.remove(11);
+		l.remove(100);
+		assertEquals(4997,l.size());
+		assertEquals(12,l.getFirstSequenceNumber());
+		assertTrue(l.contains(99));
+		assertFalse(l.contains(100));
+		assertFalse(l.contains(5010));
+
+		//all entries are due when RTT is zero
+		long[]ranges=l.getFilteredLossRanges(0, true);
+		assertEquals(4,ranges.length);
+		assertEquals(12,ranges[0]);
+		assertEquals(99,ranges[1]);
+		assertEquals(101,ranges[2]);
+		assertEquals(5009,ranges[3]);
+		assertEquals(3,l.getFirstEntry().getK());
+		//none are due with a large RTT
+		assertEquals(0,l.getFilteredLossRanges(1000000, false).length);
+
+		for(long s=12;s<=5009;s++)l.remove(s);
+		assertTrue(l.isEmpty());
+		assertEquals(-1,l.getFirstSequenceNumber());
+	}
+
+	@Test
+	public void testSequenceNumberWrap(){
+		ReceiverLossList l=new ReceiverLossList();
+		long max=SequenceNumber.MAX_SEQUENCE_NUMBER;
+		l.insert(max-1, 1);
+		assertEquals(4,l.size());
+		assertEquals(max-1,l.getFirstSequenceNumber());
+		long[]ranges=l.getFilteredLossRanges(0, false);
+		assertEquals(4,ranges.length);
+		assertEquals(max-1,ranges[0]);
+		assertEquals(max,ranges[1]);
+		assertEquals(0,ranges[2]);
+		assertEquals(1,ranges[3]);
+		l.remove(max-1);
+		l.remove(max);
+		assertEquals(0,l.getFirstSequenceNumber());
+	}
 	
+	@Test
+	public void testMaxSpan(){
+		ReceiverLossList l=new ReceiverLossList(64, 1000);
+		assertTrue(l.canInsert(10, 20));
+		l.insert(10, 20);
+		assertTrue(l.canInsert(30, 1009));
+		assertFalse(l.canInsert(30, 1010));
+		//far beyond the sequence number range that can be compared
+		assertFalse(l.canInsert(30, 1<<30));
+		//across the wrap of the sequence numbers
+		long max=SequenceNumber.MAX_SEQUENCE_NUMBER;
+		l=new ReceiverLossList(64, 1000);
+		l.insert(max-9, max);
+		assertTrue(l.canInsert(0, 989));
+		assertFalse(l.canInsert(0, 990));
+	}
+
 }
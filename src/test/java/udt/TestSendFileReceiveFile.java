@@ -1,26 +1,27 @@
 package udt;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 
 import org.junit.Test;
 
 import udt.util.ReceiveFile;
 import udt.util.SendFile;
+import udt.util.TransferState;
 import udt.util.UDTThreadFactory;
 
 public class TestSendFileReceiveFile extends UDTTestBase{
 
-	volatile boolean serverStarted=false;
+	static volatile boolean serverStarted=false;
 	
 	@Test
 	public void test1()throws Exception{
-		runServer();
-		do{
-			Thread.sleep(500);
-		}while(!serverStarted);
+		startServer();
 		
 		File f=new File("src/test/java/datafile");
 		//File f=new File("/tmp/100MB");
@@ -35,6 +36,151 @@ public class TestSendFileReceiveFile extends UDTTestBase{
 		assertEquals(md5_sent, md5_received);
 	}
 	
+	@Test
+	public void testParallel()throws Exception{
+		startServer();
+		File f=File.createTempFile("udtest-", null);
+		f.deleteOnExit();
+		FileOutputStream fos=new FileOutputStream(f);
+		fos.write(getRandomData(5*1024*1024+17));
+		fos.close();
+		File tmp=File.createTempFile("udtest-", null);
+		tmp.deleteOnExit();
+		
+		String[] args=new String[]{"localhost","65321",f.getAbsolutePath(),tmp.getAbsolutePath()};
+		System.setProperty(ReceiveFile.STREAMS, "3");
+		try{
+			ReceiveFile.main(args);
+		}finally{
+			System.clearProperty(ReceiveFile.STREAMS);
+		}
+		String md5_sent=readAll(new FileInputStream(f),4096);
+		String md5_received=readAll(new FileInputStream(tmp),4096);
+		assertEquals(md5_sent, md5_received);
+	}
+	
+	@Test
+	public void testCompressed()throws Exception{
+		startServer();
+		File f=File.createTempFile("udtest-", null);
+		f.deleteOnExit();
+		FileOutputStream fos=new FileOutputStream(f);
+		for(int i=0;i<100000;i++){
+			fos.write((i+";some text;"+(i%13)+"\n").getBytes());
+		}
+		fos.close();
+		File tmp=File.createTempFile("udtest-", null);
+		tmp.deleteOnExit();
+		
+		String[] args=new String[]{"localhost","65321",f.getAbsolutePath(),tmp.getAbsolutePath()};
+		System.setProperty(ReceiveFile.COMPRESSED, "true");
+		try{
+			ReceiveFile.main(args);
+		}finally{
+			System.clearProperty(ReceiveFile.COMPRESSED);
+		}
+		String md5_sent=readAll(new FileInputStream(f),4096);
+		String md5_received=readAll(new FileInputStream(tmp),4096);
+		assertEquals(md5_sent, md5_received);
+	}
+	
+	@Test
+	public void testDirectory()throws Exception{
+		startServer();
+		File dir=File.createTempFile("udtest-", null);
+		dir.delete();
+		File tmp=File.createTempFile("udtest-", null);
+		tmp.delete();
+		try{
+			new File(dir, "sub").mkdirs();
+			byte[][]contents=new byte[100][];
+			for(int i=0;i<contents.length;i++){
+				contents[i]=getRandomData(i*37);
+				FileOutputStream fos=new FileOutputStream(new File(dir, (i%2==0?"sub/":"")+"f"+i));
+				fos.write(contents[i]);
+				fos.close();
+			}
+
+			String[] args=new String[]{"localhost","65321",dir.getAbsolutePath(),tmp.getAbsolutePath()};
+			System.setProperty(ReceiveFile.DIRECTORY, "true");
+			try{
+				ReceiveFile.main(args);
+			}finally{
+				System.clearProperty(ReceiveFile.DIRECTORY);
+			}
+			for(int i=0;i<contents.length;i++){
+				FileInputStream fis=new FileInputStream(new File(tmp, (i%2==0?"sub/":"")+"f"+i));
+				try{
+					assertEquals(computeMD5(contents[i]), readAll(fis,4096));
+				}finally{
+					fis.close();
+				}
+			}
+		}finally{
+			delete(dir);
+			delete(tmp);
+		}
+	}
+	
+	@Test
+	public void testResume()throws Exception{
+		startServer();
+		File f=File.createTempFile("udtest-", null);
+		f.deleteOnExit();
+		int chunkSize=65536;
+		byte[]data=getRandomData(16*chunkSize-100);
+		FileOutputStream fos=new FileOutputStream(f);
+		fos.write(data);
+		fos.close();
+		File tmp=File.createTempFile("udtest-", null);
+		tmp.deleteOnExit();
+		
+		//an interrupted transfer: the last chunks are missing, one chunk got corrupted
+		RandomAccessFile raf=new RandomAccessFile(tmp, "rw");
+		raf.write(data, 0, 12*chunkSize);
+		raf.seek(2*chunkSize+10);
+		raf.write(~data[2*chunkSize+10]);
+		raf.close();
+		File stateFile=new File(tmp.getAbsolutePath()+TransferState.SUFFIX);
+		TransferState state=TransferState.open(stateFile, data.length, f.lastModified(), chunkSize);
+		for(int i=0;i<12;i++){
+			state.setComplete(i, TransferState.checksum(data, i*chunkSize, chunkSize));
+		}
+		state.close();
+		
+		String[] args=new String[]{"localhost","65321",f.getAbsolutePath(),tmp.getAbsolutePath()};
+		System.setProperty(ReceiveFile.RESUMABLE, "true");
+		System.setProperty(ReceiveFile.CHUNK_SIZE, String.valueOf(chunkSize));
+		try{
+			ReceiveFile.main(args);
+		}finally{
+			System.clearProperty(ReceiveFile.RESUMABLE);
+			System.clearProperty(ReceiveFile.CHUNK_SIZE);
+		}
+		assertEquals(computeMD5(data), readAll(new FileInputStream(tmp),4096));
+		assertFalse(stateFile.exists());
+	}
+	
+	//deletes a file or directory tree
+	private void delete(File f){
+		File[]entries=f.listFiles();
+		if(entries!=null){
+			for(File e: entries){
+				delete(e);
+			}
+		}
+		f.delete();
+	}
+	
+	//the server keeps running, so it is started once for all tests
+	private void startServer()throws InterruptedException{
+		if(serverStarted)return;
+		runServer();
+		do{
+			Thread.sleep(500);
+		}while(!serverStarted);
+	}
+	
 	private void runServer(){
 		Runnable r=new Runnable(){
 			public void run(){
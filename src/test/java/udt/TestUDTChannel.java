@@ -0,0 +1,137 @@
+package udt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+
+public class TestUDTChannel extends UDTTestBase{
+
+	@Test(timeout=60000)
+	public void testScatterGatherAndTransferFrom()throws Exception{
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		InetAddress localhost=InetAddress.getByName("localhost");
+		final UDPEndPoint server=new NioUDPEndPoint(localhost);
+		server.start(true);
+		final UDTSession[]accepted=new UDTSession[1];
+		Thread acceptor=new Thread(new Runnable(){
+			public void run(){
+				try{
+					accepted[0]=server.accept(10000, TimeUnit.MILLISECONDS);
+				}catch(InterruptedException ie){}
+			}
+		});
+		acceptor.start();
+		UDTClient client=new UDTClient(new NioUDPEndPoint(localhost));
+		client.connect("localhost", server.getLocalPort());
+		acceptor.join();
+		UDTSession session=accepted[0];
+		assertNotNull(session);
+		while(session.getSocket()==null)Thread.sleep(10);
+
+		int N=1024*1024;
+		byte[]data=getRandomData(N);
+		String md5_sent=computeMD5(data);
+		//gathering write from direct buffers
+		ByteBuffer[]srcs=new ByteBuffer[3];
+		int[]sizes=new int[]{1000, 300000, N-301000};
+		int pos=0;
+		for(int i=0;i<3;i++){
+			srcs[i]=ByteBuffer.allocateDirect(sizes[i]);
+			srcs[i].put(data, pos, sizes[i]);
+			srcs[i].flip();
+			pos+=sizes[i];
+		}
+		UDTChannel out=client.getChannel();
+		assertEquals(N, out.write(srcs));
+		client.flush();
+
+		UDTChannel in=session.getSocket().getChannel();
+		//scattering read of the first bytes into direct buffers
+		ByteBuffer[]dsts=new ByteBuffer[]{ByteBuffer.allocateDirect(100),ByteBuffer.allocateDirect(5000)};
+		long head=0;
+		while(dsts[1].hasRemaining()){
+			long c=in.read(dsts);
+			assertTrue(c>=0);
+			head+=c;
+		}
+		assertEquals(5100, head);
+		//the rest goes straight to a file
+		File f=File.createTempFile("udt-channel", ".dat");
+		f.deleteOnExit();
+		RandomAccessFile raf=new RandomAccessFile(f, "rw");
+		FileChannel fc=raf.getChannel();
+		for(ByteBuffer b: dsts){
+			b.flip();
+			fc.write(b);
+		}
+		long total=head;
+		while(total<N){
+			total+=fc.transferFrom(in, total, N-total);
+		}
+		assertEquals(N, total);
+		byte[]received=new byte[N];
+		raf.seek(0);
+		raf.readFully(received);
+		raf.close();
+		assertEquals(md5_sent, computeMD5(received));
+		client.shutdown();
+		server.stop();
+	}
+
+	@Test(timeout=60000)
+	public void testTransferFromMappedFile()throws Exception{
+		Logger.getLogger("udt").setLevel(Level.WARNING);
+		InetAddress localhost=InetAddress.getByName("localhost");
+		final UDPEndPoint server=new NioUDPEndPoint(localhost);
+		server.start(true);
+		final UDTSession[]accepted=new UDTSession[1];
+		Thread acceptor=new Thread(new Runnable(){
+			public void run(){
+				try{
+					accepted[0]=server.accept(10000, TimeUnit.MILLISECONDS);
+				}catch(InterruptedException ie){}
+			}
+		});
+		acceptor.start();
+		UDTClient client=new UDTClient(new NioUDPEndPoint(localhost));
+		client.connect("localhost", server.getLocalPort());
+		acceptor.join();
+		UDTSession session=accepted[0];
+		assertNotNull(session);
+		while(session.getSocket()==null)Thread.sleep(10);
+
+		int N=3*1024*1024+1234;
+		byte[]data=getRandomData(N);
+		File f=File.createTempFile("udt-mapped", ".dat");
+		f.deleteOnExit();
+		RandomAccessFile raf=new RandomAccessFile(f, "rw");
+		raf.write(data);
+		//send everything but the first 1000 bytes, straight from the mapping
+		assertEquals(N-1000, client.getChannel().transferFrom(raf.getChannel(), 1000, N));
+		client.flush();
+		raf.close();
+
+		byte[]received=new byte[N-1000];
+		ByteBuffer bb=ByteBuffer.wrap(received);
+		UDTChannel in=session.getSocket().getChannel();
+		while(bb.hasRemaining()){
+			assertTrue(in.read(bb)>=0);
+		}
+		byte[]expected=new byte[N-1000];
+		System.arraycopy(data, 1000, expected, 0, expected.length);
+		assertEquals(computeMD5(expected), computeMD5(received));
+		client.shutdown();
+		server.stop();
+	}
+}
@@ -1,5 +1,8 @@
 package udt;
 
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
@@ -10,8 +13,10 @@ import junit.framework.Assert;
 
 import org.junit.Test;
 
+import udt.util.MessageNumber;
 import udt.util.Util;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class TestUDTInputStream extends UDTTestBase{
@@ -86,6 +91,103 @@ public class TestUDTInputStream extends UDTTestBase{
 	}
 	
 	
+	@Test
+	public void testReadByteBuffer()throws Exception{
+		UDTInputStream is=new UDTInputStream(null);
+		is.setBlocking(false);
+		byte[]data=getRandomData(100*1000);
+		byte[][]blocks=makeChunks(100,data);
+		for(int i=0;i<blocks.length;i++){
+			is.haveNewData(i+1, blocks[i]);
+		}
+		is.noMoreData();
+		//target size is not a multiple of the chunk size
+		ByteBuffer target=ByteBuffer.allocate(2500);
+		ByteBuffer all=ByteBuffer.allocate(data.length);
+		int c;
+		while((c=is.read(target))>=0){
+			assertEquals(c, target.position());
+			target.flip();
+			all.put(target);
+			target.clear();
+		}
+		assertEquals(computeMD5(data), computeMD5(all.array()));
+	}
+
+	@Test(timeout=20000)
+	public void testReceiveFile()throws Exception{
+		final UDTInputStream is=new UDTInputStream(null);
+		is.haveNewData(1, "header".getBytes());
+		byte[]header=new byte[6];
+		assertEquals(6, is.read(header));
+		//many more packets than the receive buffer can hold
+		final int chunkSize=100;
+		byte[]data=getRandomData(1000*chunkSize-37);
+		final byte[][]packets=new byte[1000][];
+		for(int i=0;i<packets.length;i++){
+			int len=Math.min(chunkSize, data.length-i*chunkSize);
+			packets[i]=new byte[len];
+			System.arraycopy(data, i*chunkSize, packets[i], 0, len);
+		}
+		//some packets are already stored when the file mode starts
+		for(int i=0;i<5;i++){
+			is.haveNewData(i+2, packets[i]);
+		}
+		Thread writer=new Thread(new Runnable(){
+			public void run(){
+				try{
+					//reverse order, with duplicates. Packets are rejected 
+					//until the file mode has started, so retry like a sender
+					for(int i=packets.length-1;i>=0;i--){
+						while(!is.haveNewData(i+2, packets[i]))Thread.sleep(1);
+						if(i%10==0)is.haveNewData(i+2, packets[i]);
+					}
+				}catch(Exception ex){
+					ex.printStackTrace();
+				}
+			}
+		});
+		writer.start();
+		File f=File.createTempFile("udt-receive", ".dat");
+		f.deleteOnExit();
+		RandomAccessFile raf=new RandomAccessFile(f, "rw");
+		is.receiveFile(raf.getChannel(), 0, data.length, chunkSize);
+		writer.join();
+		byte[]received=new byte[data.length];
+		raf.readFully(received);
+		raf.close();
+		assertEquals(computeMD5(data), computeMD5(received));
+		//the stream continues after the file
+		is.haveNewData(1002, "trailer".getBytes());
+		is.noMoreData();
+		is.setBlocking(false);
+		byte[]trailer=new byte[7];
+		assertEquals(7, is.read(trailer));
+		assertEquals("trailer", new String(trailer));
+	}
+
+	@Test
+	public void testReadMessage()throws Exception{
+		UDTInputStream is=new UDTInputStream(null);
+		is.setBlocking(false);
+		//a message of two packets
+		is.haveNewData(1, MessageNumber.encode(1, true, false, true), "hel".getBytes(), 3);
+		is.haveNewData(2, MessageNumber.encode(1, false, true, true), "lo".getBytes(), 2);
+		//a message dropped completely
+		assertTrue(is.haveDroppedData(3, MessageNumber.encode(2, true, true, true)));
+		//a message of which one packet was dropped
+		is.haveNewData(4, MessageNumber.encode(3, true, false, true), "abc".getBytes(), 3);
+		assertTrue(is.haveDroppedData(5, MessageNumber.encode(3, false, false, true)));
+		is.haveNewData(6, MessageNumber.encode(3, false, true, true), "def".getBytes(), 3);
+		//the lost packet arrives late
+		is.haveNewData(5, MessageNumber.encode(3, false, false, true), "xyz".getBytes(), 3);
+		is.haveNewData(7, MessageNumber.encode(4, true, true, false), "bye".getBytes(), 3);
+		is.noMoreData();
+		assertEquals("hello", new String(is.readMessage()));
+		assertEquals("bye", new String(is.readMessage()));
+		assertNull(is.readMessage());
+	}
+
 	@Test
 	public void testLargeDataSetTwoThreads()throws Exception{
 		final UDTInputStream is=new UDTInputStream(null);
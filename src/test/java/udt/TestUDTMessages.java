@@ -0,0 +1,104 @@
+package udt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class TestUDTMessages extends UDTTestBase{
+
+	@Test(timeout=60000)
+	public void testSendReceiveMessages()throws Exception{
+		final int N=200;
+		final List<byte[]>messages=new ArrayList<byte[]>();
+		for(int i=0;i<N;i++){
+			//from a few bytes up to several packets
+			messages.add(getRandomData(1+(i*7919)%5000));
+		}
+		final UDTServerSocket serverSocket=new UDTServerSocket(InetAddress.getByName("localhost"),65325);
+		ExecutorService es=Executors.newSingleThreadExecutor();
+		Future<List<byte[]>>result=es.submit(new Callable<List<byte[]>>(){
+			public List<byte[]> call()throws Exception{
+				UDTSocket s=serverSocket.accept();
+				List<byte[]>received=new ArrayList<byte[]>();
+				for(int i=0;i<N;i++){
+					received.add(s.receiveMessage());
+				}
+				return received;
+			}
+		});
+		UDTClient client=new UDTClient(InetAddress.getByName("localhost"),12348);
+		client.connect("localhost", 65325);
+		for(int i=0;i<N;i++){
+			client.sendMessage(messages.get(i), 5000, i%2==0);
+		}
+		List<byte[]>received=result.get();
+		assertEquals(N, received.size());
+		for(int i=0;i<N;i++){
+			assertArrayEquals(messages.get(i), received.get(i));
+		}
+		client.flush();
+		client.shutdown();
+		serverSocket.shutDown();
+		es.shutdownNow();
+	}
+
+	@Test(timeout=60000)
+	public void testConcurrentSenders()throws Exception{
+		final int N=100;
+		final UDTServerSocket serverSocket=new UDTServerSocket(InetAddress.getByName("localhost"),65326);
+		ExecutorService es=Executors.newFixedThreadPool(3);
+		Future<List<byte[]>>result=es.submit(new Callable<List<byte[]>>(){
+			public List<byte[]> call()throws Exception{
+				UDTSocket s=serverSocket.accept();
+				List<byte[]>received=new ArrayList<byte[]>();
+				for(int i=0;i<2*N;i++){
+					received.add(s.receiveMessage());
+				}
+				return received;
+			}
+		});
+		final UDTClient client=new UDTClient(InetAddress.getByName("localhost"),12349);
+		client.connect("localhost", 65326);
+		List<Future<Object>>senders=new ArrayList<Future<Object>>();
+		for(int t=0;t<2;t++){
+			final byte tag=(byte)t;
+			senders.add(es.submit(new Callable<Object>(){
+				public Object call()throws Exception{
+					for(int i=0;i<N;i++){
+						//several packets, filled with the sender's tag and the message index
+						byte[]message=new byte[4000];
+						message[0]=tag;
+						for(int j=1;j<message.length;j++)message[j]=(byte)i;
+						client.sendMessage(message, 0, true);
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Object>f: senders)f.get();
+		List<byte[]>received=result.get();
+		int[]next=new int[2];
+		for(byte[]message: received){
+			int tag=message[0];
+			for(int j=1;j<message.length;j++){
+				assertEquals((byte)next[tag], message[j]);
+			}
+			next[tag]++;
+		}
+		assertEquals(N, next[0]);
+		assertEquals(N, next[1]);
+		client.shutdown();
+		serverSocket.shutDown();
+		es.shutdownNow();
+	}
+
+}
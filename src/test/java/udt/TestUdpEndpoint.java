@@ -4,7 +4,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.net.DatagramPacket;
+import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -83,5 +85,34 @@ public class TestUdpEndpoint extends UDTTestBase{
 		int port=ep.getLocalPort();
 		assertTrue(port>0);
 	}
+
+	@Test
+	public void testBatchSend()throws Exception{
+		InetAddress localhost=InetAddress.getByName("localhost");
+		doTestBatchSend(new UDPEndPoint(localhost));
+		doTestBatchSend(new NioUDPEndPoint(localhost));
+	}
+
+	private void doTestBatchSend(UDPEndPoint endpoint)throws Exception{
+		InetAddress localhost=InetAddress.getByName("localhost");
+		DatagramSocket peer=new DatagramSocket(0, localhost);
+		peer.setSoTimeout(5000);
+		UDTSession session=new ClientSession(endpoint, new Destination(localhost, peer.getLocalPort()));
+		int[]lengths=new int[]{100, 1, 1400};
+		ByteBuffer bb=endpoint.allocateSendBuffer(1501);
+		for(int i=0;i<lengths.length;i++){
+			for(int j=0;j<lengths[i];j++)bb.put((byte)i);
+		}
+		bb.flip();
+		endpoint.doSend(session, bb, lengths, lengths.length);
+		DatagramPacket dp=new DatagramPacket(new byte[2048],2048);
+		for(int i=0;i<lengths.length;i++){
+			peer.receive(dp);
+			assertEquals(lengths[i], dp.getLength());
+			assertEquals((byte)i, dp.getData()[dp.getLength()-1]);
+		}
+		peer.close();
+		endpoint.stop();
+	}
 	
 }
@@ -1,8 +1,12 @@
 package udt.packets;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,6 +29,79 @@ public class TestPacketFactory {
 		assertEquals(test,t);
 	}
 
+	@Test
+	public void testDecodeFromByteBuffer(){
+		DataPacket p1=new DataPacket();
+		p1.setPacketSequenceNumber(1234);
+		p1.setMessageNumber(9876);
+		p1.setTimeStamp(3456);
+		p1.setDestinationID(7);
+		p1.setData("sdjfsdjfldskjflds".getBytes());
+		ByteBuffer bb=ByteBuffer.allocateDirect(64);
+		bb.put(p1.getEncoded());
+		bb.flip();
+		DataPacket p2=(DataPacket)PacketFactory.createPacket(bb);
+		assertEquals(1234, p2.getPacketSequenceNumber());
+		assertEquals(9876, p2.getMessageNumber());
+		assertEquals(7, p2.getDestinationID());
+		assertEquals("sdjfsdjfldskjflds", new String(p2.getData()));
+
+		Acknowledgment2 a1 = new Acknowledgment2();
+		a1.setAckSequenceNumber(1230);
+		a1.setTimeStamp(3451);
+		a1.setDestinationID(1);
+		bb.clear();
+		bb.put(a1.getEncoded());
+		bb.flip();
+		assertEquals(a1,PacketFactory.createPacket(bb));
+	}
+
+	@Test
+	public void testEncodeInto(){
+		DataPacket d=new DataPacket();
+		d.setPacketSequenceNumber(0xFFFFFFF0L);
+		d.setMessageNumber(9876);
+		d.setTimeStamp(3456);
+		d.setDestinationID(7);
+		d.setData("sdjfsdjfldskjflds".getBytes());
+
+		Acknowledgement a=new Acknowledgement();
+		a.setAckSequenceNumber(1234);
+		a.setTimeStamp(3456);
+		a.setDestinationID(1);
+		a.setAckNumber(9870);
+		a.setRoundTripTime(1000);
+		a.setRoundTripTimeVar(500);
+
+		NegativeAcknowledgement n=new NegativeAcknowledgement();
+		n.setDestinationID(2);
+		n.addLossInfo(5);
+		n.addLossInfo(7);
+
+		for(UDTPacket p: new UDTPacket[]{d,a,n,new KeepAlive(),new Shutdown()}){
+			byte[]expected=p.getEncoded();
+
+			byte[]target=new byte[expected.length+4];
+			assertEquals(expected.length, p.encodeInto(target, 4));
+			for(int i=0;i<expected.length;i++){
+				assertEquals(expected[i], target[i+4]);
+			}
+
+			ByteBuffer bb=ByteBuffer.allocate(expected.length+4);
+			bb.put((byte)1);
+			p.encodeInto(bb);
+			assertEquals(expected.length+1, bb.position());
+			for(int i=0;i<expected.length;i++){
+				assertEquals(expected[i], bb.get(i+1));
+			}
+
+			try{
+				p.encodeInto(new byte[expected.length-1], 0);
+				fail("Expected BufferOverflowException");
+			}catch(BufferOverflowException ex){}
+		}
+	}
+
 	@Test
 	public void testConnectionHandshake(){
 		ConnectionHandshake p1 = new ConnectionHandshake();
@@ -147,6 +224,24 @@ public class TestPacketFactory {
 
 	}
 
+	@Test
+	public void testNegativeAcknowledgementRanges(){
+		NegativeAcknowledgement p1 = new NegativeAcknowledgement();
+		p1.setDestinationID(2);
+		p1.addLossInfo(5);
+		p1.addLossInfo(100, 10099);
+		byte[]p1_data=p1.getEncoded();
+
+		NegativeAcknowledgement p2=(NegativeAcknowledgement)PacketFactory.createPacket(p1_data);
+		long[]ranges=p2.getLossRanges();
+		assertEquals(4, ranges.length);
+		assertEquals(5, ranges[0]);
+		assertEquals(5, ranges[1]);
+		assertEquals(100, ranges[2]);
+		assertEquals(10099, ranges[3]);
+		assertEquals(10001, p2.getNumberOfLostPackets());
+	}
+
 	@Test
 	public void testShutdown(){
 		Shutdown p1 = new Shutdown();
@@ -180,6 +275,8 @@ public class TestPacketFactory {
 		assertTrue(p instanceof MessageDropRequest);
 		MessageDropRequest p2=(MessageDropRequest)p;
 		assertEquals(p1,p2);		
+		assertEquals(9876,p2.getMessageNumber());
+		assertFalse(p2.forSender());
 	}
 
 }
@@ -6,6 +6,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import org.junit.Test;
@@ -85,6 +86,36 @@ public class TestFlowWindow {
 
 	}
 
+	@Test
+	public void testWaitForProducer()throws InterruptedException{
+		final FlowWindow fw=new FlowWindow(2, 64);
+		for(int i=0;i<2;i++){
+			assertNotNull(fw.getForProducer());
+			fw.produce();
+		}
+		//times out if nothing is consumed
+		long start=System.currentTimeMillis();
+		assertNull(fw.getForProducer(50, TimeUnit.MILLISECONDS));
+		assertTrue(System.currentTimeMillis()-start>=50);
+
+		//woken up as soon as a packet is consumed
+		Thread reader=new Thread(new Runnable(){
+			public void run(){
+				try{
+					Thread.sleep(100);
+				}catch(InterruptedException ie){}
+				fw.consumeData();
+			}
+		});
+		reader.start();
+		start=System.currentTimeMillis();
+		DataPacket p=fw.getForProducer(10, TimeUnit.SECONDS);
+		assertNotNull(p);
+		assertTrue(System.currentTimeMillis()-start<5000);
+		fw.produce();
+		assertTrue(fw.isFull());
+	}
+
 	private volatile boolean fail=false;
 
 	@Test
@@ -0,0 +1,48 @@
+package udt.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import udt.util.Util;
+
+public class TestPacer {
+
+	@Test
+	public void testHybridPacer(){
+		Pacer p=new HybridPacer();
+		long start=Util.getCurrentTime();
+		long due=start;
+		for(int i=0;i<100;i++){
+			due+=500;
+			p.pace(due, 500);
+			assertTrue(Util.getCurrentTime()>=due);
+		}
+		long elapsed=Util.getCurrentTime()-start;
+		assertTrue("Took "+elapsed,elapsed>=50000);
+	}
+
+	@Test
+	public void testTokenBucketPacer(){
+		TokenBucketPacer p=new TokenBucketPacer(4);
+		long interval=10000;
+		long start=Util.getCurrentTime();
+		long due=start+interval;
+		//first packet waits for a full burst
+		p.pace(due, interval);
+		long first=Util.getCurrentTime();
+		assertTrue(first>=due+3*interval);
+		//the next three go out without waiting
+		for(int i=0;i<3;i++){
+			due+=interval;
+			p.pace(due, interval);
+		}
+		assertTrue(Util.getCurrentTime()-first<interval);
+		//then wait again
+		due+=interval;
+		p.pace(due, interval);
+		assertTrue(Util.getCurrentTime()>=due+3*interval);
+		assertEquals(4,p.getBurstSize());
+	}
+}
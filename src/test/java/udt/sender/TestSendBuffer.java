@@ -0,0 +1,152 @@
+package udt.sender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import udt.util.MessageNumber;
+import udt.util.SequenceNumber;
+
+public class TestSendBuffer {
+
+	@Test
+	public void testStoreReadAck(){
+		SendBuffer sb=new SendBuffer(4, 16, 100);
+		assertTrue(sb.isEmpty());
+		assertEquals(-1, sb.getFirstSequenceNumber());
+		for(int i=0;i<3;i++){
+			byte[]data=new byte[]{(byte)i,(byte)i};
+			assertTrue(sb.store(100+i, data, 0, data.length));
+		}
+		assertEquals(3, sb.size());
+		assertEquals(100, sb.getFirstSequenceNumber());
+
+		byte[]target=new byte[16];
+		assertEquals(2, sb.read(101, target));
+		assertEquals(1, target[0]);
+		assertEquals(-1, sb.read(103, target));
+		assertEquals(-1, sb.read(99, target));
+
+		//ack up to (excluding) 102
+		assertEquals(2, sb.ack(102));
+		assertEquals(1, sb.size());
+		assertEquals(102, sb.getFirstSequenceNumber());
+		assertEquals(-1, sb.read(101, target));
+		assertEquals(2, sb.read(102, target));
+		assertEquals(2, target[0]);
+
+		//duplicate or old acks do nothing
+		assertEquals(0, sb.ack(102));
+		assertEquals(0, sb.ack(50));
+		//acking beyond the stored packets removes everything
+		assertEquals(1, sb.ack(110));
+		assertTrue(sb.isEmpty());
+	}
+
+	@Test
+	public void testFull(){
+		SendBuffer sb=new SendBuffer(2, 8, 1);
+		byte[]data=new byte[8];
+		assertTrue(sb.store(1, data, 0, 8));
+		assertTrue(sb.store(2, data, 0, 8));
+		assertFalse(sb.store(3, data, 0, 8));
+		sb.ack(2);
+		assertTrue(sb.store(3, data, 0, 8));
+		assertEquals(2, sb.size());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testOutOfOrderStore(){
+		SendBuffer sb=new SendBuffer(2, 8, 1);
+		sb.store(2, new byte[1], 0, 1);
+	}
+
+	@Test
+	public void testSequenceNumberWrap(){
+		long max=0x7FFFFFFFL;
+		long seq=max-300;
+		SendBuffer sb=new SendBuffer(1000, 4, seq);
+		byte[]data=new byte[4];
+		for(int i=0;i<600;i++){
+			data[0]=(byte)i;
+			assertTrue(sb.store(seq, data, 0, 4));
+			seq=SequenceNumber.increment(seq);
+		}
+		assertEquals(299, seq);
+		byte[]target=new byte[4];
+		assertEquals(4, sb.read(max, target));
+		assertEquals((byte)300, target[0]);
+		assertEquals(4, sb.read(0, target));
+		assertEquals((byte)301, target[0]);
+
+		assertEquals(301, sb.ack(0));
+		assertEquals(0, sb.getFirstSequenceNumber());
+		assertEquals(299, sb.size());
+		assertEquals(-1, sb.read(max, target));
+	}
+
+	@Test
+	public void testStoreByReference(){
+		SendBuffer sb=new SendBuffer(4, 8, 1);
+		ByteBuffer file=ByteBuffer.allocateDirect(20);
+		for(int i=0;i<20;i++)file.put((byte)i);
+		file.flip();
+		for(long seq=1;seq<=3;seq++){
+			ByteBuffer region=file.slice();
+			region.limit(Math.min(8, file.remaining()));
+			file.position(file.position()+region.remaining());
+			assertTrue(sb.store(seq, region));
+		}
+		byte[]data=new byte[]{42,43};
+		assertTrue(sb.store(4, data, 0, 2));
+		byte[]target=new byte[8];
+		assertEquals(8, sb.read(2, target));
+		assertEquals(8, target[0]);
+		assertEquals(15, target[7]);
+		assertEquals(4, sb.read(3, target));
+		assertEquals(16, target[0]);
+		assertEquals(2, sb.read(4, target));
+		assertEquals(42, target[0]);
+		//re-reading does not consume the region
+		assertEquals(4, sb.read(3, target));
+		assertEquals(16, target[0]);
+		assertEquals(3, sb.ack(4));
+		assertEquals(-1, sb.read(3, target));
+		//slot re-used by a copied packet
+		assertTrue(sb.store(5, data, 0, 1));
+		assertEquals(1, sb.read(5, target));
+		assertEquals(42, target[0]);
+	}
+
+	@Test
+	public void testExpiredMessage(){
+		SendBuffer sb=new SendBuffer(8, 8, 1);
+		byte[]data=new byte[8];
+		//stream data, a message of three packets expiring at 100, and one that never expires
+		assertTrue(sb.store(1, data, 0, 8));
+		assertTrue(sb.store(2, data, 0, 8, MessageNumber.encode(1, true, false, true), 100));
+		assertTrue(sb.store(3, data, 0, 8, MessageNumber.encode(1, false, false, true), 100));
+		assertTrue(sb.store(4, data, 0, 2, MessageNumber.encode(1, false, true, true), 100));
+		assertTrue(sb.store(5, data, 0, 8, MessageNumber.encode(2, true, true, true), 0));
+		assertEquals(MessageNumber.encode(1, true, false, true), sb.getMessageNumber(2));
+		assertEquals(0, sb.getMessageNumber(1));
+		assertEquals(-1, sb.getMessageNumber(6));
+		assertNull(sb.getExpiredMessage(3, 99));
+		long[]range=sb.getExpiredMessage(3, 100);
+		assertEquals(2, range[0]);
+		assertEquals(4, range[1]);
+		assertNull(sb.getExpiredMessage(1, 1000));
+		assertNull(sb.getExpiredMessage(5, 1000));
+		//only the unacknowledged part of the message is dropped
+		sb.ack(3);
+		range=sb.getExpiredMessage(4, 1000);
+		assertEquals(3, range[0]);
+		assertEquals(4, range[1]);
+		assertNull(sb.getExpiredMessage(2, 1000));
+	}
+}
@@ -0,0 +1,85 @@
+package udt.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCompressedStreams {
+
+	@Test
+	public void testRoundTrip()throws Exception{
+		//compressible text, followed by random data
+		StringBuilder sb=new StringBuilder();
+		for(int i=0;i<20000;i++){
+			sb.append(i).append(",value-").append(i%17).append(",OK\n");
+		}
+		byte[]text=sb.toString().getBytes();
+		byte[]random=new byte[100000];
+		new Random(1).nextBytes(random);
+
+		ByteArrayOutputStream bos=new ByteArrayOutputStream();
+		CompressedOutputStream cos=new CompressedOutputStream(bos, 65536, CompressedOutputStream.DEFAULT_LEVEL);
+		//small writes, and a flush in between
+		for(int i=0;i<text.length;i+=1000){
+			cos.write(text, i, Math.min(1000, text.length-i));
+		}
+		cos.flush();
+		long compressedText=bos.size();
+		assertTrue(compressedText*3<text.length);
+		cos.write(random);
+		cos.write(42);
+		cos.finish();
+		assertEquals(text.length+random.length+1, cos.getBytesIn());
+		assertEquals(bos.size(), cos.getBytesOut());
+		//random data is stored, with little overhead
+		assertTrue(bos.size()-compressedText<random.length+100);
+
+		CompressedInputStream cis=new CompressedInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		ByteArrayOutputStream result=new ByteArrayOutputStream();
+		byte[]buf=new byte[7000];
+		int c;
+		while((c=cis.read(buf))>=0){
+			result.write(buf, 0, c);
+		}
+		cis.close();
+		ByteArrayOutputStream expected=new ByteArrayOutputStream();
+		expected.write(text);
+		expected.write(random);
+		expected.write(42);
+		assertArrayEquals(expected.toByteArray(), result.toByteArray());
+	}
+
+	@Test
+	public void testRejectOversizedFrame()throws Exception{
+		ByteArrayOutputStream bos=new ByteArrayOutputStream();
+		CompressedOutputStream cos=new CompressedOutputStream(bos, 65536, CompressedOutputStream.DEFAULT_LEVEL);
+		cos.write(new byte[65536]);
+		cos.finish();
+		byte[]data=bos.toByteArray();
+		//frames larger than the maximum are rejected before anything is allocated
+		CompressedInputStream cis=new CompressedInputStream(new ByteArrayInputStream(data), 65535);
+		try{
+			cis.read();
+			fail("Oversized frame accepted");
+		}catch(IOException expected){}
+		//a header claiming a huge frame
+		byte[]header={0x7F, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0, 0, 0, 1, 0};
+		cis=new CompressedInputStream(new ByteArrayInputStream(header));
+		try{
+			cis.read();
+			fail("Oversized frame accepted");
+		}catch(IOException expected){}
+		//the exact maximum is fine
+		cis=new CompressedInputStream(new ByteArrayInputStream(data), 65536);
+		assertEquals(0, cis.read());
+	}
+
+}
@@ -0,0 +1,193 @@
+package udt.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestDirectoryTransfer {
+
+	@Test
+	public void testSendAndReceive()throws Exception{
+		File source=createTempDir();
+		Random r=new Random(1);
+		for(int i=0;i<200;i++){
+			File sub=new File(source, "dir"+(i%3)+(i%2==0?"/nested":""));
+			sub.mkdirs();
+			write(new File(sub, "file"+i), r, r.nextInt(3000));
+		}
+		write(new File(source, "empty"), r, 0);
+		write(new File(source, "large"), r, 3*DirectoryTransfer.PIECE_SIZE+123);
+
+		ByteArrayOutputStream bos=new ByteArrayOutputStream();
+		long size=DirectoryTransfer.send(source, bos);
+		//a few bytes of framing per file
+		assertTrue(bos.size()-size<202*64);
+
+		File target=createTempDir();
+		//an existing longer file is truncated
+		write(new File(target, "empty"), r, 100);
+		assertEquals(202, DirectoryTransfer.receive(new ByteArrayInputStream(bos.toByteArray()), target));
+		compare(source, target);
+	}
+
+	@Test
+	public void testManyFilesInPieces()throws Exception{
+		//more files receiving pieces at the same time than the receiver keeps open
+		int count=50;
+		ByteArrayOutputStream bos=new ByteArrayOutputStream();
+		bos.write(Application.encode(count));
+		for(int i=0;i<count;i++){
+			byte[]path=("file"+i).getBytes("UTF-8");
+			bos.write(Application.encode(path.length));
+			bos.write(path);
+			bos.write(Application.encode64(2));
+		}
+		for(int offset=1;offset>=0;offset--){
+			for(int i=0;i<count;i++){
+				bos.write(Application.encode(i));
+				bos.write(Application.encode64(offset));
+				bos.write(Application.encode(1));
+				bos.write(i+offset);
+			}
+		}
+		File target=createTempDir();
+		assertEquals(count, DirectoryTransfer.receive(new ByteArrayInputStream(bos.toByteArray()), target));
+		for(int i=0;i<count;i++){
+			RandomAccessFile raf=new RandomAccessFile(new File(target, "file"+i), "r");
+			try{
+				assertEquals(2, raf.length());
+				assertEquals(i, raf.read());
+				assertEquals(i+1, raf.read());
+			}finally{
+				raf.close();
+			}
+		}
+	}
+
+	@Test
+	public void testLinkCycle()throws Exception{
+		File source=createTempDir();
+		File sub=new File(source, "sub");
+		sub.mkdirs();
+		write(new File(sub, "file"), new Random(1), 100);
+		//a link back to the top directory, if the platform can create one
+		try{
+			Process ln=new ProcessBuilder("ln", "-s", source.getAbsolutePath(), new File(sub, "loop").getAbsolutePath()).start();
+			if(ln.waitFor()!=0)return;
+		}catch(IOException noLinks){
+			return;
+		}
+		try{
+			ByteArrayOutputStream bos=new ByteArrayOutputStream();
+			assertEquals(100, DirectoryTransfer.send(source, bos));
+			File target=createTempDir();
+			assertEquals(1, DirectoryTransfer.receive(new ByteArrayInputStream(bos.toByteArray()), target));
+			assertEquals(100, new File(target, "sub/file").length());
+		}finally{
+			new File(sub, "loop").delete();
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testRejectPathOutsideTarget()throws Exception{
+		ByteArrayOutputStream bos=manifest("../evil", 0);
+		DirectoryTransfer.receive(new ByteArrayInputStream(bos.toByteArray()), createTempDir());
+	}
+
+	@Test
+	public void testRejectMaliciousManifest()throws Exception{
+		File target=createTempDir();
+		String[]paths={"..\\evil", "dir\\..\\..\\evil", "C:\\evil", "c:evil", "/tmp/evil", "a//b", "a/./b"};
+		for(String path: paths){
+			assertRejected(manifest(path, 0), target);
+		}
+		//a piece beyond the size given in the manifest
+		ByteArrayOutputStream bos=manifest("file", 10);
+		bos.write(Application.encode(0));
+		bos.write(Application.encode64(5));
+		bos.write(Application.encode(10));
+		bos.write(new byte[10]);
+		assertRejected(bos, target);
+		//an unreasonable number of files
+		bos=new ByteArrayOutputStream();
+		bos.write(Application.encode(0x7FFFFFFF));
+		assertRejected(bos, target);
+		//sizes adding up to more than Long.MAX_VALUE
+		bos=new ByteArrayOutputStream();
+		bos.write(Application.encode(2));
+		for(String path: new String[]{"a", "b"}){
+			bos.write(Application.encode(1));
+			bos.write(path.getBytes("UTF-8"));
+			bos.write(Application.encode64(Long.MAX_VALUE));
+		}
+		assertRejected(bos, target);
+		assertEquals(0, target.list().length);
+	}
+
+	private void assertRejected(ByteArrayOutputStream bos, File target)throws Exception{
+		try{
+			DirectoryTransfer.receive(new ByteArrayInputStream(bos.toByteArray()), target);
+			fail("Manifest accepted");
+		}catch(IOException expected){}
+	}
+
+	//a manifest listing a single file
+	private ByteArrayOutputStream manifest(String path, long size)throws Exception{
+		ByteArrayOutputStream bos=new ByteArrayOutputStream();
+		byte[]p=path.getBytes("UTF-8");
+		bos.write(Application.encode(1));
+		bos.write(Application.encode(p.length));
+		bos.write(p);
+		bos.write(Application.encode64(size));
+		return bos;
+	}
+
+	private void compare(File source, File target)throws Exception{
+		for(File f: source.listFiles()){
+			File t=new File(target, f.getName());
+			if(f.isDirectory()){
+				compare(f, t);
+			}
+			else{
+				assertArrayEquals(read(f), read(t));
+			}
+		}
+	}
+
+	private byte[] read(File f)throws Exception{
+		RandomAccessFile raf=new RandomAccessFile(f, "r");
+		byte[]data=new byte[(int)raf.length()];
+		raf.readFully(data);
+		raf.close();
+		return data;
+	}
+
+	private void write(File f, Random r, int size)throws Exception{
+		byte[]data=new byte[size];
+		r.nextBytes(data);
+		FileOutputStream fos=new FileOutputStream(f);
+		fos.write(data);
+		fos.close();
+		f.deleteOnExit();
+	}
+
+	private File createTempDir()throws Exception{
+		File dir=File.createTempFile("udt-dir", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+}
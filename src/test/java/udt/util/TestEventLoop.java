@@ -0,0 +1,86 @@
+package udt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestEventLoop {
+
+	@Test
+	public void testSchedule()throws Exception{
+		final EventLoop loop=new EventLoop("test");
+		try{
+			final CountDownLatch latch=new CountDownLatch(1);
+			final long[]firedAt=new long[1];
+			final AtomicInteger runs=new AtomicInteger();
+			final long start=Util.getCurrentTime();
+			final EventLoop.Task task=new EventLoop.Task(){
+				public void run(){
+					runs.incrementAndGet();
+					firedAt[0]=Util.getCurrentTime()-start;
+					latch.countDown();
+				}
+			};
+			//the later schedule replaces the earlier one
+			loop.schedule(task, start+2000);
+			loop.schedule(task, start+5000);
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			assertTrue("Fired at "+firedAt[0], firedAt[0]>=5000);
+			Thread.sleep(20);
+			assertEquals(1, runs.get());
+		}finally{
+			loop.stop();
+		}
+	}
+
+	@Test
+	public void testExecuteTaskOnce()throws Exception{
+		final EventLoop loop=new EventLoop("test");
+		try{
+			final CountDownLatch blocker=new CountDownLatch(1);
+			final AtomicInteger runs=new AtomicInteger();
+			final EventLoop.Task task=new EventLoop.Task(){
+				public void run(){
+					runs.incrementAndGet();
+				}
+			};
+			//keep the loop busy while the task is submitted several times
+			loop.execute(new Runnable(){
+				public void run(){
+					try{
+						blocker.await();
+					}catch(InterruptedException ie){}
+				}
+			});
+			for(int i=0;i<10;i++){
+				loop.execute(task);
+			}
+			blocker.countDown();
+			final CountDownLatch done=new CountDownLatch(1);
+			loop.execute(new Runnable(){
+				public void run(){
+					done.countDown();
+				}
+			});
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			assertEquals(1, runs.get());
+			//once it has run, the task can be submitted again
+			loop.execute(task);
+			final CountDownLatch done2=new CountDownLatch(1);
+			loop.execute(new Runnable(){
+				public void run(){
+					done2.countDown();
+				}
+			});
+			assertTrue(done2.await(5, TimeUnit.SECONDS));
+			assertEquals(2, runs.get());
+		}finally{
+			loop.stop();
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package udt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestMappedFileWriter {
+
+	@Test
+	public void testOutOfOrderWithWrap()throws Exception{
+		File f=File.createTempFile("udt-mapped", ".dat");
+		f.deleteOnExit();
+		RandomAccessFile raf=new RandomAccessFile(f, "rw");
+		//the sequence numbers wrap around within the file
+		long first=SequenceNumber.MAX_SEQUENCE_NUMBER-1;
+		MappedFileWriter w=new MappedFileWriter(raf.getChannel(), 10, 25, 10, first);
+		assertEquals(3, w.getNumberOfPackets());
+		assertEquals(1, w.getEndSequenceNumber());
+		assertFalse(w.contains(first-1));
+		assertTrue(w.contains(0));
+		assertFalse(w.contains(1));
+		assertFalse(w.write(1, new byte[10], 10));
+
+		assertTrue(w.write(0, fill(5, 20), 5));
+		assertTrue(w.write(first, fill(10, 0), 10));
+		assertFalse(w.awaitCompletion(10, TimeUnit.MILLISECONDS));
+		//duplicate
+		assertTrue(w.write(0, fill(5, 20), 5));
+		assertEquals(2, w.getNumberOfReceivedPackets());
+		assertTrue(w.write(first+1, fill(10, 10), 10));
+		assertTrue(w.isComplete());
+		assertTrue(w.awaitCompletion(10, TimeUnit.MILLISECONDS));
+		w.force();
+
+		byte[]content=new byte[35];
+		raf.readFully(content);
+		raf.close();
+		for(int i=0;i<25;i++){
+			assertEquals((byte)i, content[10+i]);
+		}
+	}
+
+	@Test(expected=IOException.class)
+	public void testUnalignedPacket()throws Exception{
+		File f=File.createTempFile("udt-mapped", ".dat");
+		f.deleteOnExit();
+		RandomAccessFile raf=new RandomAccessFile(f, "rw");
+		try{
+			MappedFileWriter w=new MappedFileWriter(raf.getChannel(), 0, 25, 10, 1);
+			w.write(1, new byte[7], 7);
+			w.awaitCompletion(10, TimeUnit.MILLISECONDS);
+		}finally{
+			raf.close();
+		}
+	}
+
+	private byte[] fill(int length, int start){
+		byte[]b=new byte[length];
+		for(int i=0;i<length;i++)b[i]=(byte)(start+i);
+		return b;
+	}
+}
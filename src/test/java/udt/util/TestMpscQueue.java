@@ -0,0 +1,72 @@
+package udt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestMpscQueue {
+
+	@Test
+	public void testOfferAndPoll(){
+		MpscQueue<Integer>q=new MpscQueue<Integer>(3);
+		assertEquals(4, q.getCapacity());
+		assertTrue(q.isEmpty());
+		assertNull(q.poll());
+		for(int i=0;i<4;i++){
+			assertTrue(q.offer(i));
+		}
+		//full
+		assertFalse(q.offer(4));
+		assertEquals(4, q.size());
+		assertEquals(Integer.valueOf(0), q.poll());
+		assertTrue(q.offer(4));
+		for(int i=1;i<5;i++){
+			assertEquals(Integer.valueOf(i), q.poll());
+		}
+		assertTrue(q.isEmpty());
+		assertEquals(0, q.size());
+	}
+
+	@Test
+	public void testManyProducers()throws Exception{
+		final MpscQueue<Long>q=new MpscQueue<Long>(64);
+		final int producers=4;
+		final int perProducer=100000;
+		Thread[]threads=new Thread[producers];
+		for(int p=0;p<producers;p++){
+			final long id=p;
+			threads[p]=new Thread(new Runnable(){
+				public void run(){
+					for(long i=0;i<perProducer;i++){
+						Long value=Long.valueOf(id*perProducer+i);
+						while(!q.offer(value)){
+							Thread.yield();
+						}
+					}
+				}
+			});
+			threads[p].start();
+		}
+		//the elements of each producer arrive complete and in order
+		long[]next=new long[producers];
+		int received=0;
+		while(received<producers*perProducer){
+			Long v=q.poll();
+			if(v==null){
+				Thread.yield();
+				continue;
+			}
+			int p=(int)(v/perProducer);
+			assertEquals(next[p], v%perProducer);
+			next[p]++;
+			received++;
+		}
+		for(Thread t: threads){
+			t.join();
+		}
+		assertTrue(q.isEmpty());
+	}
+}
@@ -1,5 +1,7 @@
 package udt.util;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -55,6 +57,29 @@ public class TestReceiveBuffer extends TestCase{
 		assertNull(b.poll());
 	}
 
+	public void testDuplicatesAreReleased(){
+		ReceiveBuffer b=new ReceiveBuffer(16,1);
+		PayloadPool pool=new PayloadPool(8,16);
+		b.offer(new AppData(1l,pool.acquire(),5,pool));
+		b.offer(new AppData(2l,pool.acquire(),5,pool));
+		//duplicate of an unread chunk
+		b.offer(new AppData(2l,pool.acquire(),5,pool));
+		assertEquals(1,pool.size());
+
+		AppData a=b.poll();
+		assertEquals(1l,a.getSequenceNumber());
+		a.release();
+		assertEquals(2,pool.size());
+
+		//duplicate of an already read chunk
+		b.offer(new AppData(1l,pool.acquire(),5,pool));
+		assertEquals(2,pool.size());
+
+		a=b.poll();
+		assertEquals(2l,a.getSequenceNumber());
+		assertNull(b.poll());
+	}
+
 	public void testInterleaved(){
 		ReceiveBuffer b=new ReceiveBuffer(16,1);
 		byte[]test1="test1".getBytes();
@@ -79,6 +104,42 @@ public class TestReceiveBuffer extends TestCase{
 		assertEquals(3l,a.getSequenceNumber());
 	}
 
+	public void testDrainTo(){
+		ReceiveBuffer b=new ReceiveBuffer(16,1);
+		PayloadPool pool=new PayloadPool(8,16);
+		for(int i: new int[]{1,2,3,5}){
+			byte[]data=pool.acquire();
+			Arrays.fill(data, (byte)i);
+			b.offer(new AppData(i,data,5,pool));
+		}
+		//only whole chunks that fit are copied
+		ByteBuffer target=ByteBuffer.allocate(12);
+		assertEquals(10, b.drainTo(target));
+		assertEquals(2, target.remaining());
+		assertEquals(2, pool.size());
+		assertEquals(1, target.get(0));
+		assertEquals(2, target.get(9));
+		//the rest stops at the gap
+		target=ByteBuffer.allocate(100);
+		assertEquals(5, b.drainTo(target));
+		assertEquals(0, b.drainTo(target));
+		b.offer(new AppData(4,pool.acquire(),5,pool));
+		assertEquals(10, b.drainTo(target));
+		assertTrue(b.isEmpty());
+		assertEquals(4, pool.size());
+	}
+
+	public void testSequenceNumberWrap(){
+		long max=SequenceNumber.MAX_SEQUENCE_NUMBER;
+		ReceiveBuffer b=new ReceiveBuffer(6,max-2);
+		for(long seq: new long[]{0, max, 1, max-2, max-1, 2}){
+			assertTrue(b.offer(new AppData(seq,"test".getBytes())));
+		}
+		ByteBuffer target=ByteBuffer.allocate(100);
+		assertEquals(24, b.drainTo(target));
+		assertTrue(b.isEmpty());
+	}
+
 	public void testOverflow(){
 		ReceiveBuffer b=new ReceiveBuffer(4,1);
 
@@ -0,0 +1,70 @@
+package udt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestTimerWheel {
+
+	@Test
+	public void testScheduleAndCancel()throws Exception{
+		TimerWheel wheel=new TimerWheel("test", 1000, 16);
+		try{
+			final CountDownLatch latch=new CountDownLatch(3);
+			final long[]firedAt=new long[3];
+			final long start=System.nanoTime();
+			//delays shorter than, equal to and longer than a full turn of the wheel
+			long[]delays=new long[]{5, 16, 50};
+			for(int i=0;i<3;i++){
+				final int index=i;
+				wheel.schedule(new Runnable(){
+					public void run(){
+						firedAt[index]=System.nanoTime()-start;
+						latch.countDown();
+					}
+				}, delays[i], TimeUnit.MILLISECONDS);
+			}
+			final AtomicInteger cancelledRuns=new AtomicInteger();
+			TimerWheel.Timeout t=wheel.schedule(new Runnable(){
+				public void run(){
+					cancelledRuns.incrementAndGet();
+				}
+			}, 20, TimeUnit.MILLISECONDS);
+			t.cancel();
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			for(int i=0;i<3;i++){
+				//never early
+				assertTrue("Fired at "+firedAt[i], firedAt[i]>=TimeUnit.MILLISECONDS.toNanos(delays[i]));
+			}
+			Thread.sleep(50);
+			assertEquals(0, cancelledRuns.get());
+			assertEquals(0, wheel.size());
+		}finally{
+			wheel.stop();
+		}
+	}
+
+	@Test
+	public void testPeriodicTask()throws Exception{
+		final TimerWheel wheel=new TimerWheel("test");
+		try{
+			final CountDownLatch latch=new CountDownLatch(10);
+			wheel.schedule(new Runnable(){
+				public void run(){
+					latch.countDown();
+					if(latch.getCount()>0){
+						wheel.schedule(this, 2, TimeUnit.MILLISECONDS);
+					}
+				}
+			}, 2, TimeUnit.MILLISECONDS);
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+		}finally{
+			wheel.stop();
+		}
+	}
+}
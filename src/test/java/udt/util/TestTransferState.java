@@ -0,0 +1,59 @@
+package udt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestTransferState {
+
+	@Test
+	public void testResumeAndVerify()throws Exception{
+		File stateFile=File.createTempFile("udt-state", TransferState.SUFFIX);
+		stateFile.deleteOnExit();
+		File dataFile=File.createTempFile("udt-data", ".dat");
+		dataFile.deleteOnExit();
+		byte[]data=new byte[1000];
+		for(int i=0;i<data.length;i++)data[i]=(byte)i;
+		RandomAccessFile raf=new RandomAccessFile(dataFile, "rw");
+		raf.write(data);
+
+		TransferState state=TransferState.open(stateFile, 1000, 42, 300);
+		assertEquals(4, state.getNumberOfChunks());
+		assertEquals(100, state.getChunkLength(3));
+		assertEquals(4, state.getMissingRuns().get(0)[1]);
+		for(int i=0;i<3;i++){
+			state.setComplete(i, TransferState.checksum(data, i*300, 300));
+		}
+		state.close();
+
+		//reopen, and corrupt chunk 1 on disk
+		state=TransferState.open(stateFile, 1000, 42, 300);
+		assertEquals(3, state.getNumberOfCompleteChunks());
+		raf.seek(450);
+		raf.write(0);
+		assertEquals(1, state.verify(raf.getChannel()));
+		assertTrue(state.isComplete(0));
+		assertFalse(state.isComplete(1));
+		List<int[]>runs=state.getMissingRuns();
+		assertEquals(2, runs.size());
+		assertEquals(1, runs.get(0)[0]);
+		assertEquals(1, runs.get(0)[1]);
+		assertEquals(3, runs.get(1)[0]);
+		assertEquals(1, runs.get(1)[1]);
+		state.close();
+		raf.close();
+
+		//a different version of the file starts from scratch
+		state=TransferState.open(stateFile, 1000, 43, 300);
+		assertEquals(0, state.getNumberOfCompleteChunks());
+		state.delete();
+		assertFalse(stateFile.exists());
+	}
+
+}
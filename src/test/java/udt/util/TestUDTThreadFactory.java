@@ -0,0 +1,58 @@
+package udt.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestUDTThreadFactory {
+
+	@Test
+	public void testPlatformThreads()throws Exception{
+		UDTThreadFactory f=new UDTThreadFactory(false);
+		assertFalse(f.isVirtual());
+		assertFalse(isVirtual(f.newThread(new Runnable(){public void run(){}})));
+	}
+
+	@Test
+	public void testVirtualThreads()throws Exception{
+		//falls back to platform threads on Java runtimes without virtual threads
+		UDTThreadFactory f=new UDTThreadFactory(true);
+		boolean supported=hasVirtualThreads();
+		assertEquals(supported, f.isVirtual());
+		final CountDownLatch latch=new CountDownLatch(2);
+		Runnable r=new Runnable(){
+			public void run(){
+				latch.countDown();
+			}
+		};
+		Thread t=f.newThread(r);
+		assertEquals(supported, isVirtual(t));
+		t.start();
+		//infrastructure threads are never virtual
+		assertFalse(isVirtual(f.newPlatformThread(r)));
+		ExecutorService handlers=f.newHandlerExecutor(1);
+		handlers.execute(r);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		handlers.shutdown();
+	}
+
+	private static boolean hasVirtualThreads(){
+		try{
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		}catch(NoSuchMethodException e){
+			return false;
+		}
+	}
+
+	private static boolean isVirtual(Thread t)throws Exception{
+		if(!hasVirtualThreads())return false;
+		return (Boolean)Thread.class.getMethod("isVirtual").invoke(t);
+	}
+}